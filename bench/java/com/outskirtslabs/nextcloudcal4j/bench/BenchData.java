@@ -0,0 +1,58 @@
+package com.outskirtslabs.nextcloudcal4j.bench;
+
+import clojure.lang.IPersistentMap;
+import clojure.lang.PersistentHashMap;
+import com.outskirtslabs.nextcloudcal4j.Event;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * Fixtures shared by the benchmarks, shaped like the gig events probematic writes.
+ */
+final class BenchData {
+    static final ZoneId VIENNA = ZoneId.of("Europe/Vienna");
+    static final Instant START = Instant.parse("2023-10-17T16:45:00Z");
+
+    private BenchData() {
+    }
+
+    static IPersistentMap gigEventMap(int i) {
+        return PersistentHashMap.create(
+                Event.CREATED_AT, START,
+                Event.START_TIME, START.plus(i, ChronoUnit.DAYS),
+                Event.END_TIME, START.plus(i, ChronoUnit.DAYS).plus(3, ChronoUnit.HOURS),
+                Event.DESCRIPTION, "Die Endzeit ist gesch\u00e4tzt\nBring your own stand",
+                Event.SUMMARY, "Gig " + i,
+                Event.TIMEZONE, VIENNA,
+                Event.UID, "00000000-0000-0000-0000-" + String.format("%012d", i),
+                Event.URL, "https://example.com/gig/" + i + "/",
+                Event.LOCATION, "Wien, Donaukanal",
+                Event.STATUS, Event.CONFIRMED);
+    }
+
+    static Event gigEvent(int i) {
+        return Event.fromClojure(gigEventMap(i));
+    }
+
+    /**
+     * A calendar-query multistatus body as nextcloud returns it, with count events
+     */
+    static byte[] multistatus(String calendarPath, int count) throws Exception {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<?xml version=\"1.0\"?>\n<d:multistatus xmlns:d=\"DAV:\" xmlns:s=\"http://sabredav.org/ns\" xmlns:cal=\"urn:ietf:params:xml:ns:caldav\" xmlns:cs=\"http://calendarserver.org/ns/\" xmlns:oc=\"http://owncloud.org/ns\" xmlns:nc=\"http://nextcloud.org/ns\">");
+        for (int i = 0; i < count; i++) {
+            Event event = gigEvent(i);
+            String ics = event.toICal().toString()
+                    .replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+            sb.append("<d:response><d:href>").append(calendarPath).append(event.getUid()).append(".ics</d:href>")
+                    .append("<d:propstat><d:prop><d:getetag>&quot;").append(Integer.toHexString(i)).append("&quot;</d:getetag>")
+                    .append("<cal:calendar-data>").append(ics).append("</cal:calendar-data></d:prop>")
+                    .append("<d:status>HTTP/1.1 200 OK</d:status></d:propstat></d:response>");
+        }
+        sb.append("</d:multistatus>");
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
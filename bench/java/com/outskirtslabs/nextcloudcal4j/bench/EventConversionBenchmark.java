@@ -0,0 +1,72 @@
+package com.outskirtslabs.nextcloudcal4j.bench;
+
+import clojure.lang.IPersistentMap;
+import com.outskirtslabs.nextcloudcal4j.Event;
+import net.fortuna.ical4j.model.Calendar;
+import net.fortuna.ical4j.model.component.VEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single event conversions between the clojure map, {@link Event} and ical4j representations.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {
+        "-Dnet.fortuna.ical4j.timezone.update.enabled=false",
+        "-Dnet.fortuna.ical4j.timezone.cache.impl=net.fortuna.ical4j.util.MapTimeZoneCache"})
+public class EventConversionBenchmark {
+    private IPersistentMap map;
+    private Event event;
+    private Calendar ical;
+
+    @Setup
+    public void setup() throws Exception {
+        map = BenchData.gigEventMap(1);
+        event = BenchData.gigEvent(1);
+        ical = event.toICal();
+    }
+
+    @Benchmark
+    public Event fromClojure() {
+        return Event.fromClojure(map);
+    }
+
+    @Benchmark
+    public Object toClojure() {
+        return event.toClojure();
+    }
+
+    @Benchmark
+    public VEvent toVEvent() throws Exception {
+        return event.toVEvent();
+    }
+
+    @Benchmark
+    public Calendar toICal() throws Exception {
+        return event.toICal();
+    }
+
+    @Benchmark
+    public Event fromICal() {
+        return Event.fromICal(ical);
+    }
+
+    @Benchmark
+    public String contentHash() {
+        return event.getContentHash();
+    }
+}
@@ -0,0 +1,100 @@
+package com.outskirtslabs.nextcloudcal4j.bench;
+
+import com.outskirtslabs.nextcloudcal4j.ConnectorOptions;
+import com.outskirtslabs.nextcloudcal4j.LazyEvent;
+import com.outskirtslabs.nextcloudcal4j.NextcloudConnector;
+import com.sun.net.httpserver.HttpServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link NextcloudConnector#listAllEvents()} end to end against a local server replaying a recorded REPORT response,
+ * so this covers the http client, the multistatus parser, ical4j parsing and the conversion to clojure maps.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {
+        "-Dnet.fortuna.ical4j.timezone.update.enabled=false",
+        "-Dnet.fortuna.ical4j.timezone.cache.impl=net.fortuna.ical4j.util.MapTimeZoneCache"})
+public class ListEventsBenchmark {
+    private static final String CALENDAR_PATH = "/remote.php/dav/calendars/bench/gigs/";
+
+    @Param({"100", "1000", "10000"})
+    public int events;
+
+    @Param({"true", "false"})
+    public boolean projection;
+
+    @Param({"1", "8"})
+    public int parseParallelism;
+
+    private HttpServer server;
+    private NextcloudConnector connector;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        byte[] body = BenchData.multistatus(CALENDAR_PATH, events);
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            exchange.getResponseHeaders().set("Content-Type", "application/xml; charset=utf-8");
+            exchange.sendResponseHeaders(207, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+
+        ConnectorOptions options = ConnectorOptions.builder()
+                .scheme("http")
+                .port(server.getAddress().getPort())
+                .projection(projection)
+                .parseParallelism(parseParallelism)
+                .cacheMaxSize(0)
+                .build();
+        connector = new NextcloudConnector("localhost", "bench", "bench", CALENDAR_PATH, options);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        connector.close();
+        server.stop(0);
+    }
+
+    @Benchmark
+    public List<Object> listAllEvents() throws Exception {
+        return connector.listAllEvents();
+    }
+
+    /**
+     * The diff-only path: list without parsing and only look at UIDs and ETags
+     */
+    @Benchmark
+    public void listLazyEventUids(Blackhole blackhole) throws Exception {
+        for (LazyEvent event : connector.listLazyEvents(null, null)) {
+            blackhole.consume(event.getUid());
+            blackhole.consume(event.getEtag());
+        }
+    }
+}
@@ -1,5 +1,6 @@
 (ns build
-  (:require [clojure.tools.build.api :as b]))
+  (:require [clojure.string :as str]
+            [clojure.tools.build.api :as b]))
 
 (def lib 'sno/probematic)
 (def version (format "%s" (b/git-process {:git-args "rev-parse --short HEAD"})))
@@ -44,6 +45,28 @@
             :basis basis
             :javac-opts ["-source" "17" "-target" "17"]}))
 
+(def bench-class-dir "target/bench-classes")
+
+(defn compile-bench
+  "Compiles the connector together with the JMH benchmarks in bench/java"
+  [_]
+  (b/javac {:src-dirs ["src/java" "bench/java"]
+            :class-dir bench-class-dir
+            :basis (b/create-basis {:project "deps.edn" :aliases [:bench]})
+            :javac-opts ["-source" "17" "-target" "17"]}))
+
+(defn bench
+  "Runs the JMH benchmarks, with the gc profiler for allocation rates.
+  Pass JMH arguments with :args, e.g. clojure -T:build bench :args '\"ListEvents -p events=1000\"'"
+  [{:keys [args] :or {args ""}}]
+  (compile-bench nil)
+  (let [basis (b/create-basis {:project "deps.edn" :aliases [:bench]})
+        cmd (b/java-command {:basis basis
+                             :main 'org.openjdk.jmh.Main
+                             :main-args (concat ["-prof" "gc"]
+                                                (remove empty? (str/split (str args) #"\s+")))})]
+    (b/process cmd)))
+
 (defn uberjar "build the uberjar" [_]
   (let [opts (uber-opts {})]
     (clean nil)
@@ -1,10 +1,16 @@
 (ns app.caldav
-  (:require [tick.core :as t]
+  (:require [clojure.string :as str]
+            [com.brunobonacci.mulog :as μ]
+            [tick.core :as t]
             [app.i18n :as i18n]
             [app.queries :as q]
-            [app.urls :as urls])
+            [app.urls :as urls]
+            [ring.util.io :as ring.io])
   (:import
-   (com.outskirtslabs.nextcloudcal4j Event NextcloudConnector)))
+   (com.outskirtslabs.nextcloudcal4j CalendarChange CalendarDescriptor CalendarSnapshot$Entry ChangeListener ChangeWatcher ConnectorMetrics ConnectorOptions Event EventIndex FreeBusy IcsFeed LazyEvent NextcloudConnector ParseFailure ReconcileReport ReconcileResult Transport)
+   (java.nio.file NoSuchFileException Path)
+   (java.time Duration Instant)
+   (java.util.concurrent ExecutionException)))
 
 (defn gig-date-to-inst
   [date time]
@@ -36,6 +42,14 @@
                           :gig.status/confirmed :ical.event.status/confirmed
                           :gig.status/cancelled :ical.event.status/cancelled)}))
 
+(defn- await-write
+  "Waits for a write of the connector's background writer and throws what the write threw, not the ExecutionException around it"
+  [write]
+  (try
+    @write
+    (catch ExecutionException e
+      (throw (.getCause e)))))
+
 (defn create-gig-event!
   [{:keys [env db i18n-langs ^NextcloudConnector calendar] :as sys} gig-id]
   (assert calendar)
@@ -44,37 +58,459 @@
         gig (q/retrieve-gig db gig-id)
         event (event-from-gig env tr gig)]
     ;; (tap> {:g gig :e event})
-    (-> calendar (.createEvent (Event/fromClojure event)))))
+    (await-write (.submitUpsert calendar (Event/fromClojure event)))))
 
 (defn update-gig-event!
+  "Writes the gig's event with a single conditional PUT, no read beforehand.
+  Cancelled gigs are removed from the calendar.
+
+  Goes through the connector's background writer, so when a gig is edited several times in a row
+  only its latest state is sent, in order. Blocks until the write went through.
+  Edits that don't change the calendar event (e.g., attendance) are detected by content hash and not sent at all."
   [{:keys [env db i18n-langs ^NextcloudConnector calendar] :as sys} gig-id]
   (assert calendar)
   (assert i18n-langs)
   (let [tr (i18n/tr-with i18n-langs [:de])
         gig (q/retrieve-gig db gig-id)
-        cancelled? (= :gig.status/cancelled (:gig/status gig))
-        event (event-from-gig env tr gig)
-        existing-event (-> calendar (.getEventByUID (str gig-id)))]
-    (if existing-event
-      (if cancelled?
-        (-> calendar (.deleteEvent (str gig-id)))
-        (-> calendar (.updateEvent (Event/fromClojure event))))
-      (when-not cancelled?
-        (-> calendar (.createEvent (Event/fromClojure event)))))))
+        cancelled? (= :gig.status/cancelled (:gig/status gig))]
+    (if cancelled?
+      (await-write (.submitDelete calendar (str gig-id)))
+      (await-write (.submitUpsert calendar (Event/fromClojure (event-from-gig env tr gig)))))))
 
 (defn delete-gig-event!
   [{:keys [env db i18n-langs ^NextcloudConnector calendar] :as sys} gig-id]
   (assert calendar)
-  (-> calendar (.deleteEvent (str gig-id))))
+  (await-write (.submitDelete calendar (str gig-id))))
+
+(defn- reconcile-action [action]
+  (keyword (str/lower-case (str action))))
+
+(defn reconcile-gigs!
+  "Makes the calendar from today on exactly match the gigs: missing events are created, changed ones updated,
+  and events of gigs that are cancelled or no longer exist are deleted. Unchanged events are detected by content hash
+  and not written. The calendar is read with a single REPORT.
+
+  Multi-day gigs that started in the last month and are still ongoing are kept. Any other event starting before today
+  is left alone, anything from today on that is not a gig is deleted, so this is only for the app's own calendar.
+
+  With :dry-run? only the plan is returned. Failed writes, e.g., an event edited in nextcloud in the meantime,
+  are reported under :error of their result."
+  [{:keys [env db i18n-langs ^NextcloudConnector calendar] :as sys} {:keys [dry-run?]}]
+  (assert calendar)
+  (assert i18n-langs)
+  (let [tr (i18n/tr-with i18n-langs [:de])
+        from (gig-date-to-inst (t/date) nil)
+        lookback (t/inst (t/<< (t/instant (q/date-midnight-today!)) (t/new-duration 31 :days)))
+        desired (into []
+                      (comp (remove #(= :gig.status/cancelled (:gig/status %)))
+                            (map #(event-from-gig env tr %))
+                            (filter #(t/> (:ical.event/end-time %) from))
+                            (map #(Event/fromClojure %)))
+                      (q/gigs-after db lookback))
+        ^ReconcileReport report (.reconcile calendar desired from nil (boolean dry-run?))]
+    {:dry-run? (.isDryRun report)
+     :counts   (into {} (map (fn [[action n]] [(reconcile-action action) n])) (.getCounts report))
+     :failures (.getFailureCount report)
+     :results  (mapv (fn [^ReconcileResult r]
+                       {:uid      (.getUid r)
+                        :action   (reconcile-action (.getAction r))
+                        :href     (.getHref r)
+                        :etag     (.getEtag r)
+                        :applied? (.isApplied r)
+                        :error    (.getError r)})
+                     (.getResults report))}))
+
+(defn get-gig-events
+  "Fetches the calendar events for many gigs with batched multiget REPORTs.
+  Returns a map of gig-id (as a string) to event map, gigs without an event are absent."
+  [^NextcloudConnector calendar gig-ids]
+  (update-vals (into {} (.getEventsByUIDs calendar (mapv str gig-ids)))
+               #(.toClojure ^Event %)))
+
+(defn events
+  "A reducible over every event in the calendar. The REPORT response is parsed as it streams in,
+  so memory stays flat no matter how large the calendar is. Use with reduce, transduce or into.
+  With from and to (instants, either may be nil) only events overlapping that window are fetched."
+  ([^NextcloudConnector calendar]
+   (.reducibleEvents calendar))
+  ([^NextcloudConnector calendar from to]
+   (.reducibleEvents calendar from to)))
+
+(defn list-events
+  "Returns the events overlapping [from, to) as a vector of event maps. The window is filtered
+  on the server, so only those events are downloaded. Either bound may be nil."
+  [^NextcloudConnector calendar from to]
+  (vec (.listEvents calendar from to)))
+
+(defn load-events
+  "Like list-events, but events that fail to parse are returned under :failures instead of failing the whole listing.
+  Parses on the connector's parse pool when :parse-parallelism is above 1, the order of :events is kept either way."
+  [^NextcloudConnector calendar from to]
+  (let [listing (.loadEvents calendar from to)]
+    {:events   (vec (.getEvents listing))
+     :failures (mapv (fn [^ParseFailure f]
+                       {:href (.getHref f) :etag (.getEtag f) :error (.getError f)})
+                     (.getFailures listing))}))
+
+(defn event-etags
+  "Map of uid to etag of the events overlapping [from, to), for working out what changed.
+  The calendar-data is transferred but only scanned up to each event's UID, nothing else is parsed."
+  [^NextcloudConnector calendar from to]
+  (into {}
+        (map (fn [^LazyEvent e] [(.getUid e) (.getEtag e)]))
+        (.listLazyEvents calendar from to)))
+
+(defn upcoming-events
+  "The events in the next n days, 90 by default."
+  ([calendar]
+   (upcoming-events calendar 90))
+  ([calendar days]
+   (let [now (t/instant)]
+     (list-events calendar now (t/>> now (t/new-duration days :days))))))
+
+(defn- ->maps [events]
+  (mapv #(.toClojure ^Event %) events))
+
+(defn indexed-events
+  "The events overlapping [from, to) as event maps, answered from the connector's in-memory index without a request.
+  The index is only as current as the connector's last snapshot sync or write. Either bound may be nil."
+  [^NextcloudConnector calendar from to]
+  (->maps (.between (.getIndex calendar) from to)))
+
+(defn next-events
+  "The next n events starting from now, from the connector's index like indexed-events."
+  [^NextcloudConnector calendar n]
+  (->maps (.next (.getIndex calendar) (t/instant) n)))
+
+(defn gig-conflicts
+  "The calendar events that clash with the gig's time, apart from the gig's own event and cancelled ones.
+  Checked against the connector's index, so it is cheap enough to run on every edit while planning a gig."
+  [{:keys [env i18n-langs ^NextcloudConnector calendar]} gig]
+  (assert calendar)
+  (assert i18n-langs)
+  (let [tr (i18n/tr-with i18n-langs [:de])]
+    (->maps (.conflicts (.getIndex calendar) (Event/fromClojure (event-from-gig env tr gig))))))
+
+(defn free-busy
+  "The busy periods of the calendar within [from, to), merged and clipped to the window, as a vector of [start end] instants.
+  Asked of the server with a single free-busy-query REPORT, no events are downloaded."
+  [^NextcloudConnector calendar from to]
+  (let [^FreeBusy fb (.getFreeBusy calendar from to)
+        starts (.getStarts fb)
+        ends (.getEnds fb)]
+    (mapv (fn [i] [(Instant/ofEpochMilli (aget starts i)) (Instant/ofEpochMilli (aget ends i))])
+          (range (alength starts)))))
+
+(defn new-gig-clashes?
+  "Whether the calendar is busy at any time of a gig that has no calendar event yet, with one free-busy-query REPORT.
+  A gig that is already in the calendar always clashes with its own event, use gig-conflicts for those."
+  [{:keys [env i18n-langs ^NextcloudConnector calendar]} gig]
+  (assert calendar)
+  (assert i18n-langs)
+  (let [tr (i18n/tr-with i18n-langs [:de])
+        {:ical.event/keys [start-time end-time]} (event-from-gig env tr gig)]
+    (.isBusy (.getFreeBusy calendar start-time end-time) start-time end-time)))
+
+;; connector -> the snapshot sync running for it
+(def ^:private index-syncs (atom {}))
+
+(defn- sync-index!
+  "Starts a snapshot sync of the connector in the background unless one is already running for it, so the index gets filled."
+  [^NextcloudConnector calendar]
+  (locking index-syncs
+    (when-not (contains? @index-syncs calendar)
+      (swap! index-syncs assoc calendar (future
+                                          (try
+                                            (.syncSnapshot calendar)
+                                            (catch Exception e
+                                              (μ/log ::index-sync-failed :ex e))
+                                            (finally
+                                              (locking index-syncs
+                                                (swap! index-syncs dissoc calendar)))))))))
+
+;; [index feed-name] -> [index version, feed etag], a subscriber polling an unchanged feed costs a map lookup
+(def ^:private feed-etags (atom {}))
+
+(defn- cached-feed-etag [^EventIndex index feed-name]
+  (let [[version etag] (get @feed-etags [index feed-name])]
+    (when (= version (.getVersion index))
+      etag)))
+
+(defn feed-response
+  "A ring response with the calendar's events as one iCalendar feed for calendar apps to subscribe to.
+  The events come from the connector's index, so answering a subscriber's poll makes no request to nextcloud.
+  The ETag is checked against If-None-Match before anything is rendered, an unchanged feed is a bodyless 304. The ETag is
+  kept until the index changes, so such a 304 does not even read the events.
+  Otherwise the feed is streamed to the client as it is written.
+  Until a snapshot sync has filled the index with the whole calendar the answer is a 503 with Retry-After, and a sync is
+  started, a partial feed would make subscribers drop the gigs missing from it."
+  [^NextcloudConnector calendar feed-name req]
+  (let [^EventIndex index (.getIndex calendar)
+        if-none-match (get-in req [:headers "if-none-match"])
+        not-modified (fn [etag]
+                       {:status  304
+                        :headers {"ETag" etag}
+                        :body    nil})]
+    (if-not (.isComplete index)
+      (do (sync-index! calendar)
+          {:status  503
+           :headers {"Retry-After" "30"}
+           :body    nil})
+      (let [etag (cached-feed-etag index feed-name)]
+        (if (and etag (IcsFeed/notModified if-none-match etag))
+          (not-modified etag)
+          (let [[events etag] (locking index
+                                (let [events (.between index nil nil)]
+                                  [events (or (cached-feed-etag index feed-name)
+                                              (let [etag (IcsFeed/etag feed-name events)]
+                                                (swap! feed-etags assoc [index feed-name] [(.getVersion index) etag])
+                                                etag))]))]
+            (if (IcsFeed/notModified if-none-match etag)
+              (not-modified etag)
+              {:status  200
+               :headers {"Content-Type"  "text/calendar; charset=utf-8"
+                         "ETag"          etag
+                         "Cache-Control" "private, max-age=300"}
+               :body    (ring.io/piped-input-stream
+                         (fn [out]
+                           (IcsFeed/write feed-name events out)))})))))))
+
+(defn calendars
+  "The calendars below root-path, e.g., /remote.php/dav/calendars/username/, as maps.
+  Cached by the connector and only fetched again when a calendar changed, was added or removed."
+  [^NextcloudConnector calendar root-path]
+  (mapv (fn [^CalendarDescriptor c]
+          {:href                 (.getHref c)
+           :display-name         (.getDisplayName c)
+           :ctag                 (.getCtag c)
+           :sync-token           (.getSyncToken c)
+           :supported-components (set (.getSupportedComponents c))})
+        (.getAllCalendars calendar root-path)))
+
+(defn list-calendar-events
+  "Like list-events for several calendars of the same nextcloud account, e.g., gigs, rehearsals and rooms.
+  The calendars are fetched concurrently. Returns a map of calendar href to its events."
+  [^NextcloudConnector calendar hrefs from to]
+  (update-vals (into {} (.listCalendarEvents calendar (vec hrefs) from to)) vec))
+
+(defn sync-changes
+  "Returns what changed in the calendar since sync-token (nil for an initial sync).
+  Changed and deleted resources are keyed by uid, which for events we created is the gig-id."
+  [^NextcloudConnector calendar sync-token]
+  (let [result (.syncChanges calendar sync-token)]
+    {:sync-token   (.getSyncToken result)
+     :ctag         (.getCtag result)
+     :full-resync? (.isFullResync result)
+     :changed      (into {}
+                         (map (fn [[href etag]] [(NextcloudConnector/uidFromHref href) etag]))
+                         (.getChanged result))
+     :deleted      (mapv #(NextcloudConnector/uidFromHref %) (.getDeleted result))}))
+
+(defn cache-stats
+  "Hit/miss counters of the connector's event cache, nil when caching is disabled."
+  [^NextcloudConnector calendar]
+  (when-let [cache (.getCache calendar)]
+    {:size          (.size cache)
+     :hits          (.getHits cache)
+     :misses        (.getMisses cache)
+     :hit-rate      (.getHitRate cache)
+     :evictions     (.getEvictions cache)
+     :invalidations (.getInvalidations cache)}))
+
+(defn write-stats
+  "How many event upserts were sent to nextcloud, and how many were skipped because the event was unchanged."
+  [^NextcloudConnector calendar]
+  {:sent    (.getWritesSent calendar)
+   :skipped (.getWritesSkipped calendar)})
+
+(defn resilience-stats
+  "Retries sent and the state of the circuit breaker that fails calls fast while nextcloud is down."
+  [^NextcloudConnector calendar]
+  (let [breaker (.getCircuitBreaker calendar)]
+    {:retries          (.getRetries calendar)
+     :circuit-state    (keyword (str/lower-case (str (.getState breaker))))
+     :circuit-opened   (.getOpened breaker)
+     :circuit-rejected (.getRejected breaker)}))
+
+(defn pool-stats
+  "Connections of the connector's http pool: in use, idle, and requests waiting for a free one.
+  nil with the :http-2 transport, which has no pool."
+  [^NextcloudConnector calendar]
+  (when-let [stats (.getPoolStats calendar)]
+    {:leased    (.getLeased stats)
+     :available (.getAvailable stats)
+     :pending   (.getPending stats)
+     :max       (.getMax stats)}))
+
+(defn watcher-stats
+  "Polls, snapshot syncs and changes of the background change watcher, nil when it is not running."
+  [^NextcloudConnector calendar]
+  (when-let [^ChangeWatcher watcher (.getWatcher calendar)]
+    {:interval-ms (.toMillis (.getInterval watcher))
+     :polls       (.getPolls watcher)
+     :syncs       (.getSyncs watcher)
+     :changes     (.getChanges watcher)
+     :errors      (.getErrors watcher)}))
+
+(defn connector-stats
+  "Everything the connector counts, in one map for logging."
+  [calendar]
+  {:cache      (cache-stats calendar)
+   :writes     (write-stats calendar)
+   :resilience (resilience-stats calendar)
+   :pool       (pool-stats calendar)
+   :indexed    (.size (.getIndex ^NextcloudConnector calendar))
+   :watcher    (watcher-stats calendar)})
+
+(defn- nanos->ms [nanos]
+  (/ nanos 1e6))
+
+(defn mulog-metrics
+  "Publishes every connector operation and every http request it makes as a mulog event,
+  so latencies, sizes and parse times can be charted per :operation on the dashboard."
+  ^ConnectorMetrics []
+  (reify ConnectorMetrics
+    (onRequest [_ operation method status request-bytes response-bytes duration-nanos]
+      (μ/log ::request
+             :operation operation
+             :method method
+             :status status
+             :request-bytes request-bytes
+             :response-bytes response-bytes
+             :duration-ms (nanos->ms duration-nanos)))
+    (onOperation [_ operation success? duration-nanos parse-nanos events requests]
+      (μ/log ::operation
+             :operation operation
+             :success? success?
+             :duration-ms (nanos->ms duration-nanos)
+             :parse-ms (nanos->ms parse-nanos)
+             :events events
+             :requests requests))))
+
+(def ^:private transports
+  {:http-1.1 Transport/HTTP_1_1
+   :http-2   Transport/HTTP_2})
+
+(defn connector-options
+  "Builds the http client options for the connector. Any key left out keeps the connector's default.
+  :transport is :http-1.1 (the default) or :http-2."
+  ^ConnectorOptions [{:keys [scheme port max-total max-per-route connect-timeout-ms socket-timeout-ms
+                             connection-request-timeout-ms max-idle-ms keep-alive-ms compression?
+                             multiget-batch-size projection? parse-parallelism cache-max-size cache-ttl-ms ctag-check-interval-ms
+                             writer-threads writer-queue-capacity reconcile-parallelism
+                             max-retries retry-base-delay-ms retry-max-delay-ms circuit-failure-threshold circuit-open-ms
+                             metrics snapshot-path transport]}]
+  (cond-> (ConnectorOptions/builder)
+    scheme (.scheme scheme)
+    port (.port port)
+    max-total (.maxTotal max-total)
+    max-per-route (.maxPerRoute max-per-route)
+    connect-timeout-ms (.connectTimeout (Duration/ofMillis connect-timeout-ms))
+    socket-timeout-ms (.socketTimeout (Duration/ofMillis socket-timeout-ms))
+    connection-request-timeout-ms (.connectionRequestTimeout (Duration/ofMillis connection-request-timeout-ms))
+    max-idle-ms (.maxIdleTime (Duration/ofMillis max-idle-ms))
+    keep-alive-ms (.keepAlive (Duration/ofMillis keep-alive-ms))
+    (some? compression?) (.compression (boolean compression?))
+    multiget-batch-size (.multigetBatchSize multiget-batch-size)
+    (some? projection?) (.projection (boolean projection?))
+    parse-parallelism (.parseParallelism parse-parallelism)
+    cache-max-size (.cacheMaxSize cache-max-size)
+    cache-ttl-ms (.cacheTtl (Duration/ofMillis cache-ttl-ms))
+    ctag-check-interval-ms (.ctagCheckInterval (Duration/ofMillis ctag-check-interval-ms))
+    writer-threads (.writerThreads writer-threads)
+    writer-queue-capacity (.writerQueueCapacity writer-queue-capacity)
+    reconcile-parallelism (.reconcileParallelism reconcile-parallelism)
+    max-retries (.maxRetries max-retries)
+    retry-base-delay-ms (.retryBaseDelay (Duration/ofMillis retry-base-delay-ms))
+    retry-max-delay-ms (.retryMaxDelay (Duration/ofMillis retry-max-delay-ms))
+    circuit-failure-threshold (.circuitFailureThreshold circuit-failure-threshold)
+    circuit-open-ms (.circuitOpenDuration (Duration/ofMillis circuit-open-ms))
+    metrics (.metrics metrics)
+    snapshot-path (.snapshotPath (Path/of snapshot-path (make-array String 0)))
+    transport (.transport (or (transports transport)
+                              (throw (ex-info "Unknown calendar transport" {:transport transport}))))
+    true (.build)))
+
+(defn- warm-start!
+  "Restores the snapshot saved when the connector was last closed and catches up on what changed since,
+  so a restart costs a sync-collection REPORT for the changes instead of downloading the whole calendar.
+  Startup goes on without the snapshot when it is unreadable or nextcloud can't be reached."
+  [^NextcloudConnector calendar snapshot-path]
+  (let [path (Path/of snapshot-path (make-array String 0))]
+    (try
+      (.restoreSnapshot calendar path)
+      (catch NoSuchFileException _)
+      (catch Exception e
+        (μ/log ::snapshot-unreadable :path snapshot-path :ex e)))
+    (try
+      (let [restored (.getSyncToken (.getSnapshot calendar))
+            snapshot (.syncSnapshot calendar)]
+        (.saveSnapshot calendar path)
+        (μ/log ::snapshot-synced :events (.size snapshot) :restored? (some? restored)))
+      (catch Exception e
+        (μ/log ::snapshot-sync-failed :ex e)))))
+
+(defn- change->map [^CalendarChange change]
+  {:type  (keyword (str/lower-case (str (.getType change))))
+   :href  (.getHref change)
+   :uid   (.getUid change)
+   :etag  (.getEtag change)
+   :event (some-> (.getEvent change) .toClojure)})
+
+(defn watch-changes!
+  "Polls the calendar in the background for changes made outside the app, e.g., a gig event edited or deleted in the
+  nextcloud web UI, and calls on-changes with a vector of maps with :type (:created, :modified or :deleted), :uid, :href,
+  :etag and :event. While nothing changes the polls, one ctag PROPFIND each, back off from min-interval-ms to
+  max-interval-ms. When the ctag moves only the changed events are fetched. The app's own writes are not reported.
+  Runs until the connector is closed."
+  [^NextcloudConnector calendar {:keys [min-interval-ms max-interval-ms] :or {min-interval-ms 5000 max-interval-ms 60000}} on-changes]
+  (.watchChanges calendar
+                 (reify ChangeListener
+                   (onChanges [_ changes]
+                     (on-changes (mapv change->map changes)))
+                   (onError [_ e]
+                     (μ/log ::watch-failed :ex e)))
+                 (Duration/ofMillis min-interval-ms)
+                 (Duration/ofMillis max-interval-ms)))
+
+(defn- log-external-changes [changes]
+  (doseq [{:keys [type uid href]} changes]
+    (μ/log ::external-change :type type :uid uid :href href)))
+
+(defn calendar-snapshot
+  "The events of the calendar as of the last snapshot sync, keyed by uid, with their etag and content hash."
+  [^NextcloudConnector calendar]
+  (let [snapshot (.getSnapshot calendar)]
+    {:sync-token (.getSyncToken snapshot)
+     :events     (into {}
+                       (map (fn [^CalendarSnapshot$Entry e]
+                              [(.getUid e) {:etag         (.getEtag e)
+                                            :content-hash (.getContentHash e)
+                                            :event        (.toClojure (.getEvent e))}]))
+                       (vals (.getEntries snapshot)))}))
 
 (defn init-calendar
+  "Starts the connector. With :snapshot-path set in the nextcloud config, the calendar state is kept in that file
+  across restarts and only the changes since are fetched at startup. Without it nothing is fetched until the first feed
+  request needs the index, see feed-response. With :watch set, changes made outside the app are watched for and logged, see watch-changes!."
   [{:keys [nextcloud]}]
-  (let [{:keys [host username password calendar-path]} nextcloud]
+  (let [{:keys [host username password calendar-path http snapshot-path watch]} nextcloud]
     (assert calendar-path)
     (assert host)
     (assert username)
     (assert password)
-    (NextcloudConnector. host username password calendar-path)))
+    (let [calendar (NextcloudConnector. host username password calendar-path
+                                        (connector-options (merge {:metrics (mulog-metrics) :snapshot-path snapshot-path} http)))]
+      (when snapshot-path
+        (warm-start! calendar snapshot-path))
+      (when watch
+        (watch-changes! calendar watch log-external-changes))
+      calendar)))
+
+(defn halt-calendar!
+  "Closes the connector, which also saves its snapshot when a :snapshot-path is configured."
+  [^NextcloudConnector calendar]
+  (.close calendar))
 
 (comment
 
@@ -78,6 +78,11 @@
 (defn public-calendar-url [env]
   (-> env :nextcloud :public-calendar-url))
 
+(defn calendar-feed-token
+  "The secret in the url of the gig calendar feed, nil disables the feed"
+  [env]
+  (-> env :nextcloud :calendar-feed-token))
+
 (defn band-bank-info [env]
   (-> env :band-bank-info))
 
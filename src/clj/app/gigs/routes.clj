@@ -1,11 +1,17 @@
 (ns app.gigs.routes
   (:require
+   [app.caldav :as caldav]
+   [app.config :as config]
    [app.gigs.views :as view]
    [app.layout :as layout]
    [app.queries :as q]
    [app.util.http :as http.util]
+   [clojure.string :as str]
    [ctmx.core :as ctmx]
-   [datomic.client.api :as d]))
+   [datomic.client.api :as d])
+  (:import
+   (java.nio.charset StandardCharsets)
+   (java.security MessageDigest)))
 
 (defn gig-create-route []
   (ctmx/make-routes
@@ -67,6 +73,23 @@
     (gig-detail-route)
     (gig-log-play-route)]])
 
+(defn- feed-token-valid?
+  "Whether token is the band's calendar feed token, compared in constant time. Never true when no token is configured."
+  [env ^String token]
+  (let [^String expected (config/calendar-feed-token env)]
+    (boolean (and (not (str/blank? expected)) token
+                  (MessageDigest/isEqual (.getBytes expected StandardCharsets/UTF_8)
+                                         (.getBytes token StandardCharsets/UTF_8))))))
+
+(defn- gigs-calendar-feed
+  "The gig calendar for subscribing to from calendar apps, which can't log in, so the secret token in the url stands in
+  for authentication."
+  [req]
+  (let [{:keys [env calendar]} (:system req)]
+    (if (feed-token-valid? env (http.util/path-param req :token))
+      (caldav/feed-response calendar "SNO Gigs" req)
+      (throw (ex-info "Calendar feed not found" {:app/error-type :app.error.type/not-found})))))
+
 (defn unauthenticated-routes []
   [""
    ["/answer-link" {:app.route/name :app/gig-answer-link
@@ -74,4 +97,7 @@
                                 (view/gig-answer-link req))}]
    ["/answer-link/" {:app.route/name :app/gig-answer-link2
                      :handler  (fn [req]
-                                 (view/gig-answer-link req))}]])
+                                 (view/gig-answer-link req))}]
+   ["/calendar/{token}/gigs.ics" {:app.route/name :app/gigs-calendar-feed
+                                  :handler  (fn [req]
+                                              (gigs-calendar-feed req))}]])
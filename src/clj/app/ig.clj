@@ -206,6 +206,10 @@
   [_ {:keys [env] :as system}]
   (caldav/init-calendar env))
 
+(defmethod ig/halt-key! ::calendar
+  [_ calendar]
+  (caldav/halt-calendar! calendar))
+
 (defmethod ig/init-key ::filestore
   [_ {:keys [env] :as system}]
   (filestore/start! (:filestore env)))
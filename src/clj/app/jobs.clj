@@ -1,5 +1,6 @@
 (ns app.jobs
   (:require
+   [app.jobs.caldav-stats :refer [make-caldav-stats-job]]
    [app.jobs.sync-songs :refer [make-songs-sync-job]]
    [app.jobs.probe-housekeeping :refer [make-probe-housekeeping-job]]
    [app.jobs.poll-housekeeping :refer [make-poll-housekeeping-job]]
@@ -12,4 +13,5 @@
    :job/probe-housekeeping (make-probe-housekeeping-job opts)
    :job/sync-songs          (make-songs-sync-job opts)
    :job/poll-housekeeping  (make-poll-housekeeping-job opts)
-   :job/reminders          (make-reminder-job opts)})
+   :job/reminders          (make-reminder-job opts)
+   :job/caldav-stats       (make-caldav-stats-job opts)})
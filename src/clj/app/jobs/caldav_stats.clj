@@ -0,0 +1,20 @@
+(ns app.jobs.caldav-stats
+  (:require
+   [com.brunobonacci.mulog :as μ]
+   [app.caldav :as caldav]
+   [app.errors :as errors]
+   [ol.jobs-util :as jobs]))
+
+(defn- caldav-stats-job
+  [{:keys [calendar] :as system} _]
+  (try
+    (μ/log ::connector-stats :stats (caldav/connector-stats calendar))
+    :done
+    (catch Throwable e
+      (tap> e)
+      (errors/report-error! e))))
+
+(defn make-caldav-stats-job
+  [system]
+  (fn [{:job/keys [frequency initial-delay]}]
+    (jobs/make-repeating-job (partial caldav-stats-job system) frequency initial-delay)))
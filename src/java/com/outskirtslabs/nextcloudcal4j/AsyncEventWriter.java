@@ -0,0 +1,187 @@
+package com.outskirtslabs.nextcloudcal4j;
+
+import java.io.Closeable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes events to the calendar in the background on a small fixed pool of threads.
+ * <p>
+ * Operations for the same UID run one after the other in submission order. While one is in flight, further submissions
+ * for that UID are coalesced into a single pending operation carrying only the latest state, so a burst of edits to one
+ * event costs at most two requests. Futures of superseded operations complete with the outcome of the one that replaced them.
+ * <p>
+ * At most queueCapacity operations may be pending; once full, submitting blocks until the writer catches up.
+ */
+public class AsyncEventWriter implements Closeable {
+    private static final long CLOSE_TIMEOUT_SECONDS = 30;
+
+    private final NextcloudConnector connector;
+    private final ExecutorService executor;
+    private final Semaphore capacity;
+    private final Map<String, Slot> slots = new HashMap<>();
+    private final AtomicLong coalesced = new AtomicLong();
+    private boolean closed;
+
+    public AsyncEventWriter(NextcloudConnector connector, int threads, int queueCapacity) {
+        this.connector = connector;
+        this.capacity = new Semaphore(queueCapacity);
+        // never holds more than queueCapacity tasks, each queued task is a UID holding a permit
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), new WriterThreadFactory());
+    }
+
+    /**
+     * Creates or replaces the event, see {@link NextcloudConnector#upsertEvent(Event)}
+     *
+     * @return completes with the new ETag, or null if the server did not return one
+     */
+    public CompletableFuture<String> submitUpsert(Event event) {
+        return submit(event.getUid(), event);
+    }
+
+    /**
+     * Deletes the event if it exists
+     *
+     * @return completes with null once the event is gone
+     */
+    public CompletableFuture<String> submitDelete(String uid) {
+        return submit(uid, null);
+    }
+
+    /**
+     * Number of submissions merged into an already pending operation
+     */
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    private CompletableFuture<String> submit(String uid, Event event) {
+        CompletableFuture<String> existing = coalesce(uid, event);
+        if (existing != null) {
+            return existing;
+        }
+        try {
+            capacity.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.failedFuture(e);
+        }
+        boolean schedule;
+        Op op;
+        synchronized (this) {
+            if (closed) {
+                capacity.release();
+                throw new RejectedExecutionException("AsyncEventWriter is closed");
+            }
+            Slot slot = slots.get(uid);
+            if (slot != null && slot.queued != null) {
+                // another submitter queued this uid while we waited for a permit
+                capacity.release();
+                slot.queued.event = event;
+                coalesced.incrementAndGet();
+                return slot.queued.future;
+            }
+            schedule = slot == null;
+            if (schedule) {
+                slot = new Slot();
+                slots.put(uid, slot);
+            }
+            op = new Op(event);
+            slot.queued = op;
+        }
+        if (schedule) {
+            executor.execute(() -> drain(uid));
+        }
+        return op.future;
+    }
+
+    private synchronized CompletableFuture<String> coalesce(String uid, Event event) {
+        if (closed) {
+            throw new RejectedExecutionException("AsyncEventWriter is closed");
+        }
+        Slot slot = slots.get(uid);
+        if (slot == null || slot.queued == null) {
+            return null;
+        }
+        slot.queued.event = event;
+        coalesced.incrementAndGet();
+        return slot.queued.future;
+    }
+
+    private void drain(String uid) {
+        while (true) {
+            Op op;
+            synchronized (this) {
+                Slot slot = slots.get(uid);
+                op = slot.queued;
+                if (op == null) {
+                    slots.remove(uid);
+                    return;
+                }
+                slot.queued = null;
+            }
+            capacity.release();
+            try {
+                if (op.event == null) {
+                    connector.deleteEvent(uid, null);
+                    op.future.complete(null);
+                } else {
+                    op.future.complete(connector.upsertEvent(op.event));
+                }
+            } catch (Throwable t) {
+                op.future.completeExceptionally(t);
+            }
+        }
+    }
+
+    /**
+     * Stops accepting new operations and waits for the pending ones to be written
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        executor.shutdown();
+        try {
+            executor.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class Slot {
+        private Op queued;
+    }
+
+    private static class Op {
+        private final CompletableFuture<String> future = new CompletableFuture<>();
+        private Event event;
+
+        private Op(Event event) {
+            this.event = event;
+        }
+    }
+
+    private static class WriterThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "nextcloud-writer-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
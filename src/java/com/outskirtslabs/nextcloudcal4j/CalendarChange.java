@@ -0,0 +1,50 @@
+package com.outskirtslabs.nextcloudcal4j;
+
+/**
+ * A change to one event of the calendar made by another client, as published by {@link ChangeWatcher}
+ */
+public class CalendarChange {
+    private final ChangeType type;
+    private final String href;
+    private final String uid;
+    private final String etag;
+    private final Event event;
+
+    public CalendarChange(ChangeType type, String href, String uid, String etag, Event event) {
+        this.type = type;
+        this.href = href;
+        this.uid = uid;
+        this.etag = etag;
+        this.event = event;
+    }
+
+    public ChangeType getType() {
+        return this.type;
+    }
+
+    public String getHref() {
+        return this.href;
+    }
+
+    public String getUid() {
+        return this.uid;
+    }
+
+    /**
+     * The new ETag, or the last one seen for a deleted event
+     */
+    public String getEtag() {
+        return this.etag;
+    }
+
+    /**
+     * The event as it is now, or as it was last seen for a deleted event
+     */
+    public Event getEvent() {
+        return this.event;
+    }
+
+    public String toString() {
+        return "CalendarChange(type=" + this.type + ", href=" + this.href + ", uid=" + this.uid + ", etag=" + this.etag + ")";
+    }
+}
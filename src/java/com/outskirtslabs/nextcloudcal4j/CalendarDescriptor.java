@@ -0,0 +1,73 @@
+package com.outskirtslabs.nextcloudcal4j;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A calendar collection found by {@link NextcloudConnector#getAllCalendars(String)}.
+ * Its href can be passed to {@link NextcloudConnector#listAllEvents(String)} to read it.
+ */
+public class CalendarDescriptor {
+    private final String href;
+    private final String displayName;
+    private final String ctag;
+    private final String syncToken;
+    private final List<String> supportedComponents;
+
+    public CalendarDescriptor(String href, String displayName, String ctag, String syncToken, List<String> supportedComponents) {
+        this.href = href;
+        this.displayName = displayName;
+        this.ctag = ctag;
+        this.syncToken = syncToken;
+        this.supportedComponents = Collections.unmodifiableList(supportedComponents);
+    }
+
+    /**
+     * The path of the collection, e.g., /remote.php/dav/calendars/user/gigs/
+     */
+    public String getHref() {
+        return this.href;
+    }
+
+    public String getDisplayName() {
+        return this.displayName;
+    }
+
+    public String getCtag() {
+        return this.ctag;
+    }
+
+    public String getSyncToken() {
+        return this.syncToken;
+    }
+
+    /**
+     * The component types the calendar may hold, e.g., VEVENT and VTODO. Empty if the server did not say, which means any.
+     */
+    public List<String> getSupportedComponents() {
+        return this.supportedComponents;
+    }
+
+    public boolean supports(String component) {
+        return supportedComponents.isEmpty() || supportedComponents.contains(component);
+    }
+
+    public boolean equals(final Object o) {
+        if (o == this) return true;
+        if (!(o instanceof CalendarDescriptor)) return false;
+        final CalendarDescriptor other = (CalendarDescriptor) o;
+        return Objects.equals(this.href, other.href) && Objects.equals(this.displayName, other.displayName)
+                && Objects.equals(this.ctag, other.ctag) && Objects.equals(this.syncToken, other.syncToken)
+                && Objects.equals(this.supportedComponents, other.supportedComponents);
+    }
+
+    public int hashCode() {
+        return Objects.hash(this.href, this.displayName, this.ctag, this.syncToken, this.supportedComponents);
+    }
+
+    public String toString() {
+        return "CalendarDescriptor(href=" + this.href + ", displayName=" + this.displayName + ", ctag=" + this.ctag
+                + ", syncToken=" + this.syncToken + ", supportedComponents=" + this.supportedComponents + ")";
+    }
+}
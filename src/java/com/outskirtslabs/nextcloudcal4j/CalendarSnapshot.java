@@ -0,0 +1,224 @@
+package com.outskirtslabs.nextcloudcal4j;
+
+import clojure.lang.Keyword;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Every event of the calendar as of a sync-token, keyed by href. Saved to disk, it lets a restarted connector catch up
+ * with a sync-collection REPORT for what changed since, see {@link NextcloudConnector#syncSnapshot()}.
+ * <p>
+ * The file is a gzipped stream of {@link DataOutputStream} values, a format of our own so reading it needs nothing but
+ * the JDK. Files of another format version are rejected with an IOException, the caller then starts from scratch, and so
+ * are damaged files: no length read from the file is trusted beyond what a real snapshot could hold.
+ */
+public class CalendarSnapshot {
+    private static final int MAGIC = 0x4E43534E; // "NCSN"
+    private static final int VERSION = 1;
+    // far more than any calendar property, a larger length means the file is damaged
+    private static final int MAX_STRING_BYTES = 16 * 1024 * 1024;
+
+    private final String syncToken;
+    private final String ctag;
+    private final Map<String, Entry> entries;
+
+    public CalendarSnapshot(String syncToken, String ctag, Map<String, Entry> entries) {
+        this.syncToken = syncToken;
+        this.ctag = ctag;
+        this.entries = Collections.unmodifiableMap(entries);
+    }
+
+    public static CalendarSnapshot empty() {
+        return new CalendarSnapshot(null, null, Collections.emptyMap());
+    }
+
+    /**
+     * The token the entries are current as of, null for an empty snapshot
+     */
+    public String getSyncToken() {
+        return this.syncToken;
+    }
+
+    public String getCtag() {
+        return this.ctag;
+    }
+
+    /**
+     * href -> entry
+     */
+    public Map<String, Entry> getEntries() {
+        return this.entries;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Writes the snapshot to a temporary file next to file and moves it into place, so a crash never leaves half a snapshot
+     */
+    public void write(Path file) throws IOException {
+        Path tmp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(tmp))))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                writeString(out, syncToken);
+                writeString(out, ctag);
+                out.writeInt(entries.size());
+                for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                    writeString(out, e.getKey());
+                    e.getValue().write(out);
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    public static CalendarSnapshot read(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(file))))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file + " is not a calendar snapshot");
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException(file + " has snapshot format version " + version + ", expected " + VERSION);
+            }
+            String syncToken = readString(in);
+            String ctag = readString(in);
+            int size = in.readInt();
+            if (size < 0) {
+                throw new IOException(file + " is damaged, it claims " + size + " events");
+            }
+            // grows as the entries are actually read
+            Map<String, Entry> entries = new LinkedHashMap<>(Math.min(size, 1024) * 4 / 3 + 1);
+            for (int i = 0; i < size; i++) {
+                entries.put(readString(in), Entry.read(in));
+            }
+            return new CalendarSnapshot(syncToken, ctag, entries);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        // writeUTF is limited to 64k, descriptions pasted from elsewhere can be longer
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > MAX_STRING_BYTES) {
+            throw new IOException("Damaged calendar snapshot, a string of " + length + " bytes");
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeInstant(DataOutputStream out, Instant instant) throws IOException {
+        out.writeBoolean(instant != null);
+        if (instant != null) {
+            out.writeLong(instant.getEpochSecond());
+            out.writeInt(instant.getNano());
+        }
+    }
+
+    private static Instant readInstant(DataInputStream in) throws IOException {
+        return in.readBoolean() ? Instant.ofEpochSecond(in.readLong(), in.readInt()) : null;
+    }
+
+    public String toString() {
+        return "CalendarSnapshot(syncToken=" + this.syncToken + ", ctag=" + this.ctag + ", size=" + entries.size() + ")";
+    }
+
+    public static class Entry {
+        private final String etag;
+        private final String contentHash;
+        private final Event event;
+
+        public Entry(String etag, String contentHash, Event event) {
+            this.etag = etag;
+            this.contentHash = contentHash;
+            this.event = event;
+        }
+
+        public String getUid() {
+            return event.getUid();
+        }
+
+        public String getEtag() {
+            return this.etag;
+        }
+
+        /**
+         * {@link Event#getContentHash()} of the event, kept so comparing against it needs no hashing
+         */
+        public String getContentHash() {
+            return this.contentHash;
+        }
+
+        public Event getEvent() {
+            return this.event;
+        }
+
+        private void write(DataOutputStream out) throws IOException {
+            writeString(out, etag);
+            writeString(out, contentHash);
+            writeString(out, event.getSummary());
+            writeInstant(out, event.getStartTime());
+            writeInstant(out, event.getEndTime());
+            writeInstant(out, event.getCreatedAt());
+            writeString(out, event.getUid());
+            writeString(out, event.getUrl());
+            writeString(out, event.getDescription());
+            writeString(out, event.getLocation());
+            writeString(out, event.getOrganizer());
+            writeString(out, event.getTimezone() != null ? event.getTimezone().getId() : null);
+            writeString(out, event.getStatus() != null ? event.getStatus().sym.toString() : null);
+        }
+
+        private static Entry read(DataInputStream in) throws IOException {
+            String etag = readString(in);
+            String contentHash = readString(in);
+            String summary = readString(in);
+            Instant startTime = readInstant(in);
+            Instant endTime = readInstant(in);
+            Instant createdAt = readInstant(in);
+            String uid = readString(in);
+            String url = readString(in);
+            String description = readString(in);
+            String location = readString(in);
+            String organizer = readString(in);
+            String timezone = readString(in);
+            String status = readString(in);
+            Event event = new Event(summary, startTime, endTime, createdAt, uid, url, description, location, organizer,
+                    timezone != null ? ZoneId.of(timezone) : null, status != null ? Keyword.intern(status) : null);
+            return new Entry(etag, contentHash, event);
+        }
+    }
+}
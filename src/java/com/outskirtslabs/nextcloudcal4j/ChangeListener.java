@@ -0,0 +1,19 @@
+package com.outskirtslabs.nextcloudcal4j;
+
+import java.util.List;
+
+/**
+ * Receives what a {@link ChangeWatcher} notices. Called on the watcher's thread, the next poll waits for it to return.
+ */
+public interface ChangeListener {
+    /**
+     * The calendar changed since the last poll, changes is never empty
+     */
+    void onChanges(List<CalendarChange> changes);
+
+    /**
+     * A poll failed, or {@link #onChanges(List)} threw. The watcher keeps polling, backing off as if nothing changed.
+     */
+    default void onError(Exception e) {
+    }
+}
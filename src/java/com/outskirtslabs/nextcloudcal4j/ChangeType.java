@@ -0,0 +1,19 @@
+package com.outskirtslabs.nextcloudcal4j;
+
+/**
+ * How an event changed on the server, see {@link CalendarChange}
+ */
+public enum ChangeType {
+    /**
+     * A resource that was not in the calendar before
+     */
+    CREATED,
+    /**
+     * A resource with a new ETag and different content
+     */
+    MODIFIED,
+    /**
+     * A resource that is no longer in the calendar
+     */
+    DELETED
+}
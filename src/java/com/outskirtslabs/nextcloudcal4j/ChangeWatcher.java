@@ -0,0 +1,241 @@
+package com.outskirtslabs.nextcloudcal4j;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Notices changes other clients make to the calendar, e.g., a gig event edited or deleted in the Nextcloud web UI, and
+ * publishes them to a {@link ChangeListener}. Started by {@link NextcloudConnector#watchChanges}.
+ * <p>
+ * Each poll is a Depth-0 PROPFIND for the collection's ctag. Only when the ctag moved is the connector's snapshot synced,
+ * which fetches just the changed resources, see {@link NextcloudConnector#syncSnapshot()}. The delay between polls starts
+ * at minInterval and doubles with every poll that finds nothing, up to maxInterval. A change resets it to minInterval, so
+ * edits that come in bursts are picked up quickly while an idle calendar costs one small request every maxInterval.
+ * <p>
+ * Writes made through the connector are left out, as are changes that leave the content hash as it was. A write whose
+ * response carried no ETag is matched to the next change of that event.
+ */
+public class ChangeWatcher implements Closeable {
+    private static final long CLOSE_TIMEOUT_SECONDS = 30;
+    // marks an own write whose ETag is not known, and an own delete
+    private static final String ANY_ETAG = "*";
+    private static final String DELETED = "";
+
+    private final NextcloudConnector connector;
+    private final ChangeListener listener;
+    private final long minIntervalMillis;
+    private final long maxIntervalMillis;
+    private final ScheduledExecutorService executor;
+    private final Map<String, String> ownWrites = new ConcurrentHashMap<>();
+    private final AtomicLong polls = new AtomicLong();
+    private final AtomicLong syncs = new AtomicLong();
+    private final AtomicLong changes = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private volatile long intervalMillis;
+    // guarded by this: the scheduled poll, which one of them may still run, and whether one is running
+    private ScheduledFuture<?> next;
+    private long generation;
+    private boolean running;
+    private boolean pollAgain;
+    // what the last published changes were computed against, null until the first poll
+    private CalendarSnapshot seen;
+
+    ChangeWatcher(NextcloudConnector connector, ChangeListener listener, Duration minInterval, Duration maxInterval) {
+        if (minInterval.isNegative() || minInterval.isZero() || maxInterval.compareTo(minInterval) < 0) {
+            throw new IllegalArgumentException("Need 0 < minInterval <= maxInterval, got " + minInterval + " and " + maxInterval);
+        }
+        this.connector = connector;
+        this.listener = listener;
+        this.minIntervalMillis = minInterval.toMillis();
+        this.maxIntervalMillis = maxInterval.toMillis();
+        this.intervalMillis = minIntervalMillis;
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "nextcloud-watcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    synchronized void start() {
+        next = executor.schedule(pollTask(), 0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Polls right away instead of waiting out the current interval, e.g., when told by a webhook that something changed.
+     * While a poll is running, the next one starts as soon as it is done.
+     */
+    public synchronized void pollNow() {
+        if (executor.isShutdown() || next == null) {
+            return;
+        }
+        if (running) {
+            pollAgain = true;
+        } else if (next.cancel(false)) {
+            // cancel also succeeds for a task that just started, pollTask makes it step aside
+            next = executor.schedule(pollTask(), 0, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * A poll that only runs if no other was scheduled after it, so there is never more than one chain of polls
+     */
+    private Runnable pollTask() {
+        long scheduled = ++generation;
+        return () -> poll(scheduled);
+    }
+
+    /**
+     * The delay before the next poll
+     */
+    public Duration getInterval() {
+        return Duration.ofMillis(intervalMillis);
+    }
+
+    /**
+     * Number of ctag PROPFINDs sent
+     */
+    public long getPolls() {
+        return polls.get();
+    }
+
+    /**
+     * Number of polls that found the ctag moved and synced the snapshot
+     */
+    public long getSyncs() {
+        return syncs.get();
+    }
+
+    /**
+     * Number of changes published to the listener
+     */
+    public long getChanges() {
+        return changes.get();
+    }
+
+    public long getErrors() {
+        return errors.get();
+    }
+
+    void ownWrite(String uid, String etag) {
+        ownWrites.put(uid, etag != null ? etag : ANY_ETAG);
+    }
+
+    void ownDelete(String uid) {
+        ownWrites.put(uid, DELETED);
+    }
+
+    private void poll(long scheduled) {
+        synchronized (this) {
+            if (scheduled != generation) {
+                return;
+            }
+            running = true;
+        }
+        boolean changed = false;
+        try {
+            if (seen == null) {
+                // a restored snapshot is the baseline, so changes made while the app was down get reported
+                ownWrites.clear();
+                CalendarSnapshot current = connector.getSnapshot();
+                seen = current.getSyncToken() != null ? current : connector.syncSnapshot();
+            }
+            polls.incrementAndGet();
+            CollectionState state = connector.getCollectionState();
+            if (state.getCtag() == null || !state.getCtag().equals(seen.getCtag())) {
+                syncs.incrementAndGet();
+                CalendarSnapshot current = connector.syncSnapshot();
+                List<CalendarChange> found = diff(seen, current);
+                seen = current;
+                if (!found.isEmpty()) {
+                    changed = true;
+                    changes.addAndGet(found.size());
+                    listener.onChanges(Collections.unmodifiableList(found));
+                }
+            }
+        } catch (Exception e) {
+            errors.incrementAndGet();
+            try {
+                listener.onError(e);
+            } catch (RuntimeException ignored) {
+                // a failing listener must not stop the polling
+            }
+        } finally {
+            intervalMillis = changed ? minIntervalMillis : Math.min(intervalMillis * 2, maxIntervalMillis);
+            schedule();
+        }
+    }
+
+    private synchronized void schedule() {
+        running = false;
+        if (executor.isShutdown()) {
+            return;
+        }
+        long delay = pollAgain ? 0 : intervalMillis;
+        pollAgain = false;
+        next = executor.schedule(pollTask(), delay, TimeUnit.MILLISECONDS);
+    }
+
+    private List<CalendarChange> diff(CalendarSnapshot before, CalendarSnapshot after) {
+        List<CalendarChange> found = new ArrayList<>();
+        for (Map.Entry<String, CalendarSnapshot.Entry> entry : after.getEntries().entrySet()) {
+            CalendarSnapshot.Entry now = entry.getValue();
+            CalendarSnapshot.Entry was = before.getEntries().get(entry.getKey());
+            if (was != null && Objects.equals(was.getEtag(), now.getEtag())) {
+                continue;
+            }
+            if (isOwn(now.getUid(), now.getEtag())) {
+                continue;
+            }
+            if (was == null) {
+                found.add(new CalendarChange(ChangeType.CREATED, entry.getKey(), now.getUid(), now.getEtag(), now.getEvent()));
+            } else if (!Objects.equals(was.getContentHash(), now.getContentHash())) {
+                found.add(new CalendarChange(ChangeType.MODIFIED, entry.getKey(), now.getUid(), now.getEtag(), now.getEvent()));
+            }
+        }
+        for (Map.Entry<String, CalendarSnapshot.Entry> entry : before.getEntries().entrySet()) {
+            CalendarSnapshot.Entry was = entry.getValue();
+            if (!after.getEntries().containsKey(entry.getKey()) && !isOwn(was.getUid(), DELETED)) {
+                found.add(new CalendarChange(ChangeType.DELETED, entry.getKey(), was.getUid(), was.getEtag(), was.getEvent()));
+            }
+        }
+        return found;
+    }
+
+    private boolean isOwn(String uid, String etag) {
+        if (uid == null) {
+            return false;
+        }
+        String own = ownWrites.remove(uid);
+        return own != null && (own.equals(etag) || own.equals(ANY_ETAG) && !DELETED.equals(etag));
+    }
+
+    /**
+     * Stops polling, waiting for a poll in progress to finish
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            executor.shutdown();
+        }
+        try {
+            executor.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public String toString() {
+        return "ChangeWatcher(interval=" + getInterval() + ", polls=" + polls + ", syncs=" + syncs + ", changes=" + changes + ", errors=" + errors + ")";
+    }
+}
@@ -0,0 +1,115 @@
+package com.outskirtslabs.nextcloudcal4j;
+
+import java.time.Duration;
+
+/**
+ * Stops sending requests to nextcloud for a while after too many consecutive calls failed, so callers fail fast with a
+ * {@link CircuitOpenException} instead of each waiting out timeouts and retries against a server that is down.
+ * <p>
+ * Once the open period is over a single probe request is let through, its outcome closes the circuit again or
+ * re-opens it for another period.
+ */
+public class CircuitBreaker {
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openMillis;
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openUntil;
+    private long opened;
+    private long rejected;
+
+    /**
+     * @param failureThreshold consecutive failed calls that open the circuit, 0 never opens it
+     * @param openDuration     how long the circuit stays open before a probe is let through
+     */
+    public CircuitBreaker(int failureThreshold, Duration openDuration) {
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openDuration.toMillis();
+    }
+
+    /**
+     * @return false if the call must not be sent, it is counted as rejected
+     */
+    public synchronized boolean tryAcquire() {
+        if (state == State.OPEN) {
+            if (System.currentTimeMillis() < openUntil) {
+                rejected++;
+                return false;
+            }
+            state = State.HALF_OPEN;
+            return true;
+        }
+        if (state == State.HALF_OPEN) {
+            // the probe is still in flight
+            rejected++;
+            return false;
+        }
+        return true;
+    }
+
+    public synchronized void onSuccess() {
+        consecutiveFailures = 0;
+        state = State.CLOSED;
+    }
+
+    public synchronized void onFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || (failureThreshold > 0 && consecutiveFailures >= failureThreshold)) {
+            open(openMillis);
+        }
+    }
+
+    /**
+     * For a call that ended without an outcome, e.g., interrupted. A probe gives its turn to the next call, which is let
+     * through right away, otherwise nothing changes.
+     */
+    public synchronized void onAbandoned() {
+        if (state == State.HALF_OPEN) {
+            state = State.OPEN;
+            openUntil = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Opens the circuit for at least delay, e.g., when the server answered 503 with a long Retry-After
+     */
+    public synchronized void openFor(Duration delay) {
+        if (failureThreshold > 0) {
+            open(Math.max(delay.toMillis(), state == State.OPEN ? openUntil - System.currentTimeMillis() : 0));
+        }
+    }
+
+    private void open(long millis) {
+        if (state != State.OPEN) {
+            opened++;
+        }
+        state = State.OPEN;
+        openUntil = System.currentTimeMillis() + millis;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Number of times the circuit opened
+     */
+    public synchronized long getOpened() {
+        return opened;
+    }
+
+    /**
+     * Number of calls failed fast while the circuit was open
+     */
+    public synchronized long getRejected() {
+        return rejected;
+    }
+
+    public synchronized String toString() {
+        return "CircuitBreaker(state=" + state + ", consecutiveFailures=" + consecutiveFailures + ", opened=" + opened + ", rejected=" + rejected + ")";
+    }
+}
@@ -0,0 +1,40 @@
+package com.outskirtslabs.nextcloudcal4j;
+
+import java.util.Objects;
+
+/**
+ * The change markers of a calendar collection as reported by a Depth-0 PROPFIND.
+ * Nextcloud bumps both the ctag and the sync-token whenever any resource in the collection changes.
+ */
+public class CollectionState {
+    private final String ctag;
+    private final String syncToken;
+
+    public CollectionState(String ctag, String syncToken) {
+        this.ctag = ctag;
+        this.syncToken = syncToken;
+    }
+
+    public String getCtag() {
+        return this.ctag;
+    }
+
+    public String getSyncToken() {
+        return this.syncToken;
+    }
+
+    public boolean equals(final Object o) {
+        if (o == this) return true;
+        if (!(o instanceof CollectionState)) return false;
+        final CollectionState other = (CollectionState) o;
+        return Objects.equals(this.ctag, other.ctag) && Objects.equals(this.syncToken, other.syncToken);
+    }
+
+    public int hashCode() {
+        return Objects.hash(this.ctag, this.syncToken);
+    }
+
+    public String toString() {
+        return "CollectionState(ctag=" + this.ctag + ", syncToken=" + this.syncToken + ")";
+    }
+}
@@ -0,0 +1,37 @@
+package com.outskirtslabs.nextcloudcal4j;
+
+/**
+ * Receives measurements of what {@link NextcloudConnector} does, e.g., to publish them to a metrics backend.
+ * <p>
+ * Operations are the connector's public calls, named "list", "get", "create", "update", "upsert", "delete", "propfind",
+ * "sync", "snapshot", "freebusy" and "reconcile". A call made by another one, e.g., the ctag PROPFIND of a cached get, is
+ * reported as an operation of its own. Every HTTP exchange, retries included, is reported with the operation it was sent for.
+ * <p>
+ * Called on the thread that did the work, implementations must be thread-safe and should not block.
+ */
+public interface ConnectorMetrics {
+    ConnectorMetrics NOOP = new ConnectorMetrics() {
+    };
+
+    /**
+     * An HTTP exchange finished, once its response body was read or discarded
+     *
+     * @param status        0 when no response was received
+     * @param requestBytes  bytes of the request body, -1 if not known up front
+     * @param responseBytes bytes of the response body as transferred, i.e., before decompression
+     * @param durationNanos from sending the request to the end of the response body
+     */
+    default void onRequest(String operation, String method, int status, long requestBytes, long responseBytes, long durationNanos) {
+    }
+
+    /**
+     * An operation finished
+     *
+     * @param success       false if it threw
+     * @param parseNanos    time spent parsing calendar-data, summed over all threads that parsed
+     * @param events        number of events read from the server, responses that fail to parse included
+     * @param requests      number of HTTP exchanges it made
+     */
+    default void onOperation(String operation, boolean success, long durationNanos, long parseNanos, int events, int requests) {
+    }
+}
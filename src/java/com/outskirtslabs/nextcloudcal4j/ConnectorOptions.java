@@ -0,0 +1,456 @@
+package com.outskirtslabs.nextcloudcal4j;
+
+import javax.net.ssl.SSLContext;
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * Tuning knobs for the HTTP client used by {@link NextcloudConnector}.
+ * Connections to nextcloud are pooled and kept alive, so bursts of writes reuse the same TLS sessions.
+ */
+public class ConnectorOptions {
+    private final String scheme;
+    private final int port;
+    private final int maxTotal;
+    private final int maxPerRoute;
+    private final Duration connectTimeout;
+    private final Duration socketTimeout;
+    private final Duration connectionRequestTimeout;
+    private final Duration maxIdleTime;
+    private final Duration keepAlive;
+    private final boolean compression;
+    private final int multigetBatchSize;
+    private final boolean projection;
+    private final int parseParallelism;
+    private final int cacheMaxSize;
+    private final Duration cacheTtl;
+    private final Duration ctagCheckInterval;
+    private final int writerThreads;
+    private final int writerQueueCapacity;
+    private final int reconcileParallelism;
+    private final int maxRetries;
+    private final Duration retryBaseDelay;
+    private final Duration retryMaxDelay;
+    private final int circuitFailureThreshold;
+    private final Duration circuitOpenDuration;
+    private final ConnectorMetrics metrics;
+    private final Path snapshotPath;
+    private final Transport transport;
+    private final SSLContext sslContext;
+
+    public ConnectorOptions(String scheme, int port, int maxTotal, int maxPerRoute, Duration connectTimeout, Duration socketTimeout, Duration connectionRequestTimeout, Duration maxIdleTime, Duration keepAlive, boolean compression, int multigetBatchSize, boolean projection, int parseParallelism, int cacheMaxSize, Duration cacheTtl, Duration ctagCheckInterval, int writerThreads, int writerQueueCapacity, int reconcileParallelism, int maxRetries, Duration retryBaseDelay, Duration retryMaxDelay, int circuitFailureThreshold, Duration circuitOpenDuration, ConnectorMetrics metrics, Path snapshotPath, Transport transport, SSLContext sslContext) {
+        this.scheme = scheme;
+        this.port = port;
+        this.maxTotal = maxTotal;
+        this.maxPerRoute = maxPerRoute;
+        this.connectTimeout = connectTimeout;
+        this.socketTimeout = socketTimeout;
+        this.connectionRequestTimeout = connectionRequestTimeout;
+        this.maxIdleTime = maxIdleTime;
+        this.keepAlive = keepAlive;
+        this.compression = compression;
+        this.multigetBatchSize = multigetBatchSize;
+        this.projection = projection;
+        this.parseParallelism = parseParallelism;
+        this.cacheMaxSize = cacheMaxSize;
+        this.cacheTtl = cacheTtl;
+        this.ctagCheckInterval = ctagCheckInterval;
+        this.writerThreads = writerThreads;
+        this.writerQueueCapacity = writerQueueCapacity;
+        this.reconcileParallelism = reconcileParallelism;
+        this.maxRetries = maxRetries;
+        this.retryBaseDelay = retryBaseDelay;
+        this.retryMaxDelay = retryMaxDelay;
+        this.circuitFailureThreshold = circuitFailureThreshold;
+        this.circuitOpenDuration = circuitOpenDuration;
+        this.metrics = metrics;
+        this.snapshotPath = snapshotPath;
+        this.transport = transport;
+        this.sslContext = sslContext;
+    }
+
+    public static ConnectorOptions defaults() {
+        return builder().build();
+    }
+
+    public static ConnectorOptionsBuilder builder() {
+        return new ConnectorOptionsBuilder();
+    }
+
+    /**
+     * https, or http for talking to a local server
+     */
+    public String getScheme() {
+        return this.scheme;
+    }
+
+    /**
+     * Port of the nextcloud server, -1 for the scheme's default
+     */
+    public int getPort() {
+        return this.port;
+    }
+
+    /**
+     * Maximum number of open connections in the pool
+     */
+    public int getMaxTotal() {
+        return this.maxTotal;
+    }
+
+    /**
+     * Maximum number of open connections to the nextcloud host
+     */
+    public int getMaxPerRoute() {
+        return this.maxPerRoute;
+    }
+
+    public Duration getConnectTimeout() {
+        return this.connectTimeout;
+    }
+
+    /**
+     * Maximum time of inactivity while waiting for response data
+     */
+    public Duration getSocketTimeout() {
+        return this.socketTimeout;
+    }
+
+    /**
+     * Maximum time to wait for a free connection from the pool
+     */
+    public Duration getConnectionRequestTimeout() {
+        return this.connectionRequestTimeout;
+    }
+
+    /**
+     * Pooled connections idle for longer than this are closed by a background thread
+     */
+    public Duration getMaxIdleTime() {
+        return this.maxIdleTime;
+    }
+
+    /**
+     * How long a connection is kept alive when the server does not say otherwise, also caps the server's Keep-Alive timeout
+     */
+    public Duration getKeepAlive() {
+        return this.keepAlive;
+    }
+
+    /**
+     * Whether to send Accept-Encoding and transparently decompress gzip/deflate responses
+     */
+    public boolean isCompression() {
+        return this.compression;
+    }
+
+    /**
+     * Maximum number of hrefs sent in a single calendar-multiget REPORT
+     */
+    public int getMultigetBatchSize() {
+        return this.multigetBatchSize;
+    }
+
+    /**
+     * Whether listings ask the server for only the properties an Event is made of and parse them with {@link EventProjection}
+     * instead of ical4j. Off by default, the events read the same either way but ical4j is the reference.
+     */
+    public boolean isProjection() {
+        return this.projection;
+    }
+
+    /**
+     * Number of threads parsing calendar-data of listings, 1 parses on the calling thread as the response streams in
+     */
+    public int getParseParallelism() {
+        return this.parseParallelism;
+    }
+
+    /**
+     * Maximum number of events kept in the {@link EventCache}, 0 disables caching
+     */
+    public int getCacheMaxSize() {
+        return this.cacheMaxSize;
+    }
+
+    public Duration getCacheTtl() {
+        return this.cacheTtl;
+    }
+
+    /**
+     * How long a cached read may go without re-checking the collection ctag. Zero checks it on every cached read.
+     */
+    public Duration getCtagCheckInterval() {
+        return this.ctagCheckInterval;
+    }
+
+    /**
+     * Number of threads of the {@link AsyncEventWriter}
+     */
+    public int getWriterThreads() {
+        return this.writerThreads;
+    }
+
+    /**
+     * Maximum number of pending background writes before submitting blocks
+     */
+    public int getWriterQueueCapacity() {
+        return this.writerQueueCapacity;
+    }
+
+    /**
+     * Maximum number of writes {@link NextcloudConnector#reconcile} has in flight at once
+     */
+    public int getReconcileParallelism() {
+        return this.reconcileParallelism;
+    }
+
+    /**
+     * Maximum number of times a failed request is retried, see {@link ResilientExec}. 0 disables retries.
+     */
+    public int getMaxRetries() {
+        return this.maxRetries;
+    }
+
+    /**
+     * Delay before the first retry, doubled for every further one
+     */
+    public Duration getRetryBaseDelay() {
+        return this.retryBaseDelay;
+    }
+
+    /**
+     * Upper bound of the backoff. A longer Retry-After is not waited for, the circuit is opened instead.
+     */
+    public Duration getRetryMaxDelay() {
+        return this.retryMaxDelay;
+    }
+
+    /**
+     * Consecutive failed calls after which the {@link CircuitBreaker} opens, 0 never opens it
+     */
+    public int getCircuitFailureThreshold() {
+        return this.circuitFailureThreshold;
+    }
+
+    /**
+     * How long calls fail fast once the circuit opened
+     */
+    public Duration getCircuitOpenDuration() {
+        return this.circuitOpenDuration;
+    }
+
+    /**
+     * Receives latencies, sizes and parse times of every operation and request
+     */
+    public ConnectorMetrics getMetrics() {
+        return this.metrics;
+    }
+
+    /**
+     * File the calendar snapshot is saved to when the connector is closed, null to not save it, see {@link NextcloudConnector#syncSnapshot()}
+     */
+    public Path getSnapshotPath() {
+        return this.snapshotPath;
+    }
+
+    /**
+     * How requests are sent, {@link Transport#HTTP_2} multiplexes concurrent calls over a single connection
+     */
+    public Transport getTransport() {
+        return this.transport;
+    }
+
+    /**
+     * Trusted certificates for https, e.g., of a self-hosted nextcloud with its own CA. Null uses the JVM's defaults.
+     */
+    public SSLContext getSslContext() {
+        return this.sslContext;
+    }
+
+    public String toString() {
+        return "ConnectorOptions(scheme=" + this.scheme + ", port=" + this.port + ", maxTotal=" + this.maxTotal + ", maxPerRoute=" + this.maxPerRoute + ", connectTimeout=" + this.connectTimeout + ", socketTimeout=" + this.socketTimeout + ", connectionRequestTimeout=" + this.connectionRequestTimeout + ", maxIdleTime=" + this.maxIdleTime + ", keepAlive=" + this.keepAlive + ", compression=" + this.compression + ", multigetBatchSize=" + this.multigetBatchSize + ", projection=" + this.projection + ", parseParallelism=" + this.parseParallelism + ", cacheMaxSize=" + this.cacheMaxSize + ", cacheTtl=" + this.cacheTtl + ", ctagCheckInterval=" + this.ctagCheckInterval + ", writerThreads=" + this.writerThreads + ", writerQueueCapacity=" + this.writerQueueCapacity + ", reconcileParallelism=" + this.reconcileParallelism + ", maxRetries=" + this.maxRetries + ", retryBaseDelay=" + this.retryBaseDelay + ", retryMaxDelay=" + this.retryMaxDelay + ", circuitFailureThreshold=" + this.circuitFailureThreshold + ", circuitOpenDuration=" + this.circuitOpenDuration + ", metrics=" + this.metrics + ", snapshotPath=" + this.snapshotPath + ", transport=" + this.transport + ", sslContext=" + this.sslContext + ")";
+    }
+
+    public static class ConnectorOptionsBuilder {
+        private String scheme = "https";
+        private int port = -1;
+        private int maxTotal = 20;
+        private int maxPerRoute = 10;
+        private Duration connectTimeout = Duration.ofSeconds(10);
+        private Duration socketTimeout = Duration.ofSeconds(30);
+        private Duration connectionRequestTimeout = Duration.ofSeconds(10);
+        private Duration maxIdleTime = Duration.ofSeconds(30);
+        private Duration keepAlive = Duration.ofSeconds(60);
+        private boolean compression = true;
+        private int multigetBatchSize = 50;
+        private boolean projection = false;
+        private int parseParallelism = 1;
+        private int cacheMaxSize = 1000;
+        private Duration cacheTtl = Duration.ofMinutes(10);
+        private Duration ctagCheckInterval = Duration.ZERO;
+        private int writerThreads = 2;
+        private int writerQueueCapacity = 100;
+        private int reconcileParallelism = 4;
+        private int maxRetries = 3;
+        private Duration retryBaseDelay = Duration.ofMillis(200);
+        private Duration retryMaxDelay = Duration.ofSeconds(10);
+        private int circuitFailureThreshold = 5;
+        private Duration circuitOpenDuration = Duration.ofSeconds(30);
+        private ConnectorMetrics metrics = ConnectorMetrics.NOOP;
+        private Path snapshotPath;
+        private Transport transport = Transport.HTTP_1_1;
+        private SSLContext sslContext;
+
+        ConnectorOptionsBuilder() {
+        }
+
+        public ConnectorOptionsBuilder scheme(String scheme) {
+            this.scheme = scheme;
+            return this;
+        }
+
+        public ConnectorOptionsBuilder port(int port) {
+            this.port = port;
+            return this;
+        }
+
+        public ConnectorOptionsBuilder maxTotal(int maxTotal) {
+            this.maxTotal = maxTotal;
+            return this;
+        }
+
+        public ConnectorOptionsBuilder maxPerRoute(int maxPerRoute) {
+            this.maxPerRoute = maxPerRoute;
+            return this;
+        }
+
+        public ConnectorOptionsBuilder connectTimeout(Duration connectTimeout) {
+            this.connectTimeout = connectTimeout;
+            return this;
+        }
+
+        public ConnectorOptionsBuilder socketTimeout(Duration socketTimeout) {
+            this.socketTimeout = socketTimeout;
+            return this;
+        }
+
+        public ConnectorOptionsBuilder connectionRequestTimeout(Duration connectionRequestTimeout) {
+            this.connectionRequestTimeout = connectionRequestTimeout;
+            return this;
+        }
+
+        public ConnectorOptionsBuilder maxIdleTime(Duration maxIdleTime) {
+            this.maxIdleTime = maxIdleTime;
+            return this;
+        }
+
+        public ConnectorOptionsBuilder keepAlive(Duration keepAlive) {
+            this.keepAlive = keepAlive;
+            return this;
+        }
+
+        public ConnectorOptionsBuilder compression(boolean compression) {
+            this.compression = compression;
+            return this;
+        }
+
+        public ConnectorOptionsBuilder multigetBatchSize(int multigetBatchSize) {
+            this.multigetBatchSize = multigetBatchSize;
+            return this;
+        }
+
+        public ConnectorOptionsBuilder projection(boolean projection) {
+            this.projection = projection;
+            return this;
+        }
+
+        public ConnectorOptionsBuilder parseParallelism(int parseParallelism) {
+            this.parseParallelism = parseParallelism;
+            return this;
+        }
+
+        public ConnectorOptionsBuilder cacheMaxSize(int cacheMaxSize) {
+            this.cacheMaxSize = cacheMaxSize;
+            return this;
+        }
+
+        public ConnectorOptionsBuilder cacheTtl(Duration cacheTtl) {
+            this.cacheTtl = cacheTtl;
+            return this;
+        }
+
+        public ConnectorOptionsBuilder ctagCheckInterval(Duration ctagCheckInterval) {
+            this.ctagCheckInterval = ctagCheckInterval;
+            return this;
+        }
+
+        public ConnectorOptionsBuilder writerThreads(int writerThreads) {
+            this.writerThreads = writerThreads;
+            return this;
+        }
+
+        public ConnectorOptionsBuilder writerQueueCapacity(int writerQueueCapacity) {
+            this.writerQueueCapacity = writerQueueCapacity;
+            return this;
+        }
+
+        public ConnectorOptionsBuilder reconcileParallelism(int reconcileParallelism) {
+            this.reconcileParallelism = reconcileParallelism;
+            return this;
+        }
+
+        public ConnectorOptionsBuilder maxRetries(int maxRetries) {
+            this.maxRetries = maxRetries;
+            return this;
+        }
+
+        public ConnectorOptionsBuilder retryBaseDelay(Duration retryBaseDelay) {
+            this.retryBaseDelay = retryBaseDelay;
+            return this;
+        }
+
+        public ConnectorOptionsBuilder retryMaxDelay(Duration retryMaxDelay) {
+            this.retryMaxDelay = retryMaxDelay;
+            return this;
+        }
+
+        public ConnectorOptionsBuilder circuitFailureThreshold(int circuitFailureThreshold) {
+            this.circuitFailureThreshold = circuitFailureThreshold;
+            return this;
+        }
+
+        public ConnectorOptionsBuilder circuitOpenDuration(Duration circuitOpenDuration) {
+            this.circuitOpenDuration = circuitOpenDuration;
+            return this;
+        }
+
+        public ConnectorOptionsBuilder metrics(ConnectorMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        public ConnectorOptionsBuilder snapshotPath(Path snapshotPath) {
+            this.snapshotPath = snapshotPath;
+            return this;
+        }
+
+        public ConnectorOptionsBuilder transport(Transport transport) {
+            this.transport = transport;
+            return this;
+        }
+
+        public ConnectorOptionsBuilder sslContext(SSLContext sslContext) {
+            this.sslContext = sslContext;
+            return this;
+        }
+
+        public ConnectorOptions build() {
+            return new ConnectorOptions(this.scheme, this.port, this.maxTotal, this.maxPerRoute, this.connectTimeout, this.socketTimeout, this.connectionRequestTimeout, this.maxIdleTime, this.keepAlive, this.compression, this.multigetBatchSize, this.projection, this.parseParallelism, this.cacheMaxSize, this.cacheTtl, this.ctagCheckInterval, this.writerThreads, this.writerQueueCapacity, this.reconcileParallelism, this.maxRetries, this.retryBaseDelay, this.retryMaxDelay, this.circuitFailureThreshold, this.circuitOpenDuration, this.metrics, this.snapshotPath, this.transport, this.sslContext);
+        }
+
+        public String toString() {
+            return "ConnectorOptions.ConnectorOptionsBuilder(scheme=" + this.scheme + ", port=" + this.port + ", maxTotal=" + this.maxTotal + ", maxPerRoute=" + this.maxPerRoute + ", connectTimeout=" + this.connectTimeout + ", socketTimeout=" + this.socketTimeout + ", connectionRequestTimeout=" + this.connectionRequestTimeout + ", maxIdleTime=" + this.maxIdleTime + ", keepAlive=" + this.keepAlive + ", compression=" + this.compression + ", multigetBatchSize=" + this.multigetBatchSize + ", projection=" + this.projection + ", parseParallelism=" + this.parseParallelism + ", cacheMaxSize=" + this.cacheMaxSize + ", cacheTtl=" + this.cacheTtl + ", ctagCheckInterval=" + this.ctagCheckInterval + ", writerThreads=" + this.writerThreads + ", writerQueueCapacity=" + this.writerQueueCapacity + ", reconcileParallelism=" + this.reconcileParallelism + ", maxRetries=" + this.maxRetries + ", retryBaseDelay=" + this.retryBaseDelay + ", retryMaxDelay=" + this.retryMaxDelay + ", circuitFailureThreshold=" + this.circuitFailureThreshold + ", circuitOpenDuration=" + this.circuitOpenDuration + ", metrics=" + this.metrics + ", snapshotPath=" + this.snapshotPath + ", transport=" + this.transport + ", sslContext=" + this.sslContext + ")";
+        }
+    }
+}
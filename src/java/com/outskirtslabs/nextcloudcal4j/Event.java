@@ -2,8 +2,7 @@ package com.outskirtslabs.nextcloudcal4j;
 
 import clojure.lang.IPersistentMap;
 import clojure.lang.Keyword;
-import clojure.lang.MapEntry;
-import clojure.lang.PersistentHashMap;
+import clojure.lang.PersistentArrayMap;
 import com.github.caldav4j.CalDAVConstants;
 import net.fortuna.ical4j.model.*;
 import net.fortuna.ical4j.model.component.VEvent;
@@ -12,6 +11,10 @@ import net.fortuna.ical4j.model.property.*;
 
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.DateTimeException;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.util.UUID;
@@ -37,6 +40,10 @@ public class Event {
     public static final Keyword ORGANIZER = Keyword.intern(CLOJURE_EVENT_NS, "organizer");
     public static final Keyword STATUS = Keyword.intern(CLOJURE_EVENT_NS, "status");
     public static final Keyword TIMEZONE = Keyword.intern(CLOJURE_EVENT_NS, "timezone");
+    /**
+     * Written on every event, holds {@link #getContentHash()} of what we wrote
+     */
+    public static final String CONTENT_HASH_PROPERTY = "X-NEXTCLOUDCAL4J-HASH";
     private final String summary;
     private final Instant startTime;
     private final Instant endTime;
@@ -77,66 +84,87 @@ public class Event {
     }
 
     public static Event fromICal(Calendar ical) {
-        VTimeZone vTimeZone = (VTimeZone) ical.getComponent("VTIMEZONE");
         VEvent vEvent = (VEvent) ical.getComponent("VEVENT");
+        return new Event(
+                value(vEvent.getSummary()),
+                instant(vEvent.getStartDate()),
+                instant(vEvent.getEndDate()),
+                instant(vEvent.getDateStamp()),
+                value(vEvent.getUid()),
+                value(vEvent.getUrl()),
+                value(vEvent.getDescription()),
+                value(vEvent.getLocation()),
+                value(vEvent.getOrganizer()),
+                zoneId((VTimeZone) ical.getComponent("VTIMEZONE")),
+                status(vEvent.getStatus())
+        );
+    }
+
+    /**
+     * Same as fromICal(ical).toClojure(), without building the intermediate Event
+     */
+    public static IPersistentMap icalToClojure(Calendar ical) {
+        VEvent vEvent = (VEvent) ical.getComponent("VEVENT");
+        return clojureMap(
+                value(vEvent.getSummary()),
+                instant(vEvent.getStartDate()),
+                instant(vEvent.getEndDate()),
+                instant(vEvent.getDateStamp()),
+                value(vEvent.getUid()),
+                value(vEvent.getUrl()),
+                value(vEvent.getDescription()),
+                value(vEvent.getLocation()),
+                value(vEvent.getOrganizer()),
+                zoneId((VTimeZone) ical.getComponent("VTIMEZONE")),
+                status(vEvent.getStatus())
+        );
+    }
+
+    private static String value(Property property) {
+        return property != null ? property.getValue() : null;
+    }
 
-        clojure.lang.Keyword clojureStatus;
-        Status status = vEvent.getStatus();
+    private static Instant instant(DateProperty property) {
+        return property != null ? property.getDate().toInstant() : null;
+    }
+
+    private static ZoneId zoneId(VTimeZone vTimeZone) {
+        if (vTimeZone == null || vTimeZone.getTimeZoneId() == null) {
+            return null;
+        }
+        try {
+            return ZoneId.of(vTimeZone.getTimeZoneId().getValue());
+        } catch (DateTimeException e) {
+            // a zone of the calendar's own, its times are still read with its VTIMEZONE
+            return null;
+        }
+    }
+
+    private static Keyword status(Status status) {
         if (status == Status.VEVENT_CONFIRMED)
-            clojureStatus = CONFIRMED;
+            return CONFIRMED;
         else if (status == Status.VEVENT_CANCELLED) {
-            clojureStatus = CANCELLED;
+            return CANCELLED;
         } else if (status == Status.VEVENT_TENTATIVE) {
-            clojureStatus = TENTATIVE;
-        } else {
-            clojureStatus = UNKNOWN;
+            return TENTATIVE;
         }
-
-        return new Event(
-                vEvent.getSummary() != null ? vEvent.getSummary().getValue() : null,
-                vEvent.getStartDate() != null ? vEvent.getStartDate().getDate().toInstant() : null,
-                vEvent.getEndDate() != null ? vEvent.getEndDate().getDate().toInstant() : null,
-                vEvent.getDateStamp() != null ? vEvent.getDateStamp().getDate().toInstant() : null,
-                vEvent.getUid() != null ? vEvent.getUid().getValue() : null,
-                vEvent.getUrl() != null ? vEvent.getUrl().getValue() : null,
-                vEvent.getDescription() != null ? vEvent.getDescription().getValue() : null,
-                vEvent.getLocation() != null ? vEvent.getLocation().getValue() : null,
-                vEvent.getOrganizer() != null ? vEvent.getOrganizer().getValue() : null,
-                vTimeZone != null && vTimeZone.getTimeZoneId() != null ? ZoneId.of(vTimeZone.getTimeZoneId().getValue()) : null,
-                clojureStatus
-        );
-
+        return UNKNOWN;
     }
 
     public static Event fromClojure(IPersistentMap clojureMap) {
-        EventBuilder builder = Event.builder();
-        for (Object item : clojureMap) {
-            MapEntry entry = (MapEntry) item;
-            Object key = entry.getKey();
-            if (key == SUMMARY)
-                builder.summary((String) entry.getValue());
-            else if (key == START_TIME)
-                builder.startTime((Instant) entry.getValue());
-            else if (key == END_TIME)
-                builder.endTime((Instant) entry.getValue());
-            else if (key == CREATED_AT)
-                builder.createdAt((Instant) entry.getValue());
-            else if (key == UID)
-                builder.uid((String) entry.getValue());
-            else if (key == URL)
-                builder.url((String) entry.getValue());
-            else if (key == DESCRIPTION)
-                builder.description((String) entry.getValue());
-            else if (key == LOCATION)
-                builder.location((String) entry.getValue());
-            else if (key == ORGANIZER)
-                builder.organizer((String) entry.getValue());
-            else if (key == STATUS)
-                builder.status((Keyword) entry.getValue());
-            else if (key == TIMEZONE)
-                builder.timezone((ZoneId) entry.getValue());
-        }
-        return builder.build();
+        return new Event(
+                (String) clojureMap.valAt(SUMMARY),
+                (Instant) clojureMap.valAt(START_TIME),
+                (Instant) clojureMap.valAt(END_TIME),
+                (Instant) clojureMap.valAt(CREATED_AT),
+                (String) clojureMap.valAt(UID),
+                (String) clojureMap.valAt(URL),
+                (String) clojureMap.valAt(DESCRIPTION),
+                (String) clojureMap.valAt(LOCATION),
+                (String) clojureMap.valAt(ORGANIZER),
+                (ZoneId) clojureMap.valAt(TIMEZONE),
+                (Keyword) clojureMap.valAt(STATUS)
+        );
     }
 
     public static EventBuilder builder() {
@@ -155,14 +183,15 @@ public class Event {
         }
         if (getSummary() != null)
             ve.getProperties().add(new Summary(getSummary()));
+        TimeZone timeZone = getTimezoneFortuna();
         if (getStartTime() != null) {
             DtStart dtstart = new DtStart(start);
-            dtstart.setTimeZone(getTimezoneFortuna());
+            dtstart.setTimeZone(timeZone);
             ve.getProperties().add(dtstart);
         }
         if (getEndTime() != null) {
             DtEnd dtend = new DtEnd(end);
-            dtend.setTimeZone(getTimezoneFortuna());
+            dtend.setTimeZone(timeZone);
             ve.getProperties().add(dtend);
         }
         if (getDescription() != null)
@@ -183,22 +212,55 @@ public class Event {
                     + "-" + "nextcloud");
             ve.getProperties().add(uid);
         }
+        ve.getProperties().add(new XProperty(CONTENT_HASH_PROPERTY, getContentHash()));
         ve.validate();
         return ve;
     }
 
+    /**
+     * A stable hash of everything that ends up in the calendar except the DTSTAMP (createdAt), so two events with the same
+     * hash render the same for calendar clients and writing one over the other would change nothing.
+     */
+    public String getContentHash() {
+        StringBuilder canonical = new StringBuilder(256);
+        appendCanonical(canonical, getUid());
+        appendCanonical(canonical, getSummary());
+        appendCanonical(canonical, getStartTime());
+        appendCanonical(canonical, getEndTime());
+        appendCanonical(canonical, getUrl());
+        appendCanonical(canonical, getDescription());
+        appendCanonical(canonical, getLocation());
+        appendCanonical(canonical, getOrganizer());
+        appendCanonical(canonical, getTimezone() != null ? getTimezone().getId() : null);
+        appendCanonical(canonical, getStatus() != null ? getStatus().getName() : null);
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(canonical.toString().getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(32);
+            for (int i = 0; i < 16; i++) {
+                hex.append(Character.forDigit((digest[i] >> 4) & 0xf, 16)).append(Character.forDigit(digest[i] & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is required to be supported by every JVM", e);
+        }
+    }
+
+    private static void appendCanonical(StringBuilder sb, Object value) {
+        // length prefixed, so no choice of field values can make two different events collide on the input
+        if (value == null) {
+            sb.append("-;");
+        } else {
+            String s = value.toString();
+            sb.append(s.length()).append(':').append(s).append(';');
+        }
+    }
+
     public VTimeZone toVTimeZone() {
-        net.fortuna.ical4j.model.TimeZoneRegistry registry = TimeZoneRegistryFactory.getInstance().createRegistry();
-        if (getTimezone() != null)
-            return registry.getTimeZone(getTimezone().getId()).getVTimeZone();
-        return null;
+        return TimeZones.getVTimeZone(getTimezone());
     }
 
     public TimeZone getTimezoneFortuna() {
-        net.fortuna.ical4j.model.TimeZoneRegistry registry = TimeZoneRegistryFactory.getInstance().createRegistry();
-        if (getTimezone() != null)
-            return registry.getTimeZone(getTimezone().getId());
-        return null;
+        return TimeZones.get(getTimezone());
     }
 
     public Calendar toICal() throws URISyntaxException {
@@ -217,30 +279,27 @@ public class Event {
     }
 
     public Object toClojure() {
-        return PersistentHashMap.create(
-                SUMMARY,
-                this.getSummary(),
-                START_TIME,
-                this.getStartTime(),
-                END_TIME,
-                this.getEndTime(),
-                CREATED_AT,
-                this.getCreatedAt(),
-                UID,
-                this.getUid(),
-                URL,
-                this.getUrl(),
-                DESCRIPTION,
-                this.getDescription(),
-                LOCATION,
-                this.getLocation(),
-                ORGANIZER,
-                this.getOrganizer(),
-                STATUS,
-                this.getStatus(),
-                TIMEZONE,
-                this.getTimezone()
-        );
+        return clojureMap(getSummary(), getStartTime(), getEndTime(), getCreatedAt(), getUid(), getUrl(), getDescription(), getLocation(), getOrganizer(), getTimezone(), getStatus());
+    }
+
+    /**
+     * Builds the map straight from a key/value array in a fixed key order, one allocation besides the map itself.
+     * Array maps with more than 8 entries are fine for lookups, the first assoc turns them into a hash map.
+     */
+    static IPersistentMap clojureMap(String summary, Instant startTime, Instant endTime, Instant createdAt, String uid, String url, String description, String location, String organizer, ZoneId timezone, Keyword status) {
+        return new PersistentArrayMap(new Object[]{
+                SUMMARY, summary,
+                START_TIME, startTime,
+                END_TIME, endTime,
+                CREATED_AT, createdAt,
+                UID, uid,
+                URL, url,
+                DESCRIPTION, description,
+                LOCATION, location,
+                ORGANIZER, organizer,
+                STATUS, status,
+                TIMEZONE, timezone
+        });
     }
 
     public String getSummary() {
@@ -288,47 +347,47 @@ public class Event {
     }
 
     public Event withSummary(String summary) {
-        return this.summary == summary ? this : new Event(summary, this.startTime, this.endTime, this.createdAt, this.uid, this.url, this.description, this.location, this.organizer, this.timezone, this.status);
+        return getSummary() == summary ? this : new Event(summary, getStartTime(), getEndTime(), getCreatedAt(), getUid(), getUrl(), getDescription(), getLocation(), getOrganizer(), getTimezone(), getStatus());
     }
 
     public Event withStartTime(Instant startTime) {
-        return this.startTime == startTime ? this : new Event(this.summary, startTime, this.endTime, this.createdAt, this.uid, this.url, this.description, this.location, this.organizer, this.timezone, this.status);
+        return getStartTime() == startTime ? this : new Event(getSummary(), startTime, getEndTime(), getCreatedAt(), getUid(), getUrl(), getDescription(), getLocation(), getOrganizer(), getTimezone(), getStatus());
     }
 
     public Event withEndTime(Instant endTime) {
-        return this.endTime == endTime ? this : new Event(this.summary, this.startTime, endTime, this.createdAt, this.uid, this.url, this.description, this.location, this.organizer, this.timezone, this.status);
+        return getEndTime() == endTime ? this : new Event(getSummary(), getStartTime(), endTime, getCreatedAt(), getUid(), getUrl(), getDescription(), getLocation(), getOrganizer(), getTimezone(), getStatus());
     }
 
     public Event withCreatedAt(Instant createdAt) {
-        return this.createdAt == createdAt ? this : new Event(this.summary, this.startTime, this.endTime, createdAt, this.uid, this.url, this.description, this.location, this.organizer, this.timezone, this.status);
+        return getCreatedAt() == createdAt ? this : new Event(getSummary(), getStartTime(), getEndTime(), createdAt, getUid(), getUrl(), getDescription(), getLocation(), getOrganizer(), getTimezone(), getStatus());
     }
 
     public Event withUid(String uid) {
-        return this.uid == uid ? this : new Event(this.summary, this.startTime, this.endTime, this.createdAt, uid, this.url, this.description, this.location, this.organizer, this.timezone, this.status);
+        return getUid() == uid ? this : new Event(getSummary(), getStartTime(), getEndTime(), getCreatedAt(), uid, getUrl(), getDescription(), getLocation(), getOrganizer(), getTimezone(), getStatus());
     }
 
     public Event withUrl(String url) {
-        return this.url == url ? this : new Event(this.summary, this.startTime, this.endTime, this.createdAt, this.uid, url, this.description, this.location, this.organizer, this.timezone, this.status);
+        return getUrl() == url ? this : new Event(getSummary(), getStartTime(), getEndTime(), getCreatedAt(), getUid(), url, getDescription(), getLocation(), getOrganizer(), getTimezone(), getStatus());
     }
 
     public Event withDescription(String description) {
-        return this.description == description ? this : new Event(this.summary, this.startTime, this.endTime, this.createdAt, this.uid, this.url, description, this.location, this.organizer, this.timezone, this.status);
+        return getDescription() == description ? this : new Event(getSummary(), getStartTime(), getEndTime(), getCreatedAt(), getUid(), getUrl(), description, getLocation(), getOrganizer(), getTimezone(), getStatus());
     }
 
     public Event withLocation(String location) {
-        return this.location == location ? this : new Event(this.summary, this.startTime, this.endTime, this.createdAt, this.uid, this.url, this.description, location, this.organizer, this.timezone, this.status);
+        return getLocation() == location ? this : new Event(getSummary(), getStartTime(), getEndTime(), getCreatedAt(), getUid(), getUrl(), getDescription(), location, getOrganizer(), getTimezone(), getStatus());
     }
 
     public Event withOrganizer(String organizer) {
-        return this.organizer == organizer ? this : new Event(this.summary, this.startTime, this.endTime, this.createdAt, this.uid, this.url, this.description, this.location, organizer, this.timezone, this.status);
+        return getOrganizer() == organizer ? this : new Event(getSummary(), getStartTime(), getEndTime(), getCreatedAt(), getUid(), getUrl(), getDescription(), getLocation(), organizer, getTimezone(), getStatus());
     }
 
     public Event withTimezone(ZoneId timezone) {
-        return this.timezone == timezone ? this : new Event(this.summary, this.startTime, this.endTime, this.createdAt, this.uid, this.url, this.description, this.location, this.organizer, timezone, this.status);
+        return getTimezone() == timezone ? this : new Event(getSummary(), getStartTime(), getEndTime(), getCreatedAt(), getUid(), getUrl(), getDescription(), getLocation(), getOrganizer(), timezone, getStatus());
     }
 
     public Event withStatus(Keyword status) {
-        return this.status == status ? this : new Event(this.summary, this.startTime, this.endTime, this.createdAt, this.uid, this.url, this.description, this.location, this.organizer, this.timezone, status);
+        return getStatus() == status ? this : new Event(getSummary(), getStartTime(), getEndTime(), getCreatedAt(), getUid(), getUrl(), getDescription(), getLocation(), getOrganizer(), getTimezone(), status);
     }
 
     public boolean equals(final Object o) {
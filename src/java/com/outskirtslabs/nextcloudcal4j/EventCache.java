@@ -0,0 +1,204 @@
+package com.outskirtslabs.nextcloudcal4j;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * An LRU cache of uid -> (href, etag, Event) for a single calendar collection.
+ * <p>
+ * Entries expire after a fixed time to live. When the collection ctag moves, the entries of the resources that changed
+ * since the cache's sync-token are dropped, keeping those whose only change is our own write. Without such a delta the
+ * whole cache is dropped, because then any event may have been changed by another client.
+ */
+public class EventCache {
+    private final int maxSize;
+    private final long ttlMillis;
+    private final LinkedHashMap<String, Entry> entries;
+    private String ctag;
+    private String syncToken;
+    // href -> ETag of the writes made through the connector since the last revalidation
+    private final Map<String, String> ownWrites = new HashMap<>();
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+
+    public EventCache(int maxSize, Duration ttl) {
+        this.maxSize = maxSize;
+        this.ttlMillis = ttl.toMillis();
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > EventCache.this.maxSize) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @return the cached entry, or null when absent or expired
+     */
+    public synchronized Entry get(String uid) {
+        Entry entry = entries.get(uid);
+        if (entry != null && System.currentTimeMillis() - entry.getStoredAt() > ttlMillis) {
+            entries.remove(uid);
+            evictions++;
+            entry = null;
+        }
+        if (entry == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return entry;
+    }
+
+    public synchronized void put(String uid, String href, String etag, Event event) {
+        entries.put(uid, new Entry(href, etag, event, System.currentTimeMillis()));
+    }
+
+    /**
+     * Records a write made through the connector itself. Our own writes move the ctag too, a change of href to exactly this
+     * ETag keeps the entry at the next revalidation.
+     *
+     * @param etag the ETag the server answered with, null if it did not report one, the entry is then not kept
+     */
+    public synchronized void putOwnWrite(String uid, String href, String etag, Event event) {
+        put(uid, href, etag, event);
+        if (etag != null) {
+            ownWrites.put(href, etag);
+        } else {
+            ownWrites.remove(href);
+        }
+    }
+
+    public synchronized void invalidate(String uid) {
+        Entry removed = entries.remove(uid);
+        if (removed != null) {
+            ownWrites.remove(removed.getHref());
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        entries.clear();
+        ownWrites.clear();
+        invalidations++;
+    }
+
+    /**
+     * The sync-token of the collection as of the last revalidation, what a delta for {@link #revalidate} starts from
+     */
+    public synchronized String getSyncToken() {
+        return syncToken;
+    }
+
+    /**
+     * Whether the ctag moved since the last revalidation, the first one never counts as moved
+     */
+    public synchronized boolean isStale(CollectionState current) {
+        return this.ctag != null && !Objects.equals(this.ctag, current.getCtag());
+    }
+
+    /**
+     * Adopts current as the state the entries belong to. If the ctag moved, the entries of the resources changed or deleted
+     * in delta are dropped, unless the change is our own write. Without a delta, or when it is a full resync, every entry is
+     * dropped.
+     *
+     * @param delta the changes since {@link #getSyncToken()}, null if not known
+     * @return true if the whole cache was invalidated
+     */
+    public synchronized boolean revalidate(CollectionState current, SyncResult delta) {
+        boolean invalidate = false;
+        if (isStale(current)) {
+            if (delta == null || delta.isFullResync() || syncToken == null) {
+                invalidateAll();
+                invalidate = true;
+            } else {
+                Set<String> changed = new HashSet<>(delta.getDeleted());
+                for (Map.Entry<String, String> change : delta.getChanged().entrySet()) {
+                    if (!change.getValue().equals(ownWrites.get(change.getKey()))) {
+                        changed.add(change.getKey());
+                    }
+                }
+                entries.values().removeIf(entry -> changed.contains(entry.getHref()));
+            }
+        }
+        this.ctag = current.getCtag();
+        this.syncToken = current.getSyncToken();
+        ownWrites.clear();
+        return invalidate;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Number of times the whole cache was dropped because the ctag moved and no delta was known
+     */
+    public synchronized long getInvalidations() {
+        return invalidations;
+    }
+
+    public synchronized double getHitRate() {
+        long total = hits + misses;
+        return total == 0 ? 0.0 : (double) hits / total;
+    }
+
+    public synchronized String toString() {
+        return "EventCache(size=" + entries.size() + ", hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + ", invalidations=" + invalidations + ")";
+    }
+
+    public static class Entry {
+        private final String href;
+        private final String etag;
+        private final Event event;
+        private final long storedAt;
+
+        public Entry(String href, String etag, Event event, long storedAt) {
+            this.href = href;
+            this.etag = etag;
+            this.event = event;
+            this.storedAt = storedAt;
+        }
+
+        public String getHref() {
+            return this.href;
+        }
+
+        /**
+         * May be null when the event was written with a request that does not report the new ETag
+         */
+        public String getEtag() {
+            return this.etag;
+        }
+
+        public Event getEvent() {
+            return this.event;
+        }
+
+        public long getStoredAt() {
+            return this.storedAt;
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package com.outskirtslabs.nextcloudcal4j;
+
+import clojure.lang.Keyword;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The events of a calendar held in memory for time queries: an interval tree on start and end time, plus maps by UID and
+ * by status. Range, overlap and next-n queries take O(log n + k) for k results, without a request to the server.
+ * <p>
+ * The connector fills it from the snapshot, restored or synced, and keeps it up to date with its own writes and with the
+ * Events it parses anyway, e.g., in forEachEvent. Listings of event maps leave it alone, converting every map back would
+ * cost more than the listing. Changes made by other clients only show up after the next sync.
+ * <p>
+ * An event without an end time is taken to end when it starts. Events without a start time can be looked up by UID and
+ * status, but never match a time query.
+ * <p>
+ * The index is only known to hold every event once a snapshot sync went through, see {@link #isComplete()}.
+ */
+public class EventIndex {
+    private static final Comparator<Event> BY_START = Comparator.comparing(Event::getStartTime, Comparator.nullsFirst(Comparator.naturalOrder()))
+            .thenComparing(Event::getUid);
+
+    private final Map<String, Event> byUid = new HashMap<>();
+    private final Map<Keyword, Map<String, Event>> byStatus = new HashMap<>();
+    private Node root;
+    private boolean complete;
+    private long version;
+
+    /**
+     * Adds the event, or replaces the one with the same UID. Events without a UID are ignored.
+     */
+    public synchronized void put(Event event) {
+        if (event.getUid() == null) {
+            return;
+        }
+        remove(event.getUid());
+        version++;
+        byUid.put(event.getUid(), event);
+        byStatus.computeIfAbsent(event.getStatus(), status -> new LinkedHashMap<>()).put(event.getUid(), event);
+        if (event.getStartTime() != null) {
+            root = insert(root, new Node(event));
+        }
+    }
+
+    /**
+     * @return false if there was no event with this UID
+     */
+    public synchronized boolean remove(String uid) {
+        Event event = byUid.remove(uid);
+        if (event == null) {
+            return false;
+        }
+        version++;
+        Map<String, Event> sameStatus = byStatus.get(event.getStatus());
+        sameStatus.remove(uid);
+        if (sameStatus.isEmpty()) {
+            byStatus.remove(event.getStatus());
+        }
+        if (event.getStartTime() != null) {
+            root = delete(root, event.getStartTime(), uid);
+        }
+        return true;
+    }
+
+    public synchronized void clear() {
+        byUid.clear();
+        byStatus.clear();
+        root = null;
+        complete = false;
+        version++;
+    }
+
+    /**
+     * A counter that changes whenever events are put, removed or cleared, so anything derived from the events, e.g., a
+     * feed's ETag, can be kept until it does. Read it while holding the index's lock to match it to a query's result.
+     */
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * Whether the index holds every event of the calendar, as of the last snapshot sync plus this connector's writes since.
+     * False until the first {@link NextcloudConnector#syncSnapshot()}, however many events listings put in.
+     */
+    public synchronized boolean isComplete() {
+        return complete;
+    }
+
+    synchronized void markComplete() {
+        complete = true;
+    }
+
+    /**
+     * @return the event, or null if none with this UID is indexed
+     */
+    public synchronized Event get(String uid) {
+        return byUid.get(uid);
+    }
+
+    public synchronized int size() {
+        return byUid.size();
+    }
+
+    /**
+     * The events overlapping [from, to), ordered by start time, with the same semantics as a CalDAV time-range filter:
+     * an event overlaps when it starts before to and ends after from, and an event without duration when it starts in the
+     * window. With from equal to to, the events in progress at that instant.
+     *
+     * @param from start of the window, or null for no lower bound
+     * @param to   end of the window, exclusive, or null for no upper bound
+     */
+    public synchronized List<Event> between(Instant from, Instant to) {
+        List<Event> result = new ArrayList<>();
+        collectOverlapping(root, from != null ? from : Instant.MIN, to != null ? to : Instant.MAX, result);
+        return result;
+    }
+
+    /**
+     * The events that clash with event: those overlapping its time other than event itself (same UID), leaving out
+     * cancelled ones. Ordered by start time.
+     */
+    public synchronized List<Event> conflicts(Event event) {
+        if (event.getStartTime() == null) {
+            return Collections.emptyList();
+        }
+        List<Event> result = new ArrayList<>();
+        for (Event other : between(event.getStartTime(), end(event))) {
+            if (!other.getUid().equals(event.getUid()) && !Event.CANCELLED.equals(other.getStatus())) {
+                result.add(other);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The first n events starting at or after from, ordered by start time
+     */
+    public synchronized List<Event> next(Instant from, int n) {
+        List<Event> result = new ArrayList<>(Math.min(n, 64));
+        collectFrom(root, from, n, result);
+        return result;
+    }
+
+    /**
+     * The events with this status, e.g., {@link Event#CONFIRMED}, ordered by start time
+     */
+    public synchronized List<Event> withStatus(Keyword status) {
+        List<Event> result = new ArrayList<>(byStatus.getOrDefault(status, Collections.emptyMap()).values());
+        result.sort(BY_START);
+        return result;
+    }
+
+    public synchronized String toString() {
+        return "EventIndex(size=" + byUid.size() + ", complete=" + complete + ")";
+    }
+
+    private static Instant end(Event event) {
+        return event.getEndTime() != null && event.getEndTime().isAfter(event.getStartTime()) ? event.getEndTime() : event.getStartTime();
+    }
+
+    private static boolean overlaps(Node node, Instant from, Instant to) {
+        if (node.start.equals(node.end) || from.equals(to)) {
+            // without duration on either side, starting within the other counts as overlapping
+            return node.start.equals(node.end)
+                    ? !node.start.isBefore(from) && (node.start.isBefore(to) || node.start.equals(to) && from.equals(to))
+                    : node.start.compareTo(from) <= 0 && node.end.isAfter(from);
+        }
+        return node.start.isBefore(to) && node.end.isAfter(from);
+    }
+
+    private static void collectOverlapping(Node node, Instant from, Instant to, List<Event> result) {
+        // nothing below ends late enough
+        if (node == null || node.maxEnd.isBefore(from)) {
+            return;
+        }
+        collectOverlapping(node.left, from, to, result);
+        // everything to the right starts later still
+        if (node.start.isAfter(to)) {
+            return;
+        }
+        if (overlaps(node, from, to)) {
+            result.add(node.event);
+        }
+        collectOverlapping(node.right, from, to, result);
+    }
+
+    private static void collectFrom(Node node, Instant from, int n, List<Event> result) {
+        if (node == null || result.size() >= n) {
+            return;
+        }
+        if (!node.start.isBefore(from)) {
+            collectFrom(node.left, from, n, result);
+            if (result.size() < n) {
+                result.add(node.event);
+            }
+        }
+        collectFrom(node.right, from, n, result);
+    }
+
+    // AVL tree ordered by (start, uid), each node knowing the latest end below it
+
+    private static int compare(Instant start, String uid, Node node) {
+        int c = start.compareTo(node.start);
+        return c != 0 ? c : uid.compareTo(node.uid);
+    }
+
+    private static Node insert(Node node, Node added) {
+        if (node == null) {
+            return added;
+        }
+        if (compare(added.start, added.uid, node) < 0) {
+            node.left = insert(node.left, added);
+        } else {
+            node.right = insert(node.right, added);
+        }
+        return balance(node);
+    }
+
+    private static Node delete(Node node, Instant start, String uid) {
+        if (node == null) {
+            return null;
+        }
+        int c = compare(start, uid, node);
+        if (c < 0) {
+            node.left = delete(node.left, start, uid);
+        } else if (c > 0) {
+            node.right = delete(node.right, start, uid);
+        } else {
+            if (node.left == null) {
+                return node.right;
+            }
+            if (node.right == null) {
+                return node.left;
+            }
+            Node successor = node.right;
+            while (successor.left != null) {
+                successor = successor.left;
+            }
+            successor.right = delete(node.right, successor.start, successor.uid);
+            successor.left = node.left;
+            node = successor;
+        }
+        return balance(node);
+    }
+
+    private static int height(Node node) {
+        return node == null ? 0 : node.height;
+    }
+
+    private static void update(Node node) {
+        node.height = 1 + Math.max(height(node.left), height(node.right));
+        Instant maxEnd = node.end;
+        if (node.left != null && node.left.maxEnd.isAfter(maxEnd)) {
+            maxEnd = node.left.maxEnd;
+        }
+        if (node.right != null && node.right.maxEnd.isAfter(maxEnd)) {
+            maxEnd = node.right.maxEnd;
+        }
+        node.maxEnd = maxEnd;
+    }
+
+    private static Node balance(Node node) {
+        update(node);
+        int skew = height(node.left) - height(node.right);
+        if (skew > 1) {
+            if (height(node.left.left) < height(node.left.right)) {
+                node.left = rotateLeft(node.left);
+            }
+            return rotateRight(node);
+        }
+        if (skew < -1) {
+            if (height(node.right.right) < height(node.right.left)) {
+                node.right = rotateRight(node.right);
+            }
+            return rotateLeft(node);
+        }
+        return node;
+    }
+
+    private static Node rotateRight(Node node) {
+        Node left = node.left;
+        node.left = left.right;
+        left.right = node;
+        update(node);
+        update(left);
+        return left;
+    }
+
+    private static Node rotateLeft(Node node) {
+        Node right = node.right;
+        node.right = right.left;
+        right.left = node;
+        update(node);
+        update(right);
+        return right;
+    }
+
+    private static class Node {
+        private final Event event;
+        private final String uid;
+        private final Instant start;
+        private final Instant end;
+        private Instant maxEnd;
+        private int height = 1;
+        private Node left;
+        private Node right;
+
+        private Node(Event event) {
+            this.event = event;
+            this.uid = event.getUid();
+            this.start = event.getStartTime();
+            this.end = end(event);
+            this.maxEnd = end;
+        }
+    }
+}
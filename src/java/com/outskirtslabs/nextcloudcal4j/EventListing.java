@@ -0,0 +1,32 @@
+package com.outskirtslabs.nextcloudcal4j;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The events of a listing, in the order the server returned them, and the resources that could not be parsed
+ */
+public class EventListing {
+    private final List<Object> events;
+    private final List<ParseFailure> failures;
+
+    public EventListing(List<Object> events, List<ParseFailure> failures) {
+        this.events = Collections.unmodifiableList(events);
+        this.failures = Collections.unmodifiableList(failures);
+    }
+
+    /**
+     * The Clojure maps of the events, see {@link Event#toClojure()}
+     */
+    public List<Object> getEvents() {
+        return this.events;
+    }
+
+    public List<ParseFailure> getFailures() {
+        return this.failures;
+    }
+
+    public String toString() {
+        return "EventListing(events=" + this.events.size() + ", failures=" + this.failures + ")";
+    }
+}
@@ -0,0 +1,527 @@
+package com.outskirtslabs.nextcloudcal4j;
+
+import clojure.lang.IPersistentMap;
+import clojure.lang.Keyword;
+import com.github.caldav4j.model.request.CalendarData;
+import com.github.caldav4j.model.request.Comp;
+import net.fortuna.ical4j.data.CalendarBuilder;
+import net.fortuna.ical4j.data.ParserException;
+import net.fortuna.ical4j.model.Calendar;
+import net.fortuna.ical4j.model.Component;
+import net.fortuna.ical4j.model.DateTime;
+import net.fortuna.ical4j.model.Property;
+import net.fortuna.ical4j.model.TimeZone;
+import net.fortuna.ical4j.model.component.VTimeZone;
+import org.apache.jackrabbit.webdav.xml.XmlSerializable;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.text.ParseException;
+import java.time.DateTimeException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The subset of iCalendar that {@link Event} is made of, and a parser for just that subset.
+ * <p>
+ * {@link #calendarData()} asks the server to return only these properties (RFC 4791 section 9.6), leaving out alarms,
+ * timezone rules and X- properties. {@link #parse(String)} then reads the first VEVENT line by line, skipping everything
+ * it has no use for, instead of building a full ical4j object model. Servers that ignore the restriction still work,
+ * the parser just has more lines to skip.
+ * <p>
+ * A TZID java does not know is read with the calendar's own VTIMEZONE, as ical4j does, when the server sent its rules,
+ * and as UTC otherwise. The projection leaves the rules out, such times come back in UTC there.
+ */
+public final class EventProjection {
+    static final String[] EVENT_PROPERTIES = {
+            Property.SUMMARY, Property.DTSTART, Property.DTEND, Property.DURATION, Property.DTSTAMP, Property.UID,
+            Property.URL, Property.DESCRIPTION, Property.LOCATION, Property.ORGANIZER, Property.STATUS,
+            Event.CONTENT_HASH_PROPERTY, Property.LAST_MODIFIED, Property.SEQUENCE};
+
+    private static final DateTimeFormatter DATE_TIME = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss");
+    private static final DateTimeFormatter DATE = DateTimeFormatter.BASIC_ISO_DATE;
+
+    private EventProjection() {
+    }
+
+    /**
+     * <pre>
+     * &lt;C:calendar-data&gt;
+     *   &lt;C:comp name="VCALENDAR"&gt;
+     *     &lt;C:prop name="VERSION"/&gt;
+     *     &lt;C:comp name="VEVENT"&gt;&lt;C:prop name="SUMMARY"/&gt;...&lt;/C:comp&gt;
+     *     &lt;C:comp name="VTIMEZONE"&gt;&lt;C:prop name="TZID"/&gt;&lt;/C:comp&gt;
+     *   &lt;/C:comp&gt;
+     * &lt;/C:calendar-data&gt;
+     * </pre>
+     */
+    public static CalendarData calendarData() {
+        Comp vevent = new PropsFirstComp(Component.VEVENT);
+        for (String property : EVENT_PROPERTIES) {
+            vevent.addProp(property);
+        }
+        Comp vtimezone = new PropsFirstComp(Component.VTIMEZONE);
+        vtimezone.addProp(Property.TZID);
+        Comp vcalendar = new PropsFirstComp(Calendar.VCALENDAR);
+        vcalendar.addProp(Property.VERSION);
+        vcalendar.addComp(vevent);
+        vcalendar.addComp(vtimezone);
+        CalendarData calendarData = new CalendarData();
+        calendarData.setComp(vcalendar);
+        return calendarData;
+    }
+
+    /**
+     * Reads the first VEVENT of an iCalendar object into the same map {@link Event#icalToClojure(Calendar)} returns
+     */
+    public static IPersistentMap parse(String ics) {
+        return new Parser().parse(ics).toClojure();
+    }
+
+    public static Event parseEvent(String ics) {
+        return new Parser().parse(ics).toEvent();
+    }
+
+    /**
+     * Reads only as far as the UID of the first VEVENT
+     */
+    public static String parseUid(String ics) {
+        return new Parser(Property.UID).parse(ics).uid;
+    }
+
+    /**
+     * The {@link Event#CONTENT_HASH_PROPERTY} of the first VEVENT, null when absent
+     */
+    public static String parseStoredContentHash(String ics) {
+        return new Parser(Event.CONTENT_HASH_PROPERTY).parse(ics).contentHash;
+    }
+
+    /**
+     * The UID of the first VEVENT and the content hash we stored when writing it, in one pass without parsing anything else.
+     * The hash is null when absent, and when the event has a LAST-MODIFIED or SEQUENCE: we never write those, so another
+     * client edited the event and the stored hash may no longer describe it.
+     */
+    static Stored parseStored(String ics) {
+        Parser parser = new Parser().parse(ics);
+        return new Stored(parser.uid, parser.editedElsewhere ? null : parser.contentHash);
+    }
+
+    /**
+     * Reads only as far as the DTSTART of the first VEVENT
+     */
+    public static Instant parseStartTime(String ics) {
+        Parser parser = new Parser(Property.DTSTART).parse(ics);
+        return parser.instant(parser.dtstart, parser.dtstartTzid);
+    }
+
+    static final class Stored {
+        final String uid;
+        final String contentHash;
+
+        private Stored(String uid, String contentHash) {
+            this.uid = uid;
+            this.contentHash = contentHash;
+        }
+    }
+
+    /**
+     * caldav4j writes sub-comps before props, RFC 4791 wants them the other way around: (prop*, comp*)
+     */
+    private static final class PropsFirstComp extends Comp {
+        PropsFirstComp(String name) {
+            super(name);
+        }
+
+        @Override
+        protected Collection<XmlSerializable> getChildren() {
+            List<XmlSerializable> children = new ArrayList<>();
+            if (getProps() != null) {
+                children.addAll(getProps());
+            }
+            if (getComps() != null) {
+                children.addAll(getComps());
+            }
+            return children;
+        }
+    }
+
+    private static final class Parser {
+        private String summary;
+        private String dtstart;
+        private String dtstartTzid;
+        private String dtend;
+        private String dtendTzid;
+        private String duration;
+        private String dtstamp;
+        private String uid;
+        private String url;
+        private String description;
+        private String location;
+        private String organizer;
+        private String status;
+        private String timezone;
+        private String contentHash;
+        private boolean editedElsewhere;
+
+        // 0 outside any component of interest, 1 inside the first VEVENT / VTIMEZONE, >1 inside one of its sub-components
+        private int eventDepth;
+        private int timezoneDepth;
+        private boolean eventSeen;
+        // the VTIMEZONEs whose TZID java does not know, kept as text for ical4j, in case an event time refers to them
+        private Map<String, String> customTimezones;
+        private String ics;
+        private int lineStart;
+        private int lineEnd;
+        private int timezoneStart;
+        private String timezoneId;
+        // stop reading once this property of the VEVENT was seen, null to read everything
+        private final String stopAfter;
+        private boolean done;
+
+        Parser() {
+            this(null);
+        }
+
+        Parser(String stopAfter) {
+            this.stopAfter = stopAfter;
+        }
+
+        Parser parse(String ics) {
+            this.ics = ics;
+            int length = ics.length();
+            int pos = 0;
+            StringBuilder folded = null;
+            String line = null;
+            int start = 0;
+            while (pos < length && !done) {
+                int end = ics.indexOf('\n', pos);
+                if (end < 0) {
+                    end = length;
+                }
+                int lineEnd = end > pos && ics.charAt(end - 1) == '\r' ? end - 1 : end;
+                char first = pos < lineEnd ? ics.charAt(pos) : '\0';
+                if ((first == ' ' || first == '\t') && line != null) {
+                    // RFC 5545 3.1 unfolding, only pay for a builder when a line is actually folded
+                    if (folded == null) {
+                        folded = new StringBuilder(line);
+                    }
+                    folded.append(ics, pos + 1, lineEnd);
+                } else {
+                    if (line != null) {
+                        contentLine(folded != null ? folded.toString() : line, start, pos);
+                    }
+                    folded = null;
+                    line = ics.substring(pos, lineEnd);
+                    start = pos;
+                }
+                pos = end + 1;
+            }
+            if (line != null && !done) {
+                contentLine(folded != null ? folded.toString() : line, start, length);
+            }
+            return this;
+        }
+
+        private void contentLine(String line, int start, int end) {
+            lineStart = start;
+            lineEnd = end;
+            int nameEnd = 0;
+            int length = line.length();
+            while (nameEnd < length && line.charAt(nameEnd) != ':' && line.charAt(nameEnd) != ';') {
+                nameEnd++;
+            }
+            int valueStart = valueStart(line, nameEnd);
+            if (valueStart < 0) {
+                return;
+            }
+            String name = line.substring(0, nameEnd).toUpperCase(Locale.ROOT);
+            String value = line.substring(valueStart);
+            if (name.equals("BEGIN")) {
+                begin(value);
+            } else if (name.equals("END")) {
+                end();
+            } else if (eventDepth == 1) {
+                eventProperty(name, line.substring(nameEnd, valueStart - 1), value);
+                done = name.equals(stopAfter);
+            } else if (timezoneDepth == 1 && name.equals(Property.TZID)) {
+                if (timezone == null) {
+                    timezone = value;
+                }
+                timezoneId = value;
+            }
+        }
+
+        private void begin(String component) {
+            if (eventDepth > 0) {
+                eventDepth++;
+            } else if (timezoneDepth > 0) {
+                timezoneDepth++;
+            } else if (component.equalsIgnoreCase(Component.VEVENT) && !eventSeen) {
+                eventDepth = 1;
+                eventSeen = true;
+            } else if (component.equalsIgnoreCase(Component.VTIMEZONE)) {
+                timezoneDepth = 1;
+                timezoneStart = lineStart;
+                timezoneId = null;
+            }
+        }
+
+        private void end() {
+            if (eventDepth > 0) {
+                eventDepth--;
+            } else if (timezoneDepth > 0) {
+                timezoneDepth--;
+                if (timezoneDepth == 0 && timezoneId != null && zoneId(timezoneId) == null) {
+                    if (customTimezones == null) {
+                        customTimezones = new HashMap<>();
+                    }
+                    customTimezones.put(timezoneId, ics.substring(timezoneStart, lineEnd));
+                }
+            }
+        }
+
+        private void eventProperty(String name, String params, String value) {
+            switch (name) {
+                case Property.SUMMARY:
+                    summary = unescape(value);
+                    break;
+                case Property.DTSTART:
+                    dtstart = value;
+                    dtstartTzid = param(params, Property.TZID);
+                    break;
+                case Property.DTEND:
+                    dtend = value;
+                    dtendTzid = param(params, Property.TZID);
+                    break;
+                case Property.DURATION:
+                    duration = value;
+                    break;
+                case Property.DTSTAMP:
+                    dtstamp = value;
+                    break;
+                case Property.UID:
+                    uid = unescape(value);
+                    break;
+                case Property.URL:
+                    url = value;
+                    break;
+                case Property.DESCRIPTION:
+                    description = unescape(value);
+                    break;
+                case Property.LOCATION:
+                    location = unescape(value);
+                    break;
+                case Property.ORGANIZER:
+                    organizer = value;
+                    break;
+                case Property.STATUS:
+                    status = value;
+                    break;
+                case Event.CONTENT_HASH_PROPERTY:
+                    contentHash = value;
+                    break;
+                case Property.LAST_MODIFIED:
+                case Property.SEQUENCE:
+                    editedElsewhere = true;
+                    break;
+                default:
+            }
+        }
+
+        Instant instant(String value, String tzid) {
+            return EventProjection.instant(value, tzid, this);
+        }
+
+        /**
+         * The calendar's VTIMEZONE with this TZID as ical4j reads it, null if there is none or it has no rules
+         */
+        private TimeZone customTimezone(String tzid) {
+            String vtimezone = customTimezones != null ? customTimezones.get(tzid) : null;
+            if (vtimezone == null) {
+                return null;
+            }
+            try {
+                Calendar calendar = new CalendarBuilder().build(new StringReader("BEGIN:VCALENDAR\r\n" + vtimezone + "END:VCALENDAR\r\n"));
+                VTimeZone vTimeZone = (VTimeZone) calendar.getComponent(Component.VTIMEZONE);
+                return vTimeZone != null && !vTimeZone.getObservances().isEmpty() ? new TimeZone(vTimeZone) : null;
+            } catch (IOException | ParserException | RuntimeException e) {
+                return null;
+            }
+        }
+
+        IPersistentMap toClojure() {
+            Instant start = instant(dtstart, dtstartTzid);
+            return Event.clojureMap(summary, start, endInstant(start), instant(dtstamp, null), uid, url, description,
+                    location, organizer, zoneId(timezone), statusKeyword());
+        }
+
+        Event toEvent() {
+            Instant start = instant(dtstart, dtstartTzid);
+            return new Event(summary, start, endInstant(start), instant(dtstamp, null), uid, url, description,
+                    location, organizer, zoneId(timezone), statusKeyword());
+        }
+
+        /**
+         * Same rules as ical4j's VEvent.getEndDate(): DTEND, else DTSTART + DURATION, else one day for all-day events
+         */
+        private Instant endInstant(Instant start) {
+            if (dtend != null) {
+                return instant(dtend, dtendTzid);
+            }
+            if (start == null) {
+                return null;
+            }
+            if (duration != null) {
+                Duration parsed = duration(duration);
+                return parsed != null ? start.plus(parsed) : null;
+            }
+            return dtstart.indexOf('T') < 0 ? start.plus(Duration.ofDays(1)) : start;
+        }
+
+        private Keyword statusKeyword() {
+            if (status == null) {
+                return Event.UNKNOWN;
+            }
+            switch (status.toUpperCase(Locale.ROOT)) {
+                case "CONFIRMED":
+                    return Event.CONFIRMED;
+                case "CANCELLED":
+                    return Event.CANCELLED;
+                case "TENTATIVE":
+                    return Event.TENTATIVE;
+                default:
+                    return Event.UNKNOWN;
+            }
+        }
+    }
+
+    /**
+     * @return the index after the ':' separating parameters from the value, skipping quoted parameter values
+     */
+    static int valueStart(String line, int from) {
+        boolean quoted = false;
+        for (int i = from; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (c == ':' && !quoted) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    static String param(String params, String name) {
+        // ;TZID=Europe/Vienna;VALUE=DATE-TIME
+        int i = 0;
+        while ((i = params.indexOf(';', i)) >= 0) {
+            int eq = params.indexOf('=', i);
+            if (eq < 0) {
+                return null;
+            }
+            int end = params.indexOf(';', eq);
+            if (end < 0) {
+                end = params.length();
+            }
+            if (params.regionMatches(true, i + 1, name, 0, name.length()) && eq == i + 1 + name.length()) {
+                String value = params.substring(eq + 1, end);
+                return value.length() > 1 && value.startsWith("\"") && value.endsWith("\"") ? value.substring(1, value.length() - 1) : value;
+            }
+            i = end;
+        }
+        return null;
+    }
+
+    static Instant instant(String value, String tzid) {
+        return instant(value, tzid, null);
+    }
+
+    private static Instant instant(String value, String tzid, Parser calendar) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            if (value.indexOf('T') < 0) {
+                // all-day dates are taken as UTC midnight, like ical4j's Date
+                return LocalDate.parse(value, DATE).atStartOfDay(ZoneOffset.UTC).toInstant();
+            }
+            if (value.endsWith("Z")) {
+                return LocalDateTime.parse(value.substring(0, value.length() - 1), DATE_TIME).toInstant(ZoneOffset.UTC);
+            }
+            LocalDateTime local = LocalDateTime.parse(value, DATE_TIME);
+            if (tzid == null) {
+                // floating times are local to this JVM as in ical4j
+                return local.atZone(ZoneId.systemDefault()).toInstant();
+            }
+            ZoneId zone = zoneId(tzid);
+            if (zone != null) {
+                return local.atZone(zone).toInstant();
+            }
+            TimeZone custom = calendar != null ? calendar.customTimezone(tzid) : null;
+            return custom != null ? new DateTime(value, custom).toInstant() : local.toInstant(ZoneOffset.UTC);
+        } catch (DateTimeParseException | ParseException e) {
+            return null;
+        }
+    }
+
+    private static ZoneId zoneId(String tzid) {
+        if (tzid == null) {
+            return null;
+        }
+        try {
+            return ZoneId.of(tzid);
+        } catch (DateTimeException e) {
+            return null;
+        }
+    }
+
+    static Duration duration(String value) {
+        // java.time.Duration does not know weeks, P2W
+        int weeks = value.indexOf('W');
+        try {
+            if (weeks > 0) {
+                boolean negative = value.startsWith("-");
+                long count = Long.parseLong(value.substring(negative ? 2 : 1, weeks).replace("P", ""));
+                return Duration.ofDays(7 * count * (negative ? -1 : 1));
+            }
+            return Duration.parse(value.startsWith("+") ? value.substring(1) : value);
+        } catch (NumberFormatException | DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    private static String unescape(String value) {
+        if (value.indexOf('\\') < 0) {
+            return value;
+        }
+        StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                char next = value.charAt(++i);
+                if (next == 'n' || next == 'N') {
+                    sb.append('\n');
+                } else if (next == ',' || next == ';' || next == '\\') {
+                    sb.append(next);
+                } else {
+                    sb.append(c).append(next);
+                }
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
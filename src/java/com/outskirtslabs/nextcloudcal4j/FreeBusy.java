@@ -0,0 +1,157 @@
+package com.outskirtslabs.nextcloudcal4j;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+
+/**
+ * The busy time of a calendar within a window, as answered by a free-busy-query REPORT (RFC 4791 section 7.10), see
+ * {@link NextcloudConnector#getFreeBusy(Instant, Instant)}.
+ * <p>
+ * Busy periods are sorted, merged where they overlap or touch, and clipped to the window. Period i is
+ * [starts[i], ends[i]) in epoch milliseconds. Periods the server marks FBTYPE=FREE are left out, tentative and unavailable
+ * time counts as busy.
+ */
+public class FreeBusy {
+    private final Instant from;
+    private final Instant to;
+    private final long[] starts;
+    private final long[] ends;
+
+    public FreeBusy(Instant from, Instant to, long[] starts, long[] ends) {
+        this.from = from;
+        this.to = to;
+        this.starts = starts;
+        this.ends = ends;
+    }
+
+    public Instant getFrom() {
+        return this.from;
+    }
+
+    public Instant getTo() {
+        return this.to;
+    }
+
+    /**
+     * Start of each busy period in epoch milliseconds, ascending. Not a copy, do not modify.
+     */
+    public long[] getStarts() {
+        return this.starts;
+    }
+
+    /**
+     * End of each busy period in epoch milliseconds, exclusive. Not a copy, do not modify.
+     */
+    public long[] getEnds() {
+        return this.ends;
+    }
+
+    public int size() {
+        return starts.length;
+    }
+
+    /**
+     * Whether any busy period overlaps [start, end), found by binary search
+     */
+    public boolean isBusy(Instant start, Instant end) {
+        long startMillis = start.toEpochMilli();
+        long endMillis = end.toEpochMilli();
+        // the first period ending after start, the only one that can overlap
+        int lo = 0;
+        int hi = ends.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (ends[mid] <= startMillis) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo < starts.length && (starts[lo] < endMillis || startMillis == endMillis && starts[lo] <= startMillis);
+    }
+
+    /**
+     * Reads the FREEBUSY properties of the VFREEBUSY in ics, e.g.,
+     * <pre>FREEBUSY;FBTYPE=BUSY-TENTATIVE:20300101T180000Z/20300101T200000Z,20300102T090000Z/PT1H</pre>
+     */
+    static FreeBusy parse(String ics, Instant from, Instant to) {
+        long fromMillis = from.toEpochMilli();
+        long toMillis = to.toEpochMilli();
+        long[] periods = new long[16];
+        int size = 0;
+        for (String line : unfold(ics)) {
+            if (!line.regionMatches(true, 0, "FREEBUSY", 0, 8) || line.length() < 9 || (line.charAt(8) != ':' && line.charAt(8) != ';')) {
+                continue;
+            }
+            int valueStart = EventProjection.valueStart(line, 8);
+            if (valueStart < 0) {
+                continue;
+            }
+            String type = EventProjection.param(line.substring(8, valueStart - 1), "FBTYPE");
+            if ("FREE".equalsIgnoreCase(type)) {
+                continue;
+            }
+            for (String period : line.substring(valueStart).split(",")) {
+                int slash = period.indexOf('/');
+                Instant start = slash > 0 ? EventProjection.instant(period.substring(0, slash).trim(), null) : null;
+                if (start == null) {
+                    continue;
+                }
+                String rest = period.substring(slash + 1).trim();
+                Instant end;
+                if (rest.startsWith("P") || rest.startsWith("+P")) {
+                    Duration duration = EventProjection.duration(rest);
+                    end = duration != null ? start.plus(duration) : null;
+                } else {
+                    end = EventProjection.instant(rest, null);
+                }
+                if (end == null) {
+                    continue;
+                }
+                long s = Math.max(start.toEpochMilli(), fromMillis);
+                long e = Math.min(end.toEpochMilli(), toMillis);
+                if (s < e) {
+                    if (size + 2 > periods.length) {
+                        periods = Arrays.copyOf(periods, periods.length * 2);
+                    }
+                    periods[size++] = s;
+                    periods[size++] = e;
+                }
+            }
+        }
+        return merge(from, to, periods, size / 2);
+    }
+
+    private static FreeBusy merge(Instant from, Instant to, long[] periods, int count) {
+        long[] starts = new long[count];
+        long[] ends = new long[count];
+        for (int i = 0; i < count; i++) {
+            starts[i] = periods[2 * i];
+            ends[i] = periods[2 * i + 1];
+        }
+        // for the union of the periods, starts and ends can be sorted on their own
+        Arrays.sort(starts);
+        Arrays.sort(ends);
+        int merged = 0;
+        for (int i = 0; i < count; i++) {
+            long start = starts[i];
+            while (i + 1 < count && starts[i + 1] <= ends[i]) {
+                i++;
+            }
+            starts[merged] = start;
+            ends[merged] = ends[i];
+            merged++;
+        }
+        return new FreeBusy(from, to, Arrays.copyOf(starts, merged), Arrays.copyOf(ends, merged));
+    }
+
+    private static String[] unfold(String ics) {
+        // RFC 5545 3.1, long FREEBUSY lines are folded
+        return ics.replace("\r\n", "\n").replace("\n ", "").replace("\n\t", "").split("\n");
+    }
+
+    public String toString() {
+        return "FreeBusy(from=" + this.from + ", to=" + this.to + ", periods=" + starts.length + ")";
+    }
+}
@@ -0,0 +1,361 @@
+package com.outskirtslabs.nextcloudcal4j;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpVersion;
+import org.apache.http.ProtocolVersion;
+import org.apache.http.auth.AuthScheme;
+import org.apache.http.auth.AuthState;
+import org.apache.http.auth.ContextAwareAuthScheme;
+import org.apache.http.auth.Credentials;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.CredentialsProvider;
+import org.apache.http.client.entity.DeflateDecompressingEntity;
+import org.apache.http.client.entity.GzipDecompressingEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpExecutionAware;
+import org.apache.http.client.methods.HttpRequestWrapper;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.ClientConnectionRequest;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ManagedClientConnection;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.impl.EnglishReasonPhraseCatalog;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.conn.SchemeRegistryFactory;
+import org.apache.http.impl.execchain.ClientExecChain;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.message.BasicStatusLine;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpCoreContext;
+import org.apache.http.util.EntityUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.http.HttpClient;
+import java.net.http.HttpConnectTimeoutException;
+import java.net.http.HttpRequest.BodyPublisher;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.net.http.HttpTimeoutException;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The {@link Transport#HTTP_2} transport: an Apache {@link CloseableHttpClient} that sends its requests with the JDK's
+ * HTTP client, so caldav4j's methods and the rest of the connector work with it unchanged.
+ * <p>
+ * Requests go out with the JDK client's async API, so no thread of the JDK client waits on a response. The caller waits on
+ * the response future, as Apache's API returns the response itself. All callers share one connection: the writer,
+ * reconcile and multi-calendar pools multiplex their requests over a single TLS session instead of opening one each. Requests go
+ * through the same {@link ResilientExec} and {@link MetricsExec} as with Apache's own transport. Basic auth is sent
+ * preemptively by the {@link PreemptiveAuthInterceptor}, and gzip or deflate responses are decompressed here.
+ */
+public class Http2Client extends CloseableHttpClient {
+    // set by the JDK client itself, or not allowed in HTTP/2
+    private static final Set<String> SKIPPED_HEADERS = Set.of("connection", "content-length", "expect", "host", "keep-alive",
+            "proxy-connection", "te", "transfer-encoding", "upgrade");
+    private static final ProtocolVersion HTTP_2 = new ProtocolVersion("HTTP", 2, 0);
+
+    private final ExecutorService executor;
+    private final CredentialsProvider credentialsProvider;
+    private final ClientExecChain chain;
+    private final boolean compression;
+
+    public Http2Client(CredentialsProvider credentialsProvider, ConnectorOptions options, CircuitBreaker circuitBreaker, AtomicLong retries) {
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "nextcloudcal4j-http2");
+            thread.setDaemon(true);
+            return thread;
+        });
+        HttpClient.Builder builder = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(options.getConnectTimeout())
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .executor(executor);
+        if (options.getSslContext() != null) {
+            builder.sslContext(options.getSslContext());
+        }
+        this.credentialsProvider = credentialsProvider;
+        this.compression = options.isCompression();
+        Exec exec = new Exec(builder.build(), options);
+        this.chain = new ResilientExec(new MetricsExec(exec, options.getMetrics()), options, circuitBreaker, retries);
+    }
+
+    @Override
+    protected CloseableHttpResponse doExecute(HttpHost target, HttpRequest request, HttpContext context) throws IOException {
+        HttpClientContext clientContext = HttpClientContext.adapt(context != null ? context : new BasicHttpContext());
+        if (clientContext.getCredentialsProvider() == null) {
+            clientContext.setCredentialsProvider(credentialsProvider);
+        }
+        if (clientContext.getTargetAuthState() == null) {
+            clientContext.setAttribute(HttpClientContext.TARGET_AUTH_STATE, new AuthState());
+        }
+        clientContext.setAttribute(HttpCoreContext.HTTP_TARGET_HOST, target);
+        HttpRequestWrapper wrapper = HttpRequestWrapper.wrap(request, target);
+        if (compression && !wrapper.containsHeader("Accept-Encoding")) {
+            wrapper.addHeader("Accept-Encoding", "gzip, deflate");
+        }
+        HttpExecutionAware execAware = request instanceof HttpExecutionAware ? (HttpExecutionAware) request : null;
+        try {
+            return decompress(chain.execute(new HttpRoute(target), wrapper, clientContext, execAware));
+        } catch (HttpException e) {
+            throw new ClientProtocolException(e);
+        }
+    }
+
+    private static CloseableHttpResponse decompress(CloseableHttpResponse response) {
+        HttpEntity entity = response.getEntity();
+        Header encoding = entity != null ? entity.getContentEncoding() : null;
+        if (encoding == null) {
+            return response;
+        }
+        String coding = encoding.getValue().trim().toLowerCase(Locale.ROOT);
+        if (coding.equals("gzip") || coding.equals("x-gzip")) {
+            response.setEntity(new GzipDecompressingEntity(entity));
+        } else if (coding.equals("deflate")) {
+            response.setEntity(new DeflateDecompressingEntity(entity));
+        } else {
+            return response;
+        }
+        response.removeHeaders("Content-Length");
+        response.removeHeaders("Content-Encoding");
+        response.removeHeaders("Content-MD5");
+        return response;
+    }
+
+    /**
+     * Stops the JDK client's worker threads, its connection is closed once idle
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    @Override
+    @Deprecated
+    public HttpParams getParams() {
+        return new BasicHttpParams();
+    }
+
+    /**
+     * A manager with nothing to manage, the JDK client keeps its connection to itself. Shutting it down closes this client.
+     */
+    @Override
+    @Deprecated
+    public ClientConnectionManager getConnectionManager() {
+        return new NoConnectionManager();
+    }
+
+    /**
+     * The bottom of the chain, takes the place of Apache's main exec
+     */
+    private static class Exec implements ClientExecChain {
+        private final HttpClient client;
+        private final ConnectorOptions options;
+        private final PreemptiveAuthInterceptor auth = new PreemptiveAuthInterceptor();
+        // completes once the first request got a connection, until then the others are chained on it
+        private final AtomicReference<CompletableFuture<Void>> connection = new AtomicReference<>();
+
+        private Exec(HttpClient client, ConnectorOptions options) {
+            this.client = client;
+            this.options = options;
+        }
+
+        @Override
+        public CloseableHttpResponse execute(HttpRoute route, HttpRequestWrapper request, HttpClientContext context,
+                                             HttpExecutionAware execAware) throws IOException, HttpException {
+            auth.process(request, context);
+            AuthState authState = context.getTargetAuthState();
+            AuthScheme scheme = authState.getAuthScheme();
+            Credentials credentials = authState.getCredentials();
+            java.net.http.HttpRequest.Builder builder = java.net.http.HttpRequest.newBuilder(uri(route, request))
+                    .timeout(options.getSocketTimeout())
+                    .method(request.getMethod(), body(request));
+            for (Header header : request.getAllHeaders()) {
+                if (!SKIPPED_HEADERS.contains(header.getName().toLowerCase(Locale.ROOT)) && !header.getName().equalsIgnoreCase("Authorization")) {
+                    builder.header(header.getName(), header.getValue());
+                }
+            }
+            if (request instanceof HttpEntityEnclosingRequest) {
+                HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+                if (entity != null && entity.getContentType() != null && !request.containsHeader("Content-Type")) {
+                    builder.header("Content-Type", entity.getContentType().getValue());
+                }
+            }
+            // every scheme HttpClient ships, Basic included, is context aware
+            if (scheme instanceof ContextAwareAuthScheme && credentials != null) {
+                Header authorization = ((ContextAwareAuthScheme) scheme).authenticate(credentials, request, context);
+                builder.header(authorization.getName(), authorization.getValue());
+            }
+
+            context.setAttribute(HttpCoreContext.HTTP_REQ_SENT, Boolean.TRUE);
+            CompletableFuture<java.net.http.HttpResponse<InputStream>> future = sendAsync(builder.build());
+            if (execAware != null) {
+                execAware.setCancellable(() -> future.cancel(true));
+            }
+            try {
+                return new Http2Response(future.get());
+            } catch (InterruptedException e) {
+                future.cancel(true);
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for " + request.getMethod() + " " + request.getURI());
+            } catch (CancellationException e) {
+                throw new InterruptedIOException("Cancelled " + request.getMethod() + " " + request.getURI());
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof HttpConnectTimeoutException) {
+                    context.setAttribute(HttpCoreContext.HTTP_REQ_SENT, Boolean.FALSE);
+                    throw new ConnectTimeoutException(cause.getMessage());
+                }
+                if (cause instanceof HttpTimeoutException) {
+                    // like Apache's socket timeout, so ResilientExec does not wait that long again
+                    throw new SocketTimeoutException(cause.getMessage());
+                }
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                throw new IOException("Problem sending " + request.getMethod() + " " + request.getURI(), cause);
+            }
+        }
+
+        /**
+         * Until it has a connection the JDK client opens one for every concurrent request, so the first request goes out
+         * alone and the others are sent once it got its response
+         */
+        private CompletableFuture<java.net.http.HttpResponse<InputStream>> sendAsync(java.net.http.HttpRequest built) {
+            while (true) {
+                CompletableFuture<Void> opened = connection.get();
+                if (opened != null) {
+                    return opened.thenCompose(ignored -> client.sendAsync(built, BodyHandlers.ofInputStream()));
+                }
+                CompletableFuture<Void> opening = new CompletableFuture<>();
+                if (connection.compareAndSet(null, opening)) {
+                    return client.sendAsync(built, BodyHandlers.ofInputStream()).whenComplete((response, error) -> {
+                        if (error != null) {
+                            // no connection came of it, the next request opens one
+                            connection.compareAndSet(opening, null);
+                        }
+                        opening.complete(null);
+                    });
+                }
+            }
+        }
+
+        private static URI uri(HttpRoute route, HttpRequestWrapper request) throws ClientProtocolException {
+            try {
+                URI uri = request.getURI();
+                return uri.isAbsolute() ? uri : URIUtils.rewriteURI(uri, route.getTargetHost());
+            } catch (URISyntaxException e) {
+                throw new ClientProtocolException("Invalid URI " + request.getRequestLine().getUri(), e);
+            }
+        }
+
+        private static BodyPublisher body(HttpRequestWrapper request) throws IOException {
+            if (request instanceof HttpEntityEnclosingRequest) {
+                HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+                if (entity != null) {
+                    // CalDAV bodies are small, and a byte array can be sent again on retry
+                    return BodyPublishers.ofByteArray(EntityUtils.toByteArray(entity));
+                }
+            }
+            return BodyPublishers.noBody();
+        }
+    }
+
+    @Deprecated
+    private class NoConnectionManager implements ClientConnectionManager {
+        @Override
+        public SchemeRegistry getSchemeRegistry() {
+            return SchemeRegistryFactory.createDefault();
+        }
+
+        @Override
+        public ClientConnectionRequest requestConnection(HttpRoute route, Object state) {
+            return new ClientConnectionRequest() {
+                @Override
+                public ManagedClientConnection getConnection(long timeout, TimeUnit unit) throws ConnectionPoolTimeoutException {
+                    throw new ConnectionPoolTimeoutException("The HTTP/2 transport lends out no connections");
+                }
+
+                @Override
+                public void abortRequest() {
+                }
+            };
+        }
+
+        @Override
+        public void releaseConnection(ManagedClientConnection connection, long validDuration, TimeUnit unit) {
+        }
+
+        @Override
+        public void closeExpiredConnections() {
+        }
+
+        @Override
+        public void closeIdleConnections(long idleTime, TimeUnit unit) {
+        }
+
+        @Override
+        public void shutdown() {
+            close();
+        }
+    }
+
+    private static class Http2Response extends BasicHttpResponse implements CloseableHttpResponse {
+        private final InputStream body;
+
+        private Http2Response(java.net.http.HttpResponse<InputStream> response) {
+            super(new BasicStatusLine(response.version() == HttpClient.Version.HTTP_2 ? HTTP_2 : HttpVersion.HTTP_1_1,
+                    response.statusCode(), EnglishReasonPhraseCatalog.INSTANCE.getReason(response.statusCode(), Locale.ROOT)));
+            this.body = response.body();
+            for (Map.Entry<String, List<String>> header : response.headers().map().entrySet()) {
+                if (!header.getKey().startsWith(":")) {
+                    for (String value : header.getValue()) {
+                        addHeader(header.getKey(), value);
+                    }
+                }
+            }
+            BasicHttpEntity entity = new BasicHttpEntity();
+            entity.setContent(body);
+            entity.setContentLength(response.headers().firstValueAsLong("Content-Length").orElse(-1));
+            entity.setContentType(getFirstHeader("Content-Type"));
+            entity.setContentEncoding(getFirstHeader("Content-Encoding"));
+            setEntity(entity);
+        }
+
+        /**
+         * Closing the body before its end resets just this stream, the connection stays open for the others
+         */
+        @Override
+        public void close() throws IOException {
+            body.close();
+        }
+    }
+}
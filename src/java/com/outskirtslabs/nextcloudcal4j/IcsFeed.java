@@ -0,0 +1,245 @@
+package com.outskirtslabs.nextcloudcal4j;
+
+import com.github.caldav4j.CalDAVConstants;
+import net.fortuna.ical4j.model.component.VTimeZone;
+import net.fortuna.ical4j.model.property.Status;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Writes events as a single iCalendar feed (RFC 5545) for calendar apps to subscribe to, e.g., over a webcal:// URL.
+ * <p>
+ * The feed is streamed: each content line is folded and written as it is produced, so no ical4j Calendar of the whole feed
+ * is built. Every zone the events use gets one VTIMEZONE ahead of the events. Events without a start time are left out.
+ * <p>
+ * {@link #etag(String, Collection)} is a strong ETag derived from the events' content hashes, so a subscriber polling with
+ * If-None-Match can be answered with 304 by {@link #notModified(String, String)} before anything is rendered. It reads
+ * every event, so keep it until {@link EventIndex#getVersion()} changes.
+ */
+public final class IcsFeed {
+    // part of the ETag, bump it when the output changes for the same events
+    private static final int FORMAT_VERSION = 1;
+    private static final int MAX_LINE_OCTETS = 75;
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final DateTimeFormatter UTC = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'").withZone(ZoneOffset.UTC);
+    private static final DateTimeFormatter LOCAL = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss");
+
+    private IcsFeed() {
+    }
+
+    /**
+     * A quoted strong ETag, e.g., "3f2a...", that changes whenever {@link #write(String, Collection, OutputStream)} of
+     * the same arguments would write different bytes
+     */
+    public static String etag(String name, Collection<? extends Event> events) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            update(digest, Integer.toString(FORMAT_VERSION));
+            update(digest, name);
+            for (Event event : events) {
+                if (event.getStartTime() != null) {
+                    // the content hash covers everything written but the DTSTAMP
+                    update(digest, event.getContentHash());
+                    update(digest, UTC.format(dtstamp(event)));
+                }
+            }
+            byte[] hash = digest.digest();
+            StringBuilder etag = new StringBuilder(34).append('"');
+            for (int i = 0; i < 16; i++) {
+                etag.append(Character.forDigit((hash[i] >> 4) & 0xf, 16)).append(Character.forDigit(hash[i] & 0xf, 16));
+            }
+            return etag.append('"').toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is required to be supported by every JVM", e);
+        }
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        byte[] bytes = value != null ? value.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        digest.update((byte) (bytes.length >>> 24));
+        digest.update((byte) (bytes.length >>> 16));
+        digest.update((byte) (bytes.length >>> 8));
+        digest.update((byte) bytes.length);
+        digest.update(bytes);
+    }
+
+    /**
+     * Whether a request with this If-None-Match header can be answered with 304 Not Modified (RFC 9110 section 13.1.2)
+     *
+     * @param ifNoneMatch the header value, null if absent
+     */
+    public static boolean notModified(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            // If-None-Match uses the weak comparison
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes the feed to out and flushes it, out is not closed
+     *
+     * @param name shown by calendar apps as the calendar's name (X-WR-CALNAME), may be null
+     */
+    public static void write(String name, Collection<? extends Event> events, OutputStream out) throws IOException {
+        LineWriter writer = new LineWriter(out);
+        writer.line("BEGIN:VCALENDAR");
+        writer.line("VERSION:2.0");
+        writer.line("PRODID:" + CalDAVConstants.PROC_ID_DEFAULT);
+        writer.line("CALSCALE:GREGORIAN");
+        writer.line("METHOD:PUBLISH");
+        if (name != null) {
+            writer.line("X-WR-CALNAME:" + escape(name));
+        }
+
+        Set<ZoneId> zones = new LinkedHashSet<>();
+        for (Event event : events) {
+            if (event.getStartTime() != null && event.getTimezone() != null) {
+                zones.add(event.getTimezone());
+            }
+        }
+        for (ZoneId zone : zones) {
+            VTimeZone vTimeZone = TimeZones.getVTimeZone(zone);
+            if (vTimeZone != null) {
+                // toString() does not fold, long lines such as a TZURL or X- property would otherwise go out as they are
+                for (String line : vTimeZone.toString().replace("\r\n ", "").split("\r\n")) {
+                    writer.line(line);
+                }
+            }
+        }
+
+        for (Event event : events) {
+            if (event.getStartTime() != null) {
+                writeEvent(writer, event);
+            }
+        }
+        writer.line("END:VCALENDAR");
+        writer.flush();
+    }
+
+    private static void writeEvent(LineWriter writer, Event event) throws IOException {
+        writer.line("BEGIN:VEVENT");
+        if (event.getUid() != null) {
+            writer.line("UID:" + escape(event.getUid()));
+        }
+        writer.line("DTSTAMP:" + UTC.format(dtstamp(event)));
+        writer.line(dateTime("DTSTART", event.getStartTime(), event.getTimezone()));
+        if (event.getEndTime() != null) {
+            writer.line(dateTime("DTEND", event.getEndTime(), event.getTimezone()));
+        }
+        if (event.getSummary() != null) {
+            writer.line("SUMMARY:" + escape(event.getSummary()));
+        }
+        if (event.getDescription() != null) {
+            writer.line("DESCRIPTION:" + escape(event.getDescription()));
+        }
+        if (event.getLocation() != null) {
+            writer.line("LOCATION:" + escape(event.getLocation()));
+        }
+        Status status = Event.convertStatus(event.getStatus());
+        if (status != null) {
+            writer.line("STATUS:" + status.getValue());
+        }
+        if (event.getOrganizer() != null) {
+            writer.line("ORGANIZER:" + event.getOrganizer());
+        }
+        if (event.getUrl() != null) {
+            writer.line("URL:" + event.getUrl());
+        }
+        writer.line("END:VEVENT");
+    }
+
+    private static Instant dtstamp(Event event) {
+        // fixed per event, a feed rendered twice must come out the same for the ETag to hold
+        return event.getCreatedAt() != null ? event.getCreatedAt() : event.getStartTime();
+    }
+
+    private static String dateTime(String property, Instant instant, ZoneId zone) {
+        // local time only where a VTIMEZONE for the zone was written
+        if (TimeZones.isKnown(zone)) {
+            return property + ";TZID=" + zone.getId() + ":" + LOCAL.format(instant.atZone(zone));
+        }
+        return property + ":" + UTC.format(instant);
+    }
+
+    /**
+     * RFC 5545 3.3.11 TEXT escaping
+     */
+    private static String escape(String text) {
+        StringBuilder sb = new StringBuilder(text.length() + 16);
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '\\':
+                case ';':
+                case ',':
+                    sb.append('\\').append(c);
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    break;
+                default:
+                    sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Writes content lines, folding them at 75 octets (RFC 5545 3.1) without splitting a UTF-8 sequence
+     */
+    private static class LineWriter {
+        private final OutputStream out;
+
+        private LineWriter(OutputStream out) {
+            this.out = new BufferedOutputStream(out, 16 * 1024);
+        }
+
+        void line(String line) throws IOException {
+            byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+            int pos = 0;
+            int limit = MAX_LINE_OCTETS;
+            while (bytes.length - pos > limit) {
+                int end = pos + limit;
+                while ((bytes[end] & 0xC0) == 0x80) {
+                    end--;
+                }
+                out.write(bytes, pos, end - pos);
+                out.write(CRLF);
+                out.write(' ');
+                pos = end;
+                // the leading space counts towards the next line's octets
+                limit = MAX_LINE_OCTETS - 1;
+            }
+            out.write(bytes, pos, bytes.length - pos);
+            out.write(CRLF);
+        }
+
+        void flush() throws IOException {
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.outskirtslabs.nextcloudcal4j;
+
+import clojure.lang.Keyword;
+import net.fortuna.ical4j.data.CalendarBuilder;
+import net.fortuna.ical4j.data.ParserException;
+import net.fortuna.ical4j.model.Calendar;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.time.ZoneId;
+
+/**
+ * An {@link Event} that keeps the calendar-data as the server sent it, together with its href and ETag, and parses it only
+ * when asked.
+ * <p>
+ * {@link #getUid()} and {@link #getStartTime()} scan just far enough to find their property. Any other getter reads all
+ * event fields at once with {@link EventProjection}, and only {@link #getCalendar()} builds the full ical4j model.
+ * Code that only compares UIDs and ETags never pays for parsing at all.
+ */
+public class LazyEvent extends Event {
+    private final String href;
+    private final String etag;
+    private final String calendarData;
+
+    // each parsed at most once, racing threads just parse the same immutable value twice
+    private volatile String uid;
+    private volatile Instant startTime;
+    private volatile Event fields;
+    private volatile Calendar calendar;
+
+    public LazyEvent(String href, String etag, String calendarData) {
+        super(null, null, null, null, null, null, null, null, null, null, null);
+        this.href = href;
+        this.etag = etag;
+        this.calendarData = calendarData;
+    }
+
+    public String getHref() {
+        return this.href;
+    }
+
+    public String getEtag() {
+        return this.etag;
+    }
+
+    public String getCalendarData() {
+        return this.calendarData;
+    }
+
+    /**
+     * The full ical4j model of the calendar-data, as the server sent it
+     */
+    public Calendar getCalendar() {
+        Calendar result = calendar;
+        if (result == null) {
+            try {
+                result = new CalendarBuilder().build(new StringReader(calendarData));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } catch (ParserException e) {
+                throw new UncheckedIOException(new IOException("Invalid calendar-data in " + href, e));
+            }
+            calendar = result;
+        }
+        return result;
+    }
+
+    private Event fields() {
+        Event result = fields;
+        if (result == null) {
+            result = EventProjection.parseEvent(calendarData);
+            fields = result;
+        }
+        return result;
+    }
+
+    @Override
+    public String getUid() {
+        Event parsed = fields;
+        if (parsed != null) {
+            return parsed.getUid();
+        }
+        String result = uid;
+        if (result == null) {
+            result = EventProjection.parseUid(calendarData);
+            uid = result;
+        }
+        return result;
+    }
+
+    @Override
+    public Instant getStartTime() {
+        Event parsed = fields;
+        if (parsed != null) {
+            return parsed.getStartTime();
+        }
+        Instant result = startTime;
+        if (result == null) {
+            result = EventProjection.parseStartTime(calendarData);
+            startTime = result;
+        }
+        return result;
+    }
+
+    @Override
+    public String getSummary() {
+        return fields().getSummary();
+    }
+
+    @Override
+    public Instant getEndTime() {
+        return fields().getEndTime();
+    }
+
+    @Override
+    public Instant getCreatedAt() {
+        return fields().getCreatedAt();
+    }
+
+    @Override
+    public String getUrl() {
+        return fields().getUrl();
+    }
+
+    @Override
+    public String getDescription() {
+        return fields().getDescription();
+    }
+
+    @Override
+    public String getLocation() {
+        return fields().getLocation();
+    }
+
+    @Override
+    public String getOrganizer() {
+        return fields().getOrganizer();
+    }
+
+    @Override
+    public ZoneId getTimezone() {
+        return fields().getTimezone();
+    }
+
+    @Override
+    public Keyword getStatus() {
+        return fields().getStatus();
+    }
+
+    /**
+     * The hash we stored when writing the event, without parsing anything else. Clients that edit an event usually keep
+     * unknown X- properties, so this says what we last wrote, not necessarily what the event holds now;
+     * compare {@link #getContentHash()} for that.
+     *
+     * @return null if the event was not written by us
+     */
+    public String getStoredContentHash() {
+        return EventProjection.parseStoredContentHash(calendarData);
+    }
+
+    @Override
+    public Object toClojure() {
+        Event parsed = fields;
+        return parsed != null ? parsed.toClojure() : EventProjection.parse(calendarData);
+    }
+
+    public String toString() {
+        return "LazyEvent(href=" + this.href + ", etag=" + this.etag + ")";
+    }
+}
@@ -0,0 +1,134 @@
+package com.outskirtslabs.nextcloudcal4j;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpException;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpExecutionAware;
+import org.apache.http.client.methods.HttpRequestWrapper;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.impl.execchain.ClientExecChain;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Reports every HTTP exchange to {@link ConnectorMetrics}. Sits right above the client's main exec, below retries and
+ * decompression, so each attempt is measured and response sizes are what went over the wire.
+ */
+public class MetricsExec implements ClientExecChain {
+    private final ClientExecChain next;
+    private final ConnectorMetrics metrics;
+
+    public MetricsExec(ClientExecChain next, ConnectorMetrics metrics) {
+        this.next = next;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public CloseableHttpResponse execute(HttpRoute route, HttpRequestWrapper request, HttpClientContext context,
+                                         HttpExecutionAware execAware) throws IOException, HttpException {
+        Operation operation = Operation.current();
+        Exchange exchange = new Exchange(operation != null ? operation.getName() : "other", request.getMethod(), requestBytes(request));
+        if (operation != null) {
+            operation.addExchange(exchange);
+        }
+        CloseableHttpResponse response;
+        try {
+            response = next.execute(route, request, context, execAware);
+        } catch (IOException | HttpException | RuntimeException e) {
+            exchange.finish();
+            throw e;
+        }
+        exchange.status = response.getStatusLine().getStatusCode();
+        HttpEntity entity = response.getEntity();
+        if (entity == null) {
+            exchange.finish();
+        } else {
+            response.setEntity(new CountingEntity(entity, exchange));
+        }
+        return response;
+    }
+
+    private static long requestBytes(HttpRequestWrapper request) {
+        if (request instanceof HttpEntityEnclosingRequest) {
+            HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+            return entity == null ? 0 : entity.getContentLength();
+        }
+        return 0;
+    }
+
+    final class Exchange {
+        private final String operation;
+        private final String method;
+        private final long requestBytes;
+        private final long start = System.nanoTime();
+        private final AtomicBoolean finished = new AtomicBoolean();
+        private volatile int status;
+        private volatile long responseBytes;
+
+        private Exchange(String operation, String method, long requestBytes) {
+            this.operation = operation;
+            this.method = method;
+            this.requestBytes = requestBytes;
+        }
+
+        /**
+         * Reports the exchange, only the first call counts
+         */
+        void finish() {
+            if (finished.compareAndSet(false, true)) {
+                metrics.onRequest(operation, method, status, requestBytes, responseBytes, System.nanoTime() - start);
+            }
+        }
+    }
+
+    private static class CountingEntity extends HttpEntityWrapper {
+        private final Exchange exchange;
+
+        private CountingEntity(HttpEntity entity, Exchange exchange) {
+            super(entity);
+            this.exchange = exchange;
+        }
+
+        @Override
+        public InputStream getContent() throws IOException {
+            return new FilterInputStream(super.getContent()) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b < 0) {
+                        exchange.finish();
+                    } else {
+                        exchange.responseBytes++;
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int n = super.read(b, off, len);
+                    if (n < 0) {
+                        exchange.finish();
+                    } else {
+                        exchange.responseBytes += n;
+                    }
+                    return n;
+                }
+
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        exchange.finish();
+                    }
+                }
+            };
+        }
+    }
+}
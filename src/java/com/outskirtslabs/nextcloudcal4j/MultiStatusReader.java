@@ -0,0 +1,181 @@
+package com.outskirtslabs.nextcloudcal4j;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Pull-parses a WebDAV multistatus body one response at a time with StAX.
+ * <p>
+ * Unlike jackrabbit's MultiStatus, which materializes the whole body as a DOM, only the current response is held in memory,
+ * so calendars of any size can be walked with flat heap usage. Only the properties we care about are kept: getetag and calendar-data.
+ */
+public class MultiStatusReader implements Closeable {
+    private static final String DAV = "DAV:";
+    private static final String CALDAV = "urn:ietf:params:xml:ns:caldav";
+    private static final XMLInputFactory FACTORY = createFactory();
+
+    private final XMLStreamReader reader;
+    private String syncToken;
+
+    public MultiStatusReader(InputStream in) throws IOException {
+        try {
+            this.reader = FACTORY.createXMLStreamReader(in);
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static XMLInputFactory createFactory() {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        return factory;
+    }
+
+    /**
+     * @return the next response in the body, or null when the multistatus is exhausted
+     */
+    public Response next() throws IOException {
+        try {
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT && DAV.equals(reader.getNamespaceURI())) {
+                    String name = reader.getLocalName();
+                    if ("response".equals(name)) {
+                        return readResponse();
+                    } else if ("sync-token".equals(name)) {
+                        syncToken = reader.getElementText().trim();
+                    }
+                }
+            }
+            return null;
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * The top level sync-token of a sync-collection response, available once {@link #next()} has returned null
+     */
+    public String getSyncToken() {
+        return syncToken;
+    }
+
+    private Response readResponse() throws XMLStreamException {
+        String href = null;
+        int status = 0;
+        String etag = null;
+        String calendarData = null;
+
+        // inside a propstat the status follows the props, so hold them until we know whether they are the 200 ones
+        String propEtag = null;
+        String propCalendarData = null;
+        boolean inPropstat = false;
+
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                String ns = reader.getNamespaceURI();
+                String name = reader.getLocalName();
+                if (DAV.equals(ns) && "href".equals(name) && href == null) {
+                    href = reader.getElementText().trim();
+                } else if (DAV.equals(ns) && "propstat".equals(name)) {
+                    inPropstat = true;
+                    propEtag = null;
+                    propCalendarData = null;
+                    depth++;
+                } else if (DAV.equals(ns) && "status".equals(name)) {
+                    int code = parseStatus(reader.getElementText());
+                    if (!inPropstat) {
+                        status = code;
+                    } else if (code == 200) {
+                        status = code;
+                        etag = propEtag;
+                        calendarData = propCalendarData;
+                    } else if (status == 0) {
+                        status = code;
+                    }
+                } else if (DAV.equals(ns) && "getetag".equals(name)) {
+                    propEtag = reader.getElementText().trim();
+                } else if (CALDAV.equals(ns) && "calendar-data".equals(name)) {
+                    propCalendarData = reader.getElementText();
+                } else {
+                    depth++;
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                if (DAV.equals(reader.getNamespaceURI()) && "propstat".equals(reader.getLocalName())) {
+                    inPropstat = false;
+                }
+                depth--;
+            }
+        }
+        return new Response(href, status, etag, calendarData);
+    }
+
+    private static int parseStatus(String statusLine) {
+        // HTTP/1.1 200 OK
+        String[] parts = statusLine.trim().split(" ");
+        if (parts.length < 2) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(parts[1]);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            reader.close();
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * A single DAV:response element. For propstat responses the status is the one of the 200 propstat when present.
+     */
+    public static class Response {
+        private final String href;
+        private final int status;
+        private final String etag;
+        private final String calendarData;
+
+        public Response(String href, int status, String etag, String calendarData) {
+            this.href = href;
+            this.status = status;
+            this.etag = etag;
+            this.calendarData = calendarData;
+        }
+
+        public String getHref() {
+            return this.href;
+        }
+
+        public int getStatus() {
+            return this.status;
+        }
+
+        public String getEtag() {
+            return this.etag;
+        }
+
+        public String getCalendarData() {
+            return this.calendarData;
+        }
+
+        public String toString() {
+            return "MultiStatusReader.Response(href=" + this.href + ", status=" + this.status + ", etag=" + this.etag + ")";
+        }
+    }
+}
@@ -1,43 +1,136 @@
 package com.outskirtslabs.nextcloudcal4j;
 
+import clojure.lang.IReduceInit;
+import clojure.lang.RT;
+import clojure.lang.Reduced;
+import clojure.lang.Util;
 import com.github.caldav4j.CalDAVCollection;
 import com.github.caldav4j.CalDAVConstants;
+import com.github.caldav4j.exceptions.BadStatusException;
 import com.github.caldav4j.exceptions.CalDAV4JException;
 import com.github.caldav4j.exceptions.ResourceNotFoundException;
+import com.github.caldav4j.exceptions.ResourceOutOfDateException;
 import com.github.caldav4j.methods.CalDAV4JMethodFactory;
 import com.github.caldav4j.methods.HttpCalDAVReportMethod;
+import com.github.caldav4j.methods.HttpDeleteMethod;
 import com.github.caldav4j.methods.HttpPropFindMethod;
+import com.github.caldav4j.methods.HttpPutMethod;
+import com.github.caldav4j.model.request.CalDAVReportRequest;
 import com.github.caldav4j.model.request.CalendarData;
+import com.github.caldav4j.model.request.CalendarMultiget;
 import com.github.caldav4j.model.request.CalendarQuery;
+import com.github.caldav4j.model.request.CalendarRequest;
 import com.github.caldav4j.model.request.CompFilter;
+import com.github.caldav4j.model.request.FreeBusyQuery;
+import com.github.caldav4j.model.request.PropFilter;
+import com.github.caldav4j.model.request.TextMatch;
+import com.github.caldav4j.model.request.TimeRange;
 import com.github.caldav4j.model.response.CalendarDataProperty;
+import net.fortuna.ical4j.data.CalendarBuilder;
+import net.fortuna.ical4j.data.ParserException;
 import net.fortuna.ical4j.model.Calendar;
 import net.fortuna.ical4j.model.Component;
+import net.fortuna.ical4j.model.DateTime;
+import net.fortuna.ical4j.model.Property;
+import org.apache.http.Header;
 import org.apache.http.HttpHost;
 import org.apache.http.HttpResponse;
 import org.apache.http.auth.AuthScope;
 import org.apache.http.auth.UsernamePasswordCredentials;
-import org.apache.http.client.HttpClient;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.config.SocketConfig;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
 import org.apache.http.impl.client.BasicCredentialsProvider;
-import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.execchain.ClientExecChain;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.util.EntityUtils;
+import org.apache.jackrabbit.webdav.DavConstants;
 import org.apache.jackrabbit.webdav.DavException;
 import org.apache.jackrabbit.webdav.MultiStatus;
 import org.apache.jackrabbit.webdav.MultiStatusResponse;
-import org.apache.jackrabbit.webdav.Status;
+import org.apache.jackrabbit.webdav.client.methods.HttpReport;
 import org.apache.jackrabbit.webdav.property.*;
+import org.apache.jackrabbit.webdav.version.report.ReportInfo;
+import org.apache.jackrabbit.webdav.xml.DomUtil;
+import org.apache.jackrabbit.webdav.xml.Namespace;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.StringReader;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
-import static org.apache.http.HttpStatus.SC_OK;
+import static org.apache.http.HttpStatus.*;
 
-public class NextcloudConnector {
+public class NextcloudConnector implements Closeable {
+
+    public static final Namespace NAMESPACE_CALENDARSERVER = Namespace.getNamespace("cs", "http://calendarserver.org/ns/");
+    public static final DavPropertyName CTAG = DavPropertyName.create("getctag", NAMESPACE_CALENDARSERVER);
+    public static final DavPropertyName SYNC_TOKEN = DavPropertyName.create("sync-token", DavConstants.NAMESPACE);
+    public static final DavPropertyName SUPPORTED_CALENDAR_COMPONENT_SET = DavPropertyName.create("supported-calendar-component-set", CalDAVConstants.NAMESPACE_CALDAV);
+
+    private static final DavPropertyNameSet CALENDAR_PROPERTIES = propertyNames(DavPropertyName.RESOURCETYPE, DavPropertyName.DISPLAYNAME, CTAG, SYNC_TOKEN, SUPPORTED_CALENDAR_COMPONENT_SET);
+    private static final DavPropertyNameSet CALENDAR_CTAG_PROPERTIES = propertyNames(DavPropertyName.RESOURCETYPE, CTAG);
+
+    // CalendarBuilder is not thread-safe and expensive to create, it sets up its own timezone registry
+    private static final ThreadLocal<CalendarBuilder> CALENDAR_BUILDER = ThreadLocal.withInitial(CalendarBuilder::new);
 
     private final HttpHost host;
-    private final HttpClient client;
+    private final CloseableHttpClient client;
+    // null with HTTP/2, which has no pool
+    private final PoolingHttpClientConnectionManager connectionManager;
     private final String path;
+    private final ConnectorOptions options;
+    private final EventCache cache;
+    private final EventIndex index = new EventIndex();
+    private volatile long lastCtagCheck;
+    private final AsyncEventWriter writer;
+    private final ForkJoinPool parsePool;
+    private final AtomicLong writesSent = new AtomicLong();
+    private final AtomicLong writesSkipped = new AtomicLong();
+    private final CircuitBreaker circuitBreaker;
+    private final AtomicLong retries = new AtomicLong();
+    private final Map<String, CalendarList> calendarLists = new ConcurrentHashMap<>();
+    private final Object snapshotLock = new Object();
+    private volatile CalendarSnapshot snapshot = CalendarSnapshot.empty();
+    private volatile ChangeWatcher watcher;
 
     /**
      * @param host         Hostname of the nextcloud server, e.g., www.example.com
@@ -46,71 +139,445 @@ public class NextcloudConnector {
      * @param calendarPath the path component of the webdav calendar. In nextcloud this looks like: /remote.php/dav/calendars/username/calendar-name/
      */
     public NextcloudConnector(String host, String username, String password, String calendarPath) {
-        this.host = new HttpHost(host, 443, "https");
+        this(host, username, password, calendarPath, ConnectorOptions.defaults());
+    }
+
+    /**
+     * @param host         Hostname of the nextcloud server, e.g., www.example.com
+     * @param username     Nextcloud username
+     * @param password     Nextcloud password
+     * @param calendarPath the path component of the webdav calendar. In nextcloud this looks like: /remote.php/dav/calendars/username/calendar-name/
+     * @param options      connection pool and timeout settings
+     */
+    public NextcloudConnector(String host, String username, String password, String calendarPath, ConnectorOptions options) {
+        int port = options.getPort() > 0 ? options.getPort() : ("https".equals(options.getScheme()) ? 443 : 80);
+        this.host = new HttpHost(host, port, options.getScheme());
         if (!calendarPath.startsWith("/")) {
             calendarPath = "/" + calendarPath;
         }
         this.path = calendarPath;
+        this.options = options;
+        this.cache = options.getCacheMaxSize() > 0 ? new EventCache(options.getCacheMaxSize(), options.getCacheTtl()) : null;
         BasicCredentialsProvider basicCredentialsProvider = new BasicCredentialsProvider();
         basicCredentialsProvider.setCredentials(AuthScope.ANY, new UsernamePasswordCredentials(username, password));
-        this.client = HttpClients.custom()
-                .setDefaultCredentialsProvider(basicCredentialsProvider)
-                .addInterceptorFirst(new PreemptiveAuthInterceptor())
+        this.circuitBreaker = new CircuitBreaker(options.getCircuitFailureThreshold(), options.getCircuitOpenDuration());
+        if (options.getTransport() == Transport.HTTP_2) {
+            this.connectionManager = null;
+            this.client = new Http2Client(basicCredentialsProvider, options, circuitBreaker, retries);
+        } else {
+            this.connectionManager = options.getSslContext() == null ? new PoolingHttpClientConnectionManager()
+                    : new PoolingHttpClientConnectionManager(RegistryBuilder.<ConnectionSocketFactory>create()
+                    .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                    .register("https", new SSLConnectionSocketFactory(options.getSslContext()))
+                    .build());
+            this.client = buildHttpClient(basicCredentialsProvider, options, connectionManager, circuitBreaker, retries);
+        }
+        this.writer = new AsyncEventWriter(this, options.getWriterThreads(), options.getWriterQueueCapacity());
+        this.parsePool = options.getParseParallelism() > 1 ? new ForkJoinPool(options.getParseParallelism()) : null;
+    }
+
+    private static CloseableHttpClient buildHttpClient(BasicCredentialsProvider credentialsProvider, ConnectorOptions options,
+                                                      PoolingHttpClientConnectionManager connectionManager,
+                                                      CircuitBreaker circuitBreaker, AtomicLong retries) {
+        connectionManager.setMaxTotal(options.getMaxTotal());
+        connectionManager.setDefaultMaxPerRoute(options.getMaxPerRoute());
+        connectionManager.setDefaultSocketConfig(SocketConfig.custom()
+                .setSoTimeout((int) options.getSocketTimeout().toMillis())
+                .setSoKeepAlive(true)
+                .build());
+
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout((int) options.getConnectTimeout().toMillis())
+                .setSocketTimeout((int) options.getSocketTimeout().toMillis())
+                .setConnectionRequestTimeout((int) options.getConnectionRequestTimeout().toMillis())
                 .build();
+
+        long maxKeepAlive = options.getKeepAlive().toMillis();
+        HttpClientBuilder builder = new HttpClientBuilder() {
+            @Override
+            protected ClientExecChain decorateMainExec(ClientExecChain mainExec) {
+                return new MetricsExec(mainExec, options.getMetrics());
+            }
+
+            @Override
+            protected ClientExecChain decorateProtocolExec(ClientExecChain protocolExec) {
+                return new ResilientExec(protocolExec, options, circuitBreaker, retries);
+            }
+        };
+        builder.setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .setKeepAliveStrategy((response, context) -> {
+                    long serverKeepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+                    return serverKeepAlive > 0 ? Math.min(serverKeepAlive, maxKeepAlive) : maxKeepAlive;
+                })
+                .evictExpiredConnections()
+                .evictIdleConnections(options.getMaxIdleTime().toMillis(), TimeUnit.MILLISECONDS)
+                .setDefaultCredentialsProvider(credentialsProvider)
+                .addInterceptorFirst(new PreemptiveAuthInterceptor())
+                // ResilientExec does the retrying
+                .disableAutomaticRetries();
+        if (!options.isCompression()) {
+            builder.disableContentCompression();
+        }
+        return builder.build();
     }
 
-    public void getAllCalendars(String rootPath) throws Exception {
-//        String path = "/remote.php/dav/calendars/casey/";
-        HttpPropFindMethod method = new HttpPropFindMethod(String.format("https://%s%s", host.getHostName(), rootPath), CalDAVConstants.PROPFIND_ALL_PROP, CalDAVConstants.DEPTH_1);
-        HttpResponse httpResponse = client.execute(method);
-
-        MultiStatus multiStatus = method.getResponseBodyAsMultiStatus(httpResponse);
-        MultiStatusResponse[] responses = multiStatus.getResponses();
-
-        for (MultiStatusResponse response : responses) {
-            String cHref = response.getHref();
-            String cCtag = null;
-            String cDisplayName = null;
-            Status[] statuses = response.getStatus();
-            for (Status s : statuses) {
-                if (s.getStatusCode() == 200) {
-                    DavPropertySet ps = response.getProperties(s.getStatusCode());
-
-                    DavPropertyIterator it = ps.iterator();
-                    while (it.hasNext()) {
-                        DavProperty p = it.nextProperty();
-                        String propName = p.getName().getName();
-                        String propValue = null;
-                        if (p.getValue() != null) {
-                            propValue = p.getValue().toString();
-                        }
-                        if ("getctag".equalsIgnoreCase(propName)) {
-                            cCtag = propValue;
-                        } else if ("displayname".equalsIgnoreCase(propName)) {
-                            cDisplayName = propValue;
-                        }
+    /**
+     * Shuts down the connection pool and its idle connection evictor, and saves the snapshot to
+     * {@link ConnectorOptions#getSnapshotPath()} if it was ever synced
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (watcher != null) {
+                watcher.close();
+            }
+            // let pending background writes finish while the client is still open
+            writer.close();
+            client.close();
+            if (parsePool != null) {
+                parsePool.shutdown();
+            }
+        } finally {
+            if (options.getSnapshotPath() != null && snapshot.getSyncToken() != null) {
+                saveSnapshot(options.getSnapshotPath());
+            }
+        }
+    }
 
-                    }
+    /**
+     * Lists the calendars below rootPath, e.g., /remote.php/dav/calendars/username/, with a Depth-1 PROPFIND for just the
+     * properties of {@link CalendarDescriptor}. Other collections there, such as the scheduling inbox, are left out.
+     * <p>
+     * The result is cached per rootPath. After {@link ConnectorOptions#getCtagCheckInterval()} it is revalidated with a
+     * PROPFIND for the ctags only, and fetched again only if a calendar changed, was added or was removed.
+     */
+    public List<CalendarDescriptor> getAllCalendars(String rootPath) throws IOException, DavException {
+        try (Operation op = operation("propfind")) {
+            long now = System.currentTimeMillis();
+            CalendarList cached = calendarLists.get(rootPath);
+            if (cached != null && now - cached.checkedAt < options.getCtagCheckInterval().toMillis()) {
+                return op.succeed(cached.calendars);
+            }
+            if (cached != null && cached.ctags().equals(ctags(propfindCalendars(rootPath, CALENDAR_CTAG_PROPERTIES)))) {
+                calendarLists.put(rootPath, new CalendarList(cached.calendars, now));
+                return op.succeed(cached.calendars);
+            }
+            List<CalendarDescriptor> calendars = Collections.unmodifiableList(propfindCalendars(rootPath, CALENDAR_PROPERTIES));
+            calendarLists.put(rootPath, new CalendarList(calendars, now));
+            return op.succeed(calendars);
+        }
+    }
+
+    private List<CalendarDescriptor> propfindCalendars(String rootPath, DavPropertyNameSet properties) throws IOException, DavException {
+        HttpPropFindMethod method = null;
+        try {
+            method = new HttpPropFindMethod(uri(rootPath), properties, CalDAVConstants.DEPTH_1);
+            HttpResponse httpResponse = client.execute(method);
+            method.checkSuccess(httpResponse);
+            List<CalendarDescriptor> calendars = new ArrayList<>();
+            for (MultiStatusResponse response : method.getResponseBodyAsMultiStatus(httpResponse).getResponses()) {
+                DavPropertySet ps = response.getProperties(SC_OK);
+                if (childElements(ps.get(DavPropertyName.RESOURCETYPE)).stream().noneMatch(NextcloudConnector::isCalendarType)) {
+                    continue;
+                }
+                List<String> components = new ArrayList<>();
+                for (Element comp : childElements(ps.get(SUPPORTED_CALENDAR_COMPONENT_SET))) {
+                    components.add(comp.getAttribute("name"));
+                }
+                calendars.add(new CalendarDescriptor(response.getHref(), propertyValue(ps.get(DavPropertyName.DISPLAYNAME)),
+                        propertyValue(ps.get(CTAG)), propertyValue(ps.get(SYNC_TOKEN)), components));
+            }
+            return calendars;
+        } finally {
+            if (method != null) {
+                method.reset();
+            }
+        }
+    }
+
+    private static Map<String, String> ctags(List<CalendarDescriptor> calendars) {
+        Map<String, String> ctags = new HashMap<>();
+        for (CalendarDescriptor calendar : calendars) {
+            ctags.put(calendar.getHref(), calendar.getCtag());
+        }
+        return ctags;
+    }
+
+    private static boolean isCalendarType(Element element) {
+        return "calendar".equals(element.getLocalName()) && CalDAVConstants.NAMESPACE_CALDAV.getURI().equals(element.getNamespaceURI());
+    }
+
+    /**
+     * The elements inside a property like resourcetype, jackrabbit hands over a single child as is and several as a list
+     */
+    private static List<Element> childElements(DavProperty<?> property) {
+        List<Element> elements = new ArrayList<>();
+        Object value = property == null ? null : property.getValue();
+        if (value instanceof Element) {
+            elements.add((Element) value);
+        } else if (value instanceof Collection) {
+            for (Object node : (Collection<?>) value) {
+                if (node instanceof Element) {
+                    elements.add((Element) node);
                 }
             }
-            System.out.println(cDisplayName);
-            System.out.println(cHref);
-            System.out.println(cHref);
         }
+        return elements;
     }
 
     public List<Object> listAllEvents() throws IOException, DavException {
+        return listEvents(null, null);
+    }
+
+    /**
+     * Lists every event of another calendar on the same server, e.g., one found with {@link #getAllCalendars(String)}
+     */
+    public List<Object> listAllEvents(String href) throws IOException, DavException {
+        return listEvents(href, null, null);
+    }
+
+    /**
+     * Lists the events overlapping [from, to) of each of the calendars concurrently, one connection per calendar up to
+     * {@link ConnectorOptions#getMaxPerRoute()}.
+     *
+     * @return calendar href -> its events, in the order of hrefs
+     */
+    public Map<String, List<Object>> listCalendarEvents(Collection<String> hrefs, Instant from, Instant to) throws IOException, DavException {
+        Map<String, List<Object>> result = new LinkedHashMap<>();
+        if (hrefs.size() <= 1) {
+            for (String href : hrefs) {
+                result.put(href, listEvents(href, from, to));
+            }
+            return result;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(hrefs.size(), options.getMaxPerRoute()));
+        try {
+            Map<String, Future<List<Object>>> futures = new LinkedHashMap<>();
+            for (String href : hrefs) {
+                futures.put(href, executor.submit(() -> listEvents(href, from, to)));
+            }
+            for (Map.Entry<String, Future<List<Object>>> future : futures.entrySet()) {
+                result.put(future.getKey(), future.getValue().get());
+            }
+            return result;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while listing calendars");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof DavException) {
+                throw (DavException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Lists the events overlapping [from, to). The time-range filter is applied by the server, so only events in the window are transferred.
+     *
+     * @param from start of the window, or null for no lower bound
+     * @param to   end of the window, exclusive, or null for no upper bound
+     */
+    public List<Object> listEvents(Instant from, Instant to) throws IOException, DavException {
+        return listEvents(path, from, to);
+    }
+
+    /**
+     * Like {@link #listEvents(Instant, Instant)}, for another calendar on the same server
+     */
+    public List<Object> listEvents(String href, Instant from, Instant to) throws IOException, DavException {
+        try (Operation op = operation("list")) {
+            if (parsePool == null) {
+                List<Object> events = new ArrayList<>();
+                streamClojureEvents(href, eventsQuery(from, to), events::add);
+                return op.succeed(events);
+            }
+            EventListing listing = collectEvents(href, from, to);
+            if (!listing.getFailures().isEmpty()) {
+                ParseFailure failure = listing.getFailures().get(0);
+                throw new IOException("Invalid calendar-data in " + failure.getHref(), failure.getError());
+            }
+            return op.succeed(listing.getEvents());
+        }
+    }
+
+    /**
+     * Lists the events overlapping [from, to) without parsing them, see {@link LazyEvent}.
+     * Meant for code that mostly looks at UIDs and ETags, e.g., to work out what changed.
+     * The full calendar-data is requested regardless of {@link ConnectorOptions#isProjection()}, so that
+     * {@link LazyEvent#getCalendar()} sees the timezone definitions ical4j needs.
+     */
+    public List<LazyEvent> listLazyEvents(Instant from, Instant to) throws IOException, DavException {
+        try (Operation op = operation("list")) {
+            CalendarQuery query = eventsQuery(from, to);
+            List<LazyEvent> events = new ArrayList<>();
+            streamResponses(path, query, response -> events.add(new LazyEvent(response.getHref(), response.getEtag(), response.getCalendarData())));
+            return op.succeed(events);
+        }
+    }
+
+    /**
+     * Lists the events overlapping [from, to) like {@link #listEvents(Instant, Instant)}, but resources that fail to parse are
+     * reported in the result instead of failing the listing.
+     * <p>
+     * With {@link ConnectorOptions#getParseParallelism()} above 1, the calendar-data strings are handed to a fork-join pool
+     * as they are read off the wire, while the order of the events stays that of the response.
+     */
+    public EventListing loadEvents(Instant from, Instant to) throws IOException, DavException {
+        try (Operation op = operation("list")) {
+            return op.succeed(collectEvents(path, from, to));
+        }
+    }
+
+    private EventListing collectEvents(String collection, Instant from, Instant to) throws IOException, DavException {
+        Operation op = Operation.current();
+        List<Object> events = new ArrayList<>();
+        List<ParseFailure> failures = new ArrayList<>();
+        CalendarQuery query = eventsQuery(from, to);
+        if (options.isProjection()) {
+            query.setCalendarDataProp(EventProjection.calendarData());
+        }
+        if (parsePool == null) {
+            streamResponses(collection, query, response -> {
+                collect(parseToClojure(response, op), events, failures);
+                return true;
+            });
+            return new EventListing(events, failures);
+        }
+
+        // bound the parsed-but-not-collected results, so a huge calendar does not pile up in memory ahead of the reader
+        int window = options.getParseParallelism() * 64;
+        ArrayDeque<ForkJoinTask<Object>> inFlight = new ArrayDeque<>(window);
+        try {
+            streamResponses(collection, query, response -> {
+                inFlight.addLast(parsePool.submit(() -> parseToClojure(response, op)));
+                if (inFlight.size() >= window) {
+                    collect(inFlight.removeFirst().join(), events, failures);
+                }
+                return true;
+            });
+        } catch (IOException | DavException | RuntimeException e) {
+            inFlight.forEach(task -> task.cancel(false));
+            throw e;
+        }
+        while (!inFlight.isEmpty()) {
+            collect(inFlight.removeFirst().join(), events, failures);
+        }
+        return new EventListing(events, failures);
+    }
+
+    /**
+     * @return the event map, or a ParseFailure
+     */
+    private Object parseToClojure(MultiStatusReader.Response response, Operation op) {
+        long start = System.nanoTime();
+        try {
+            if (options.isProjection()) {
+                return EventProjection.parse(response.getCalendarData());
+            }
+            return Event.icalToClojure(parseCalendar(response));
+        } catch (Exception e) {
+            return new ParseFailure(response.getHref(), response.getEtag(), e);
+        } finally {
+            op.addParseNanos(System.nanoTime() - start);
+        }
+    }
+
+    private static void collect(Object result, List<Object> events, List<ParseFailure> failures) {
+        if (result instanceof ParseFailure) {
+            failures.add((ParseFailure) result);
+        } else {
+            events.add(result);
+        }
+    }
+
+    /**
+     * Streams every event in the calendar to consumer as the REPORT response arrives, without holding the whole calendar in memory.
+     */
+    public void forEachEvent(Consumer<Event> consumer) throws IOException, DavException {
+        try (Operation op = operation("list")) {
+            streamEvents(allEventsQuery(), (href, etag, event) -> {
+                consumer.accept(event);
+                return true;
+            });
+            op.succeed();
+        }
+    }
+
+    /**
+     * A reducible over the Clojure maps of every event in the calendar, e.g., (into [] (filter confirmed?) (.reducibleEvents c)).
+     * Each reduction issues a fresh streaming REPORT, and a reduced value aborts the transfer early.
+     */
+    public IReduceInit reducibleEvents() {
+        return reducibleEvents(null, null);
+    }
+
+    /**
+     * Like {@link #reducibleEvents()}, limited to the events overlapping [from, to), see {@link #listEvents(Instant, Instant)}
+     */
+    public IReduceInit reducibleEvents(Instant from, Instant to) {
+        return (f, start) -> {
+            Object[] acc = {start};
+            try (Operation op = operation("list")) {
+                streamClojureEvents(path, eventsQuery(from, to), event -> {
+                    acc[0] = f.invoke(acc[0], event);
+                    return !RT.isReduced(acc[0]);
+                });
+                op.succeed();
+            } catch (IOException | DavException e) {
+                throw Util.sneakyThrow(e);
+            }
+            return RT.isReduced(acc[0]) ? ((Reduced) acc[0]).deref() : acc[0];
+        };
+    }
+
+    private CalendarQuery allEventsQuery() {
+        return eventsQuery(null, null);
+    }
+
+    /**
+     * Streams the Clojure maps of the events, with the projected query and parser unless {@link ConnectorOptions#isProjection()} is off.
+     */
+    private void streamClojureEvents(String collection, CalendarQuery query, Predicate<Object> consumer) throws IOException, DavException {
+        Operation op = Operation.current();
+        if (options.isProjection()) {
+            query.setCalendarDataProp(EventProjection.calendarData());
+            streamResponses(collection, query, response -> {
+                long start = System.nanoTime();
+                Object event = EventProjection.parse(response.getCalendarData());
+                op.addParseNanos(System.nanoTime() - start);
+                return consumer.test(event);
+            });
+        } else {
+            streamCalendars(collection, query, (href, etag, ical) -> {
+                long start = System.nanoTime();
+                Object event = Event.icalToClojure(ical);
+                op.addParseNanos(System.nanoTime() - start);
+                return consumer.test(event);
+            });
+        }
+    }
+
+    private CalendarQuery eventsQuery(Instant from, Instant to) {
         // Create a set of Dav Properties to query
         DavPropertyNameSet properties = new DavPropertyNameSet();
         properties.add(DavPropertyName.GETETAG);
 
         // Create a Component filter for VCALENDAR and VEVENT
         CompFilter vcalendar = new CompFilter(Calendar.VCALENDAR);
-        vcalendar.addCompFilter(new CompFilter(Component.VEVENT));
+        CompFilter vevent = new CompFilter(Component.VEVENT);
+        if (from != null || to != null) {
+            // <C:time-range start="20231017T000000Z" end="20240115T000000Z"/>
+            vevent.setTimeRange(new TimeRange(utc(from), utc(to)));
+        }
+        vcalendar.addCompFilter(vevent);
 
         // Create a Query XML object with the above properties
-        CalendarQuery query = new CalendarQuery(properties, vcalendar, new CalendarData(), false, false);
-
         /*
         <C:calendar-query xmlns:C="urn:ietf:params:xml:ns:caldav">
           <D:prop xmlns:D="DAV:">
@@ -124,66 +591,977 @@ public class NextcloudConnector {
           </C:filter>
         </C:calendar-query>
         */
-//        System.out.println(XMLUtils.prettyPrint(query));
+        return new CalendarQuery(properties, vcalendar, new CalendarData(), false, false);
+    }
 
+    /**
+     * Like {@link #streamCalendars}, converting to Events. Every event seen also refreshes the cache and the index.
+     */
+    private void streamEvents(CalDAVReportRequest query, EventHandler handler) throws IOException, DavException {
+        Operation op = Operation.current();
+        streamCalendars(path, query, (href, etag, ical) -> {
+            long start = System.nanoTime();
+            Event event = Event.fromICal(ical);
+            op.addParseNanos(System.nanoTime() - start);
+            if (cache != null && event.getUid() != null) {
+                cache.put(event.getUid(), href, etag, event);
+            }
+            index.put(event);
+            return handler.handle(href, etag, event);
+        });
+    }
+
+    /**
+     * Like {@link #streamResponses}, parsing each calendar with ical4j.
+     */
+    private void streamCalendars(String collection, CalDAVReportRequest query, CalendarHandler handler) throws IOException, DavException {
+        Operation op = Operation.current();
+        streamResponses(collection, query, response -> {
+            long start = System.nanoTime();
+            Calendar ical = parseCalendar(response);
+            op.addParseNanos(System.nanoTime() - start);
+            return handler.handle(response.getHref(), response.getEtag(), ical);
+        });
+    }
+
+    /**
+     * Sends the REPORT and hands each response carrying calendar-data to handler while the body is still being read.
+     * Stops reading, and drops the connection, as soon as handler returns false.
+     */
+    private void streamResponses(String collection, CalDAVReportRequest query, ResponseHandler handler) throws IOException, DavException {
+        Operation op = Operation.current();
         HttpCalDAVReportMethod method = null;
-        List<Event> events = new ArrayList<>();
         try {
-            String uri = String.format("https://%s%s", host.getHostName(), path);
-            System.out.println(uri);
-            method = new HttpCalDAVReportMethod(uri, query, CalDAVConstants.DEPTH_1);
+            method = new HttpCalDAVReportMethod(resourceUri(collection), query, CalDAVConstants.DEPTH_1);
             HttpResponse httpResponse = client.execute(method);
-            if (method.succeeded(httpResponse)) {
-                MultiStatusResponse[] multiStatusResponses = method.getResponseBodyAsMultiStatus(httpResponse).getResponses();
-
-                for (MultiStatusResponse response : multiStatusResponses) {
-                    if (response.getStatus()[0].getStatusCode() == SC_OK) {
-                        String etag = CalendarDataProperty.getEtagfromResponse(response);
-                        Calendar ical = CalendarDataProperty.getCalendarfromResponse(response);
-//                        System.out.println("Calendar at " + response.getHref() + " with ETag: " + etag);
-                        events.add(Event.fromICal(ical));
+            method.checkSuccess(httpResponse);
+            InputStream in = httpResponse.getEntity().getContent();
+            boolean complete = false;
+            try (MultiStatusReader reader = new MultiStatusReader(in)) {
+                MultiStatusReader.Response response;
+                while ((response = reader.next()) != null) {
+                    if (response.getStatus() == SC_OK && response.getCalendarData() != null) {
+                        op.addEvent();
+                        if (!handler.handle(response)) {
+                            return;
+                        }
                     }
                 }
+                complete = true;
+            } finally {
+                if (complete) {
+                    in.close();
+                } else {
+                    // don't drain the rest of a large body we are no longer interested in
+                    method.abort();
+                }
             }
         } finally {
             if (method != null) {
                 method.reset();
             }
         }
-        return events.stream().map(Event::toClojure).toList();
+    }
+
+    private static DateTime utc(Instant instant) {
+        if (instant == null) {
+            return null;
+        }
+        DateTime dateTime = new DateTime(instant.toEpochMilli());
+        dateTime.setUtc(true);
+        return dateTime;
+    }
+
+    private static Calendar parseCalendar(MultiStatusReader.Response response) throws IOException {
+        try {
+            return CALENDAR_BUILDER.get().build(new StringReader(response.getCalendarData()));
+        } catch (ParserException e) {
+            throw new IOException("Invalid calendar-data in " + response.getHref(), e);
+        }
+    }
+
+    /**
+     * Fetches the ctag and sync-token of the calendar collection with a Depth-0 PROPFIND. No calendar data is transferred.
+     */
+    public CollectionState getCollectionState() throws IOException, DavException {
+        try (Operation op = operation("propfind")) {
+            DavPropertyNameSet properties = new DavPropertyNameSet();
+            properties.add(CTAG);
+            properties.add(SYNC_TOKEN);
+
+            HttpPropFindMethod method = null;
+            try {
+                method = new HttpPropFindMethod(uri(path), properties, CalDAVConstants.DEPTH_0);
+                HttpResponse httpResponse = client.execute(method);
+                method.checkSuccess(httpResponse);
+                MultiStatusResponse[] responses = method.getResponseBodyAsMultiStatus(httpResponse).getResponses();
+                if (responses.length == 0) {
+                    throw new DavException(SC_NOT_FOUND, "No PROPFIND response for " + path);
+                }
+                DavPropertySet ps = responses[0].getProperties(SC_OK);
+                return op.succeed(new CollectionState(propertyValue(ps.get(CTAG)), propertyValue(ps.get(SYNC_TOKEN))));
+            } finally {
+                if (method != null) {
+                    method.reset();
+                }
+            }
+        }
+    }
+
+    /**
+     * Asks the server when the calendar is busy within [from, to) with a free-busy-query REPORT (RFC 4791 section 7.10).
+     * The answer is a short list of periods instead of the events themselves, so nothing is parsed but the periods.
+     */
+    public FreeBusy getFreeBusy(Instant from, Instant to) throws IOException, DavException {
+        Objects.requireNonNull(from, "from");
+        Objects.requireNonNull(to, "to");
+        try (Operation op = operation("freebusy")) {
+            HttpCalDAVReportMethod method = null;
+            try {
+                method = new HttpCalDAVReportMethod(uri(path), new FreeBusyQuery(new TimeRange(utc(from), utc(to))), CalDAVConstants.DEPTH_1);
+                HttpResponse httpResponse = client.execute(method);
+                method.checkSuccess(httpResponse);
+                String ics = EntityUtils.toString(httpResponse.getEntity(), StandardCharsets.UTF_8);
+                long start = System.nanoTime();
+                FreeBusy freeBusy = FreeBusy.parse(ics, from, to);
+                op.addParseNanos(System.nanoTime() - start);
+                return op.succeed(freeBusy);
+            } finally {
+                if (method != null) {
+                    method.reset();
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the hrefs and ETags of everything that changed since syncToken (RFC 6578).
+     * <p>
+     * The collection's sync-token is read first with a Depth-0 PROPFIND, if it still equals syncToken no REPORT is sent at all.
+     * Pass null as syncToken for an initial sync, or when the server has forgotten the token, in both cases the result is a
+     * full listing of hrefs and ETags with {@link SyncResult#isFullResync()} set.
+     */
+    public SyncResult syncChanges(String syncToken) throws IOException, DavException {
+        try (Operation op = operation("sync")) {
+            CollectionState state = getCollectionState();
+            if (syncToken != null && syncToken.equals(state.getSyncToken())) {
+                return op.succeed(SyncResult.unchanged(state));
+            }
+            try {
+                return op.succeed(syncCollection(syncToken, state));
+            } catch (DavException e) {
+                // the DAV:valid-sync-token precondition failed, the token expired or belongs to another collection
+                if (syncToken != null && (e.getErrorCode() == SC_FORBIDDEN || e.getErrorCode() == SC_CONFLICT)) {
+                    return op.succeed(syncCollection(null, state));
+                }
+                throw e;
+            }
+        }
+    }
+
+    private SyncResult syncCollection(String syncToken, CollectionState state) throws IOException, DavException {
+        DavPropertyNameSet properties = new DavPropertyNameSet();
+        properties.add(DavPropertyName.GETETAG);
+
+        ReportInfo info = new ReportInfo("sync-collection", DavConstants.NAMESPACE, CalDAVConstants.DEPTH_0, properties);
+        try {
+            Document document = DomUtil.createDocument();
+            info.setContentElement(DomUtil.createElement(document, "sync-token", DavConstants.NAMESPACE, syncToken == null ? "" : syncToken));
+            info.setContentElement(DomUtil.createElement(document, "sync-level", DavConstants.NAMESPACE, "1"));
+        } catch (ParserConfigurationException e) {
+            throw new IOException(e);
+        }
+
+        /*
+        <D:sync-collection xmlns:D="DAV:">
+          <D:sync-token>http://sabre.io/ns/sync/42</D:sync-token>
+          <D:sync-level>1</D:sync-level>
+          <D:prop>
+            <D:getetag/>
+          </D:prop>
+        </D:sync-collection>
+        */
+
+        HttpReport method = null;
+        try {
+            method = new HttpReport(uri(path), info);
+            HttpResponse httpResponse = client.execute(method);
+            method.checkSuccess(httpResponse);
+            Element root = method.getResponseBodyAsDocument(httpResponse.getEntity()).getDocumentElement();
+            String newToken = DomUtil.getChildTextTrim(root, "sync-token", DavConstants.NAMESPACE);
+
+            Map<String, String> changed = new LinkedHashMap<>();
+            List<String> deleted = new ArrayList<>();
+            for (MultiStatusResponse response : MultiStatus.createFromXml(root).getResponses()) {
+                String href = response.getHref();
+                if (href.equals(path)) {
+                    continue;
+                }
+                if (!response.isPropStat()) {
+                    if (response.getStatus()[0].getStatusCode() == SC_NOT_FOUND) {
+                        deleted.add(href);
+                    }
+                    continue;
+                }
+                String etag = propertyValue(response.getProperties(SC_OK).get(DavPropertyName.GETETAG));
+                if (etag != null) {
+                    changed.put(href, etag);
+                }
+            }
+            return new SyncResult(newToken != null ? newToken : state.getSyncToken(), state.getCtag(), changed, deleted, syncToken == null);
+        } finally {
+            if (method != null) {
+                method.reset();
+            }
+        }
+    }
+
+    /**
+     * The state of the calendar as of the last {@link #syncSnapshot()}, or as restored from disk
+     */
+    public CalendarSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Replaces the snapshot with one saved by {@link #saveSnapshot(Path)}, e.g., at startup, so the next
+     * {@link #syncSnapshot()} only fetches what changed since. Sends nothing. The events also fill the index.
+     */
+    public CalendarSnapshot restoreSnapshot(Path file) throws IOException {
+        CalendarSnapshot restored = CalendarSnapshot.read(file);
+        snapshot = restored;
+        for (CalendarSnapshot.Entry entry : restored.getEntries().values()) {
+            index.put(entry.getEvent());
+        }
+        return restored;
+    }
+
+    public void saveSnapshot(Path file) throws IOException {
+        snapshot.write(file);
+    }
+
+    /**
+     * Brings the snapshot up to date with {@link #syncChanges(String)} and returns it.
+     * <p>
+     * Only resources whose ETag differs from the snapshot's are fetched, with calendar-multiget REPORTs, so even when the
+     * server no longer knows the sync-token nothing unchanged is downloaded again. The fetched events also warm the cache and
+     * update the index, and deleted ones leave both, so a sync costs the size of its delta.
+     * Writes made through this connector show up in the snapshot with the next sync, not before.
+     */
+    public CalendarSnapshot syncSnapshot() throws IOException, DavException {
+        try (Operation op = operation("snapshot")) {
+            synchronized (snapshotLock) {
+                CalendarSnapshot previous = snapshot;
+                SyncResult sync = syncChanges(previous.getSyncToken());
+                if (sync.getChanged().isEmpty() && sync.getDeleted().isEmpty() && !sync.isFullResync()) {
+                    if (!Objects.equals(sync.getCtag(), previous.getCtag()) || !Objects.equals(sync.getSyncToken(), previous.getSyncToken())) {
+                        snapshot = new CalendarSnapshot(sync.getSyncToken(), sync.getCtag(), previous.getEntries());
+                    }
+                    // the index was filled when the previous snapshot was synced or restored
+                    index.markComplete();
+                    return op.succeed(snapshot);
+                }
+
+                Map<String, CalendarSnapshot.Entry> entries = new LinkedHashMap<>(previous.getEntries());
+                // hrefs that may have left the calendar, those still missing after the multiget did
+                List<String> dropped = new ArrayList<>(sync.getDeleted());
+                if (sync.isFullResync()) {
+                    for (String href : previous.getEntries().keySet()) {
+                        if (!sync.getChanged().containsKey(href)) {
+                            dropped.add(href);
+                        }
+                    }
+                }
+                entries.keySet().removeAll(dropped);
+                List<String> stale = new ArrayList<>();
+                for (Map.Entry<String, String> changed : sync.getChanged().entrySet()) {
+                    CalendarSnapshot.Entry known = entries.get(changed.getKey());
+                    if (known == null || !changed.getValue().equals(known.getEtag())) {
+                        entries.remove(changed.getKey());
+                        stale.add(changed.getKey());
+                    }
+                }
+                dropped.addAll(stale);
+                Map<String, CalendarSnapshot.Entry> fetched = new LinkedHashMap<>();
+                for (int i = 0; i < stale.size(); i += options.getMultigetBatchSize()) {
+                    multiget(stale.subList(i, Math.min(stale.size(), i + options.getMultigetBatchSize())), (href, etag, event) -> {
+                        CalendarSnapshot.Entry entry = new CalendarSnapshot.Entry(etag, event.getContentHash(), event);
+                        entries.put(href, entry);
+                        fetched.put(href, entry);
+                        return true;
+                    });
+                }
+
+                CalendarSnapshot updated = new CalendarSnapshot(sync.getSyncToken(), sync.getCtag(), entries);
+                if (cache != null) {
+                    // the sync is the delta the cache needs when it was last revalidated at the same sync-token
+                    boolean sameBase = previous.getSyncToken() != null && previous.getSyncToken().equals(cache.getSyncToken());
+                    cache.revalidate(new CollectionState(updated.getCtag(), updated.getSyncToken()), sameBase ? sync : null);
+                }
+                // removals first, an event that moved to another href keeps its UID
+                for (String href : dropped) {
+                    CalendarSnapshot.Entry gone = previous.getEntries().get(href);
+                    if (gone != null && gone.getUid() != null && !entries.containsKey(href)) {
+                        index.remove(gone.getUid());
+                        if (cache != null) {
+                            cache.invalidate(gone.getUid());
+                        }
+                    }
+                }
+                for (Map.Entry<String, CalendarSnapshot.Entry> entry : fetched.entrySet()) {
+                    index.put(entry.getValue().getEvent());
+                    if (cache != null && entry.getValue().getUid() != null) {
+                        cache.put(entry.getValue().getUid(), entry.getKey(), entry.getValue().getEtag(), entry.getValue().getEvent());
+                    }
+                }
+                snapshot = updated;
+                index.markComplete();
+                return op.succeed(updated);
+            }
+        }
+    }
+
+    /**
+     * Starts polling the calendar for changes made by other clients in the background, see {@link ChangeWatcher}.
+     * The watcher keeps the snapshot and the index up to date as it goes, and is stopped when the connector is closed.
+     *
+     * @param minInterval delay between polls right after a change
+     * @param maxInterval longest delay between polls while nothing changes
+     * @throws IllegalStateException if a watcher is already running
+     */
+    public synchronized ChangeWatcher watchChanges(ChangeListener listener, Duration minInterval, Duration maxInterval) {
+        if (watcher != null) {
+            throw new IllegalStateException("Already watching " + path);
+        }
+        ChangeWatcher started = new ChangeWatcher(this, listener, minInterval, maxInterval);
+        watcher = started;
+        started.start();
+        return started;
+    }
+
+    /**
+     * The running watcher, or null if {@link #watchChanges} was not called
+     */
+    public ChangeWatcher getWatcher() {
+        return watcher;
+    }
+
+    private void ownWrite(String uid, String etag) {
+        ChangeWatcher current = watcher;
+        if (current != null) {
+            current.ownWrite(uid, etag);
+        }
+    }
+
+    private void ownDelete(String uid) {
+        ChangeWatcher current = watcher;
+        if (current != null) {
+            current.ownDelete(uid);
+        }
+    }
+
+    /**
+     * Resources created by this connector are named after their UID, e.g., /remote.php/dav/calendars/user/cal/UID.ics
+     */
+    public static String uidFromHref(String href) {
+        String name = href.substring(href.lastIndexOf('/') + 1);
+        return name.endsWith(".ics") ? name.substring(0, name.length() - 4) : name;
+    }
+
+    private static DavPropertyNameSet propertyNames(DavPropertyName... names) {
+        DavPropertyNameSet set = new DavPropertyNameSet();
+        for (DavPropertyName name : names) {
+            set.add(name);
+        }
+        return set;
+    }
+
+    private static String propertyValue(DavProperty<?> property) {
+        if (property == null || property.getValue() == null) {
+            return null;
+        }
+        return property.getValue().toString();
+    }
+
+    /**
+     * Hrefs in multistatus responses are usually absolute paths, but may be full URLs
+     */
+    private String resourceUri(String href) {
+        return href.startsWith("http://") || href.startsWith("https://") ? href : uri(href);
+    }
+
+    private Operation operation(String name) {
+        return Operation.start(options.getMetrics(), name);
+    }
+
+    private String uri(String path) {
+        if (options.getPort() > 0) {
+            return String.format("%s://%s:%d%s", host.getSchemeName(), host.getHostName(), host.getPort(), path);
+        }
+        return String.format("%s://%s%s", host.getSchemeName(), host.getHostName(), path);
     }
 
     public void updateEvent(Event event) throws CalDAV4JException, URISyntaxException {
-        CalDAV4JMethodFactory mf = new CalDAV4JMethodFactory();
-        CalDAVCollection collection = new CalDAVCollection(path, host, mf, CalDAVConstants.PROC_ID_DEFAULT);
-        collection.updateMasterEvent(client, event.toVEvent(), event.toVTimeZone());
+        try (Operation op = operation("update")) {
+            CalDAV4JMethodFactory mf = new CalDAV4JMethodFactory();
+            CalDAVCollection collection = new CalDAVCollection(path, host, mf, CalDAVConstants.PROC_ID_DEFAULT);
+            collection.updateMasterEvent(client, event.toVEvent(), event.toVTimeZone());
+            if (cache != null) {
+                // neither the href nor the new ETag is known, so there is no telling our write from a later one
+                cache.invalidate(event.getUid());
+            }
+            ownWrite(event.getUid(), null);
+            index.put(event);
+            op.succeed();
+        }
     }
 
     /**
      * Returns the final UID of the resource
      */
     public String createEvent(Event event) throws CalDAV4JException, URISyntaxException {
-        CalDAV4JMethodFactory mf = new CalDAV4JMethodFactory();
-        CalDAVCollection collection = new CalDAVCollection(path, host, mf, CalDAVConstants.PROC_ID_DEFAULT);
-        return collection.add(client, event.toICal());
+        try (Operation op = operation("create")) {
+            CalDAV4JMethodFactory mf = new CalDAV4JMethodFactory();
+            CalDAVCollection collection = new CalDAVCollection(path, host, mf, CalDAVConstants.PROC_ID_DEFAULT);
+            String uid = collection.add(client, event.toICal());
+            if (cache != null) {
+                cache.invalidate(uid);
+            }
+            ownWrite(uid, null);
+            index.put(event.withUid(uid));
+            return op.succeed(uid);
+        }
     }
 
     public void deleteEvent(String uid) throws CalDAV4JException {
-        CalDAV4JMethodFactory mf = new CalDAV4JMethodFactory();
-        CalDAVCollection collection = new CalDAVCollection(path, host, mf, CalDAVConstants.PROC_ID_DEFAULT);
-        collection.delete(client, Component.VEVENT, uid);
+        try (Operation op = operation("delete")) {
+            CalDAV4JMethodFactory mf = new CalDAV4JMethodFactory();
+            CalDAVCollection collection = new CalDAVCollection(path, host, mf, CalDAVConstants.PROC_ID_DEFAULT);
+            collection.delete(client, Component.VEVENT, uid);
+            if (cache != null) {
+                cache.invalidate(uid);
+            }
+            ownDelete(uid);
+            index.remove(uid);
+            op.succeed();
+        }
     }
 
-    public Event getEventByUID(String uid) throws CalDAV4JException {
+    /**
+     * Writes the event to its resource with a single conditional PUT.
+     *
+     * @param etag null to create the event (If-None-Match: *), "*" to overwrite it only if it exists, or the ETag of the
+     *             version the caller last saw (If-Match)
+     * @return the new ETag, or null if the server did not return one because it altered the stored data
+     * @throws ResourceOutOfDateException when the precondition failed (412): the event already exists, does not exist,
+     *                                    or was changed by someone else
+     */
+    public String putEvent(Event event, String etag) throws CalDAV4JException, URISyntaxException {
+        try (Operation op = operation(etag == null ? "create" : "update")) {
+            return op.succeed(putEvent(hrefForUID(event.getUid()), event, etag));
+        }
+    }
+
+    private String putEvent(String href, Event event, String etag) throws CalDAV4JException, URISyntaxException {
+        CalendarRequest request = new CalendarRequest(event.toICal());
+        if (etag == null) {
+            request.setIfNoneMatch(true);
+            request.setAllEtags(true);
+        } else {
+            request.setIfMatch(true);
+            if ("*".equals(etag)) {
+                request.setAllEtags(true);
+            } else {
+                request.addEtag(etag);
+            }
+        }
+
+        HttpPutMethod method = new CalDAV4JMethodFactory().createPutMethod(resourceUri(href), request);
         try {
-            CalDAV4JMethodFactory mf = new CalDAV4JMethodFactory();
-            CalDAVCollection collection = new CalDAVCollection(path, host, mf, CalDAVConstants.PROC_ID_DEFAULT);
-            Calendar ical = collection.getCalendarForEventUID(client, uid);
-            if (ical != null)
-                return Event.fromICal(ical);
-        } catch (ResourceNotFoundException e) {
+            HttpResponse httpResponse = client.execute(method);
+            int status = httpResponse.getStatusLine().getStatusCode();
+            EntityUtils.consumeQuietly(httpResponse.getEntity());
+            if (status == SC_PRECONDITION_FAILED) {
+                throw new ResourceOutOfDateException("Precondition failed writing event " + event.getUid() + " (etag " + etag + ")");
+            }
+            if (!method.succeeded(httpResponse)) {
+                throw new BadStatusException(method, httpResponse);
+            }
+            Header etagHeader = httpResponse.getFirstHeader("ETag");
+            String newEtag = etagHeader != null ? etagHeader.getValue() : null;
+            if (cache != null) {
+                if (newEtag != null) {
+                    cache.putOwnWrite(event.getUid(), href, newEtag, event);
+                } else {
+                    // the server rewrote what we sent, our copy is not what is stored
+                    cache.invalidate(event.getUid());
+                }
+            }
+            ownWrite(event.getUid(), newEtag);
+            // even if rewritten, the times are still those we sent
+            index.put(event);
+            return newEtag;
+        } catch (IOException e) {
+            throw new CalDAV4JException("Problem executing put method", e);
+        } finally {
+            method.reset();
+        }
+    }
+
+    /**
+     * Queues an {@link #upsertEvent(Event)} on the background writer, coalescing with any pending write of the same UID.
+     * Blocks when the writer's queue is full.
+     */
+    public CompletableFuture<String> submitUpsert(Event event) {
+        return writer.submitUpsert(event);
+    }
+
+    /**
+     * Queues a delete on the background writer, superseding any pending write of the same UID
+     */
+    public CompletableFuture<String> submitDelete(String uid) {
+        return writer.submitDelete(uid);
+    }
+
+    public AsyncEventWriter getWriter() {
+        return writer;
+    }
+
+    /**
+     * Connections of the pool: leased, available, and requests waiting for one.
+     *
+     * @return null with {@link Transport#HTTP_2}, which multiplexes one connection instead of pooling them
+     */
+    public PoolStats getPoolStats() {
+        return connectionManager != null ? connectionManager.getTotalStats() : null;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * Number of requests sent again after a failure, see {@link ResilientExec}
+     */
+    public long getRetries() {
+        return retries.get();
+    }
+
+    /**
+     * Number of {@link #upsertEvent(Event)} calls that went to the server
+     */
+    public long getWritesSent() {
+        return writesSent.get();
+    }
+
+    /**
+     * Number of {@link #upsertEvent(Event)} calls skipped because the event was unchanged
+     */
+    public long getWritesSkipped() {
+        return writesSkipped.get();
+    }
+
+    /**
+     * Creates or overwrites the event without reading it first.
+     * Tries an update, and only falls back to a create when the server says the resource does not exist.
+     * <p>
+     * When the cache holds the event and its {@link Event#getContentHash()} matches, nothing is sent at all.
+     * <p>
+     * The cache entry is trusted for its TTL without checking the ctag, whatever {@link ConnectorOptions#getCtagCheckInterval()}
+     * says, so an upsert is never more than the PUT itself. An edit by another client is only noticed once the entry
+     * expires or a cached read checked the ctag, until then writing what the cache holds is skipped.
+     *
+     * @return the new ETag, see {@link #putEvent(Event, String)}, or the current one when the write was skipped
+     */
+    public String upsertEvent(Event event) throws CalDAV4JException, URISyntaxException {
+        try (Operation op = operation("upsert")) {
+            EventCache.Entry cached = cache != null && event.getUid() != null ? cache.get(event.getUid()) : null;
+            if (cached != null && cached.getEtag() != null && cached.getEvent().getContentHash().equals(event.getContentHash())) {
+                writesSkipped.incrementAndGet();
+                return op.succeed(cached.getEtag());
+            }
+            writesSent.incrementAndGet();
+            try {
+                return op.succeed(putEvent(event, "*"));
+            } catch (ResourceOutOfDateException notFound) {
+                try {
+                    return op.succeed(putEvent(event, null));
+                } catch (ResourceOutOfDateException createdConcurrently) {
+                    return op.succeed(putEvent(event, "*"));
+                }
+            }
+        }
+    }
+
+    /**
+     * Deletes the event's resource with a single DELETE, instead of looking it up by UID first like {@link #deleteEvent(String)}.
+     *
+     * @param etag when not null the event is only deleted if it is still at this version (If-Match)
+     * @return false if there was nothing to delete
+     */
+    public boolean deleteEvent(String uid, String etag) throws CalDAV4JException {
+        try (Operation op = operation("delete")) {
+            return op.succeed(deleteEvent(hrefForUID(uid), uid, etag));
+        }
+    }
+
+    private boolean deleteEvent(String href, String uid, String etag) throws CalDAV4JException {
+        HttpDeleteMethod method = new CalDAV4JMethodFactory().createDeleteMethod(resourceUri(href), etag);
+        try {
+            HttpResponse httpResponse = client.execute(method);
+            int status = httpResponse.getStatusLine().getStatusCode();
+            EntityUtils.consumeQuietly(httpResponse.getEntity());
+            if (cache != null && status != SC_PRECONDITION_FAILED) {
+                cache.invalidate(uid);
+            }
+            if (status == SC_NOT_FOUND) {
+                index.remove(uid);
+                return false;
+            }
+            if (status == SC_PRECONDITION_FAILED) {
+                throw new ResourceOutOfDateException("Precondition failed deleting event " + uid + " (etag " + etag + ")");
+            }
+            if (!method.succeeded(httpResponse)) {
+                throw new BadStatusException(method, httpResponse);
+            }
+            ownDelete(uid);
+            index.remove(uid);
+            return true;
+        } catch (IOException e) {
+            throw new CalDAV4JException("Problem executing delete method", e);
+        } finally {
+            method.reset();
+        }
+    }
+
+    /**
+     * Like {@link #reconcile(Collection, Instant, Instant, boolean)} over the whole calendar
+     */
+    public ReconcileReport reconcile(Collection<? extends Event> desired, boolean dryRun) throws IOException, DavException {
+        return reconcile(desired, null, null, dryRun);
+    }
+
+    /**
+     * Makes the events overlapping [from, to) exactly the desired ones, with as few requests as possible.
+     * <p>
+     * The current UIDs, ETags and {@link Event#getContentHash() content hashes} are read with one REPORT, the hash is taken
+     * from the line we store on every event we write and only events edited by other clients are parsed. Desired events
+     * missing from it are created, ones whose hash differs are updated, and events in the window that are not desired are
+     * deleted. Every write is conditional on the ETag seen in the REPORT, so an event changed concurrently by someone else
+     * fails with a {@link ResourceOutOfDateException} in its result instead of being overwritten.
+     * At most {@link ConnectorOptions#getReconcileParallelism()} writes are in flight at once.
+     * <p>
+     * Desired events should fall inside the window, one stored outside it is not seen and its create fails.
+     *
+     * @param dryRun only work out the plan, nothing is written
+     * @return a result per UID, failures are reported there rather than thrown
+     */
+    public ReconcileReport reconcile(Collection<? extends Event> desired, Instant from, Instant to, boolean dryRun) throws IOException, DavException {
+        try (Operation op = operation("reconcile")) {
+            Map<String, RemoteEvent> remote = new LinkedHashMap<>();
+            CalendarQuery query = eventsQuery(from, to);
+            if (options.isProjection()) {
+                query.setCalendarDataProp(EventProjection.calendarData());
+            }
+            streamResponses(path, query, response -> {
+                long start = System.nanoTime();
+                RemoteEvent event = RemoteEvent.of(response, options.isProjection());
+                op.addParseNanos(System.nanoTime() - start);
+                if (event != null) {
+                    remote.put(event.uid, event);
+                }
+                return true;
+            });
+
+            Map<String, Event> wanted = new LinkedHashMap<>();
+            List<ReconcileResult> invalid = new ArrayList<>();
+            for (Event event : desired) {
+                if (event.getUid() == null) {
+                    invalid.add(new ReconcileResult(null, ReconcileAction.CREATE, null, null, false, new IllegalArgumentException("Event without UID: " + event)));
+                } else {
+                    wanted.put(event.getUid(), event);
+                }
+            }
+
+            List<ReconcileResult> plan = new ArrayList<>();
+            for (Event event : wanted.values()) {
+                RemoteEvent current = remote.get(event.getUid());
+                if (current == null) {
+                    plan.add(new ReconcileResult(event.getUid(), ReconcileAction.CREATE, hrefForUID(event.getUid()), null, false, null));
+                } else if (event.getContentHash().equals(current.contentHash)) {
+                    plan.add(new ReconcileResult(event.getUid(), ReconcileAction.UNCHANGED, current.href, current.etag, false, null));
+                } else {
+                    plan.add(new ReconcileResult(event.getUid(), ReconcileAction.UPDATE, current.href, current.etag, false, null));
+                }
+            }
+            for (RemoteEvent current : remote.values()) {
+                if (!wanted.containsKey(current.uid)) {
+                    plan.add(new ReconcileResult(current.uid, ReconcileAction.DELETE, current.href, current.etag, false, null));
+                }
+            }
+
+            List<ReconcileResult> results = dryRun ? plan : apply(plan, wanted);
+            results.addAll(invalid);
+            return op.succeed(new ReconcileReport(dryRun, results));
+        }
+    }
+
+    private List<ReconcileResult> apply(List<ReconcileResult> plan, Map<String, Event> wanted) {
+        int threads = Math.max(1, Math.min(options.getReconcileParallelism(), plan.size()));
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<ReconcileResult>> futures = new ArrayList<>(plan.size());
+            for (ReconcileResult step : plan) {
+                futures.add(step.getAction() == ReconcileAction.UNCHANGED
+                        ? CompletableFuture.completedFuture(step)
+                        : executor.submit(() -> apply(step, wanted.get(step.getUid()))));
+            }
+            List<ReconcileResult> results = new ArrayList<>(plan.size());
+            for (Future<ReconcileResult> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while reconciling", e);
+        } catch (ExecutionException e) {
+            // apply(step, event) reports its failures in the result
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private ReconcileResult apply(ReconcileResult step, Event event) {
+        String uid = step.getUid();
+        String href = step.getHref();
+        try (Operation op = operation(step.getAction().name().toLowerCase(Locale.ROOT))) {
+            switch (step.getAction()) {
+                case CREATE:
+                    return op.succeed(new ReconcileResult(uid, step.getAction(), href, putEvent(href, event, null), true, null));
+                case UPDATE:
+                    String etag = step.getEtag() != null ? step.getEtag() : "*";
+                    return op.succeed(new ReconcileResult(uid, step.getAction(), href, putEvent(href, event, etag), true, null));
+                case DELETE:
+                    return op.succeed(new ReconcileResult(uid, step.getAction(), href, null, deleteEvent(href, uid, step.getEtag()), null));
+                default:
+                    throw new IllegalArgumentException("Nothing to apply for " + step);
+            }
+        } catch (Exception e) {
+            return new ReconcileResult(uid, step.getAction(), href, step.getEtag(), false, e);
+        }
+    }
+
+    /**
+     * Looks the event up by its UID property, wherever the resource is stored.
+     * Served from the {@link EventCache} when enabled, a cached read costs at most a Depth-0 PROPFIND to check the ctag.
+     *
+     * @return the event, or null if there is none with this UID
+     */
+    public Event getEventByUID(String uid) throws CalDAV4JException {
+        try (Operation op = operation("get")) {
+            EventCache.Entry entry = getCachedEntry(uid);
+            if (entry != null) {
+                return op.succeed(entry.getEvent());
+            }
+            Event[] found = {null};
+            try {
+                streamEvents(uidQuery(uid), (href, etag, event) -> {
+                    found[0] = event;
+                    return false;
+                });
+            } catch (IOException | DavException e) {
+                throw new CalDAV4JException("Problem fetching event " + uid, e);
+            }
+            return op.succeed(found[0]);
+        }
+    }
+
+    /**
+     * The events of this calendar as of the last snapshot sync and the writes since, for time queries without a request,
+     * see {@link EventIndex}
+     */
+    public EventIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * The cache, or null if it was disabled with {@link ConnectorOptions#getCacheMaxSize()} 0
+     */
+    public EventCache getCache() {
+        return cache;
+    }
+
+    private EventCache.Entry getCachedEntry(String uid) throws CalDAV4JException {
+        if (cache == null) {
             return null;
         }
-        return null;
+        long now = System.currentTimeMillis();
+        if (now - lastCtagCheck >= options.getCtagCheckInterval().toMillis()) {
+            try {
+                revalidateCache(getCollectionState());
+            } catch (IOException | DavException e) {
+                throw new CalDAV4JException("Problem checking the calendar ctag", e);
+            }
+            lastCtagCheck = now;
+        }
+        return cache.get(uid);
+    }
+
+    /**
+     * When the ctag moved, asks for what changed since the cache's sync-token, so only those entries are dropped
+     */
+    private void revalidateCache(CollectionState state) throws IOException, DavException {
+        SyncResult delta = null;
+        String since = cache.getSyncToken();
+        if (since != null && cache.isStale(state)) {
+            try {
+                delta = syncCollection(since, state);
+            } catch (DavException e) {
+                // the token expired, revalidate drops everything
+                if (e.getErrorCode() != SC_FORBIDDEN && e.getErrorCode() != SC_CONFLICT) {
+                    throw e;
+                }
+            }
+        }
+        cache.revalidate(state, delta);
+    }
+
+    private CalendarQuery uidQuery(String uid) {
+        DavPropertyNameSet properties = new DavPropertyNameSet();
+        properties.add(DavPropertyName.GETETAG);
+
+        PropFilter uidFilter = new PropFilter();
+        uidFilter.setName(Property.UID);
+        uidFilter.setTextMatch(new TextMatch(false, false, null, uid));
+        CompFilter vevent = new CompFilter(Component.VEVENT);
+        vevent.addPropFilter(uidFilter);
+        CompFilter vcalendar = new CompFilter(Calendar.VCALENDAR);
+        vcalendar.addCompFilter(vevent);
+        return new CalendarQuery(properties, vcalendar, new CalendarData(), false, false);
+    }
+
+    /**
+     * Fetches many events in as few round trips as possible using calendar-multiget REPORTs of at most
+     * {@link ConnectorOptions#getMultigetBatchSize()} hrefs each.
+     * <p>
+     * Only events stored under their UID (as created by {@link #createEvent(Event)}) are found. UIDs without an event are absent from the returned map.
+     *
+     * @return uid -> event, in the order the server returned them
+     */
+    public Map<String, Event> getEventsByUIDs(Collection<String> uids) throws IOException, DavException {
+        try (Operation op = operation("get")) {
+            Map<String, Event> events = new LinkedHashMap<>();
+            List<String> hrefs = new ArrayList<>();
+            for (String uid : uids) {
+                hrefs.add(hrefForUID(uid));
+                if (hrefs.size() >= options.getMultigetBatchSize()) {
+                    multiget(hrefs, events);
+                    hrefs.clear();
+                }
+            }
+            if (!hrefs.isEmpty()) {
+                multiget(hrefs, events);
+            }
+            return op.succeed(events);
+        }
+    }
+
+    private void multiget(List<String> hrefs, Map<String, Event> events) throws IOException, DavException {
+        multiget(hrefs, (href, etag, event) -> {
+            events.put(event.getUid(), event);
+            return true;
+        });
+    }
+
+    private void multiget(List<String> hrefs, EventHandler handler) throws IOException, DavException {
+        DavPropertyNameSet properties = new DavPropertyNameSet();
+        properties.add(DavPropertyName.GETETAG);
+        CalendarMultiget query = new CalendarMultiget(properties, new CalendarData(), false, false);
+        query.setHrefs(new ArrayList<>(hrefs));
+
+        streamEvents(query, handler);
+    }
+
+    private String hrefForUID(String uid) {
+        return (path.endsWith("/") ? path : path + "/") + uid + ".ics";
+    }
+
+    /**
+     * What {@link #reconcile} needs to know about an event already in the calendar
+     */
+    private static class RemoteEvent {
+        private final String uid;
+        private final String href;
+        private final String etag;
+        private final String contentHash;
+
+        private RemoteEvent(String uid, String href, String etag, String contentHash) {
+            this.uid = uid;
+            this.href = href;
+            this.etag = etag;
+            this.contentHash = contentHash;
+        }
+
+        /**
+         * Takes the content hash we stored when writing the event where it can be trusted, parsing the event only for the others.
+         *
+         * @return null when not even the UID can be read, such a resource is left alone
+         */
+        private static RemoteEvent of(MultiStatusReader.Response response, boolean projected) {
+            EventProjection.Stored stored = EventProjection.parseStored(response.getCalendarData());
+            if (stored.uid != null && stored.contentHash != null) {
+                return new RemoteEvent(stored.uid, response.getHref(), response.getEtag(), stored.contentHash);
+            }
+            try {
+                Event event = projected ? EventProjection.parseEvent(response.getCalendarData()) : Event.fromICal(parseCalendar(response));
+                return event.getUid() == null ? null : new RemoteEvent(event.getUid(), response.getHref(), response.getEtag(), event.getContentHash());
+            } catch (Exception e) {
+                // unreadable content never matches, so a desired event with this UID overwrites it
+                String uid = EventProjection.parseUid(response.getCalendarData());
+                return uid == null ? null : new RemoteEvent(uid, response.getHref(), response.getEtag(), null);
+            }
+        }
+    }
+
+    /**
+     * A cached result of {@link #getAllCalendars(String)} and when its ctags were last checked
+     */
+    private static class CalendarList {
+        final List<CalendarDescriptor> calendars;
+        final long checkedAt;
+
+        CalendarList(List<CalendarDescriptor> calendars, long checkedAt) {
+            this.calendars = calendars;
+            this.checkedAt = checkedAt;
+        }
+
+        Map<String, String> ctags() {
+            return NextcloudConnector.ctags(calendars);
+        }
+    }
+
+    @FunctionalInterface
+    private interface EventHandler {
+        /**
+         * @return false to stop reading the response
+         */
+        boolean handle(String href, String etag, Event event);
+    }
+
+    @FunctionalInterface
+    private interface ResponseHandler {
+        /**
+         * @return false to stop reading the response
+         */
+        boolean handle(MultiStatusReader.Response response) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface CalendarHandler {
+        /**
+         * @return false to stop reading the response
+         */
+        boolean handle(String href, String etag, Calendar ical) throws IOException;
     }
 }
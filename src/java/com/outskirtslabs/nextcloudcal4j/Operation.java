@@ -0,0 +1,86 @@
+package com.outskirtslabs.nextcloudcal4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures one connector operation for {@link ConnectorMetrics}, used with try-with-resources around the operation's body.
+ * The innermost operation of the current thread is what HTTP exchanges and parse times are attributed to.
+ */
+final class Operation implements AutoCloseable {
+    private static final ThreadLocal<Operation> CURRENT = new ThreadLocal<>();
+
+    private final ConnectorMetrics metrics;
+    private final String name;
+    private final Operation parent;
+    private final long start = System.nanoTime();
+    private final LongAdder parseNanos = new LongAdder();
+    private final List<MetricsExec.Exchange> exchanges = new ArrayList<>();
+    private int events;
+    private boolean success;
+
+    private Operation(ConnectorMetrics metrics, String name, Operation parent) {
+        this.metrics = metrics;
+        this.name = name;
+        this.parent = parent;
+    }
+
+    static Operation start(ConnectorMetrics metrics, String name) {
+        Operation operation = new Operation(metrics, name, CURRENT.get());
+        CURRENT.set(operation);
+        return operation;
+    }
+
+    /**
+     * @return the innermost operation running on this thread, or null
+     */
+    static Operation current() {
+        return CURRENT.get();
+    }
+
+    String getName() {
+        return name;
+    }
+
+    /**
+     * Safe to call from other threads, e.g., those of the parse pool
+     */
+    void addParseNanos(long nanos) {
+        parseNanos.add(nanos);
+    }
+
+    void addEvent() {
+        events++;
+    }
+
+    void addExchange(MetricsExec.Exchange exchange) {
+        exchanges.add(exchange);
+    }
+
+    /**
+     * Marks the operation as successful, for use in return statements
+     */
+    <T> T succeed(T result) {
+        success = true;
+        return result;
+    }
+
+    void succeed() {
+        success = true;
+    }
+
+    @Override
+    public void close() {
+        // bodies left unread, e.g., of a listing stopped early, end with the operation
+        for (MetricsExec.Exchange exchange : exchanges) {
+            exchange.finish();
+        }
+        if (parent != null) {
+            CURRENT.set(parent);
+        } else {
+            CURRENT.remove();
+        }
+        metrics.onOperation(name, success, System.nanoTime() - start, parseNanos.sum(), events, exchanges.size());
+    }
+}
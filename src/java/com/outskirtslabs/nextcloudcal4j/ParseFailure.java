@@ -0,0 +1,32 @@
+package com.outskirtslabs.nextcloudcal4j;
+
+/**
+ * A calendar resource whose calendar-data could not be parsed, reported instead of failing the whole listing
+ */
+public class ParseFailure {
+    private final String href;
+    private final String etag;
+    private final Exception error;
+
+    public ParseFailure(String href, String etag, Exception error) {
+        this.href = href;
+        this.etag = etag;
+        this.error = error;
+    }
+
+    public String getHref() {
+        return this.href;
+    }
+
+    public String getEtag() {
+        return this.etag;
+    }
+
+    public Exception getError() {
+        return this.error;
+    }
+
+    public String toString() {
+        return "ParseFailure(href=" + this.href + ", etag=" + this.etag + ", error=" + this.error + ")";
+    }
+}
@@ -0,0 +1,23 @@
+package com.outskirtslabs.nextcloudcal4j;
+
+/**
+ * What {@link NextcloudConnector#reconcile} does with a single event
+ */
+public enum ReconcileAction {
+    /**
+     * Desired but not in the calendar
+     */
+    CREATE,
+    /**
+     * In the calendar with different content
+     */
+    UPDATE,
+    /**
+     * In the calendar but no longer desired
+     */
+    DELETE,
+    /**
+     * In the calendar with the same content hash, nothing to do
+     */
+    UNCHANGED
+}
@@ -0,0 +1,55 @@
+package com.outskirtslabs.nextcloudcal4j;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Per-UID results of {@link NextcloudConnector#reconcile}, desired events first in the order given, then the deletions
+ */
+public class ReconcileReport {
+    private final boolean dryRun;
+    private final List<ReconcileResult> results;
+
+    public ReconcileReport(boolean dryRun, List<ReconcileResult> results) {
+        this.dryRun = dryRun;
+        this.results = Collections.unmodifiableList(results);
+    }
+
+    public boolean isDryRun() {
+        return this.dryRun;
+    }
+
+    public List<ReconcileResult> getResults() {
+        return this.results;
+    }
+
+    /**
+     * Number of results per action, failures included
+     */
+    public Map<ReconcileAction, Integer> getCounts() {
+        Map<ReconcileAction, Integer> counts = new EnumMap<>(ReconcileAction.class);
+        for (ReconcileAction action : ReconcileAction.values()) {
+            counts.put(action, 0);
+        }
+        for (ReconcileResult result : results) {
+            counts.merge(result.getAction(), 1, Integer::sum);
+        }
+        return counts;
+    }
+
+    public int getFailureCount() {
+        int failures = 0;
+        for (ReconcileResult result : results) {
+            if (result.getError() != null) {
+                failures++;
+            }
+        }
+        return failures;
+    }
+
+    public String toString() {
+        return "ReconcileReport(dryRun=" + this.dryRun + ", counts=" + getCounts() + ", failures=" + getFailureCount() + ")";
+    }
+}
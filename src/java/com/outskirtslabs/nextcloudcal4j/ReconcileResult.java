@@ -0,0 +1,60 @@
+package com.outskirtslabs.nextcloudcal4j;
+
+/**
+ * The outcome of reconciling one event
+ */
+public class ReconcileResult {
+    private final String uid;
+    private final ReconcileAction action;
+    private final String href;
+    private final String etag;
+    private final boolean applied;
+    private final Exception error;
+
+    public ReconcileResult(String uid, ReconcileAction action, String href, String etag, boolean applied, Exception error) {
+        this.uid = uid;
+        this.action = action;
+        this.href = href;
+        this.etag = etag;
+        this.applied = applied;
+        this.error = error;
+    }
+
+    public String getUid() {
+        return this.uid;
+    }
+
+    public ReconcileAction getAction() {
+        return this.action;
+    }
+
+    public String getHref() {
+        return this.href;
+    }
+
+    /**
+     * The ETag after the action was applied, or the current one for a dry run and unchanged events
+     */
+    public String getEtag() {
+        return this.etag;
+    }
+
+    /**
+     * False for dry runs, unchanged events and failures
+     */
+    public boolean isApplied() {
+        return this.applied;
+    }
+
+    /**
+     * Why the action failed, e.g., a {@link com.github.caldav4j.exceptions.ResourceOutOfDateException} when the event was
+     * changed by someone else between listing and writing. Null on success.
+     */
+    public Exception getError() {
+        return this.error;
+    }
+
+    public String toString() {
+        return "ReconcileResult(uid=" + this.uid + ", action=" + this.action + ", href=" + this.href + ", etag=" + this.etag + ", applied=" + this.applied + ", error=" + this.error + ")";
+    }
+}
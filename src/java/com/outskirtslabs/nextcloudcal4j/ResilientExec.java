@@ -0,0 +1,218 @@
+package com.outskirtslabs.nextcloudcal4j;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpException;
+import org.apache.http.NoHttpResponseException;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpExecutionAware;
+import org.apache.http.client.methods.HttpRequestWrapper;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.execchain.ClientExecChain;
+import org.apache.http.protocol.HttpCoreContext;
+import org.apache.http.util.EntityUtils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.time.Duration;
+import java.util.Date;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.apache.http.HttpStatus.*;
+
+/**
+ * Sits in the HTTP client's execution chain, so every request of the connector, including those caldav4j sends for it,
+ * is retried and guarded by the {@link CircuitBreaker} the same way.
+ * <p>
+ * 429 and 503 are retried for any method, the server did not process those requests. Other failures are only retried
+ * when repeating the request is harmless: a 502/504 or an I/O error after the request was sent only for idempotent
+ * methods, connection failures always. A PUT or DELETE with If-Match or If-None-Match does not count as idempotent: had the
+ * first attempt gone through, the retry would fail its precondition with a 412 for a write that succeeded. Retries wait with exponential backoff and jitter, or as long as the server's
+ * Retry-After asks. A Retry-After longer than {@link ConnectorOptions#getRetryMaxDelay()} is not waited for, the response
+ * is returned and the circuit is opened until then.
+ */
+public class ResilientExec implements ClientExecChain {
+    // not in HttpStatus of httpcore 4.4
+    private static final int SC_TOO_MANY_REQUESTS = 429;
+    private static final Set<String> IDEMPOTENT_METHODS = Set.of("GET", "HEAD", "OPTIONS", "PUT", "DELETE", "PROPFIND", "REPORT");
+    private static final Set<String> SAFE_METHODS = Set.of("GET", "HEAD", "OPTIONS", "PROPFIND", "REPORT");
+
+    private final ClientExecChain next;
+    private final int maxRetries;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final CircuitBreaker circuitBreaker;
+    private final AtomicLong retries;
+
+    public ResilientExec(ClientExecChain next, ConnectorOptions options, CircuitBreaker circuitBreaker, AtomicLong retries) {
+        this.next = next;
+        this.maxRetries = options.getMaxRetries();
+        this.baseDelayMillis = options.getRetryBaseDelay().toMillis();
+        this.maxDelayMillis = options.getRetryMaxDelay().toMillis();
+        this.circuitBreaker = circuitBreaker;
+        this.retries = retries;
+    }
+
+    @Override
+    public CloseableHttpResponse execute(HttpRoute route, HttpRequestWrapper request, HttpClientContext context,
+                                         HttpExecutionAware execAware) throws IOException, HttpException {
+        if (!circuitBreaker.tryAcquire()) {
+            throw new CircuitOpenException("Not sending " + request.getMethod() + " " + request.getURI() + ", nextcloud is failing");
+        }
+        boolean idempotent = IDEMPOTENT_METHODS.contains(request.getMethod()) && !conditionalWrite(request);
+        Header[] originalHeaders = request.getAllHeaders();
+        boolean staleRetried = false;
+        // whether the breaker was told the outcome, a probe that never reports one would keep the circuit half open
+        boolean settled = false;
+        try {
+            for (int attempt = 0; ; attempt++) {
+                // the rest of the chain adds headers to the request, e.g., Authorization
+                request.setHeaders(originalHeaders);
+                context.setAttribute(HttpCoreContext.HTTP_REQ_SENT, Boolean.FALSE);
+                CloseableHttpResponse response;
+                try {
+                    response = next.execute(route, request, context, execAware);
+                } catch (IOException e) {
+                    if (e instanceof NoHttpResponseException && !staleRetried && idempotent && repeatable(request)) {
+                        // most likely a pooled connection the server had already closed, try a fresh one right away
+                        staleRetried = true;
+                        attempt--;
+                        continue;
+                    }
+                    if (attempt >= maxRetries || !retriable(e, request, context, idempotent, execAware)) {
+                        settled = true;
+                        circuitBreaker.onFailure();
+                        throw e;
+                    }
+                    sleep(backoff(attempt));
+                    retries.incrementAndGet();
+                    continue;
+                } catch (HttpException | RuntimeException e) {
+                    settled = true;
+                    circuitBreaker.onFailure();
+                    throw e;
+                }
+
+                int status = response.getStatusLine().getStatusCode();
+                if (!failed(status)) {
+                    settled = true;
+                    circuitBreaker.onSuccess();
+                    return response;
+                }
+                Duration retryAfter = retryAfter(response);
+                if (retryAfter != null && retryAfter.toMillis() > maxDelayMillis) {
+                    settled = true;
+                    circuitBreaker.openFor(retryAfter);
+                    return response;
+                }
+                if (attempt >= maxRetries || !retriable(status, request, idempotent, execAware)) {
+                    settled = true;
+                    circuitBreaker.onFailure();
+                    return response;
+                }
+                EntityUtils.consumeQuietly(response.getEntity());
+                response.close();
+                sleep(retryAfter != null ? retryAfter.toMillis() : backoff(attempt));
+                retries.incrementAndGet();
+            }
+        } finally {
+            if (!settled) {
+                // interrupted while waiting to retry, or an Error
+                circuitBreaker.onAbandoned();
+            }
+        }
+    }
+
+    /**
+     * Responses that count against the circuit breaker
+     */
+    private static boolean failed(int status) {
+        return status == SC_TOO_MANY_REQUESTS || status >= SC_INTERNAL_SERVER_ERROR;
+    }
+
+    private static boolean retriable(int status, HttpRequestWrapper request, boolean idempotent, HttpExecutionAware execAware) {
+        if (execAware != null && execAware.isAborted() || !repeatable(request)) {
+            return false;
+        }
+        switch (status) {
+            case SC_TOO_MANY_REQUESTS:
+            case SC_SERVICE_UNAVAILABLE:
+                return true;
+            case SC_BAD_GATEWAY:
+            case SC_GATEWAY_TIMEOUT:
+                return idempotent;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean retriable(IOException e, HttpRequestWrapper request, HttpClientContext context, boolean idempotent,
+                                     HttpExecutionAware execAware) {
+        if (execAware != null && execAware.isAborted() || !repeatable(request)) {
+            return false;
+        }
+        if (e instanceof ConnectException || e instanceof ConnectTimeoutException) {
+            return true;
+        }
+        if (e instanceof InterruptedIOException) {
+            // a socket timeout already waited long enough, don't make the caller wait that long again
+            return false;
+        }
+        return idempotent || !context.isRequestSent();
+    }
+
+    private static boolean conditionalWrite(HttpRequestWrapper request) {
+        return !SAFE_METHODS.contains(request.getMethod())
+                && (request.containsHeader("If-Match") || request.containsHeader("If-None-Match"));
+    }
+
+    private static boolean repeatable(HttpRequestWrapper request) {
+        if (request instanceof HttpEntityEnclosingRequest) {
+            HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+            return entity == null || entity.isRepeatable();
+        }
+        return true;
+    }
+
+    /**
+     * Exponential backoff with "equal jitter": half the delay is fixed, the other half random, so concurrent clients
+     * spread out without any retry coming back immediately
+     */
+    private long backoff(int attempt) {
+        long delay = Math.min(maxDelayMillis, baseDelayMillis << Math.min(attempt, 30));
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    /**
+     * @return the delay the server asked for in either Retry-After format, or null if it did not
+     */
+    static Duration retryAfter(CloseableHttpResponse response) {
+        Header header = response.getFirstHeader("Retry-After");
+        if (header == null) {
+            return null;
+        }
+        String value = header.getValue().trim();
+        try {
+            return Duration.ofSeconds(Math.max(0, Long.parseLong(value)));
+        } catch (NumberFormatException notSeconds) {
+            Date date = DateUtils.parseDate(value);
+            return date == null ? null : Duration.ofMillis(Math.max(0, date.getTime() - System.currentTimeMillis()));
+        }
+    }
+
+    private static void sleep(long millis) throws InterruptedIOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry");
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.outskirtslabs.nextcloudcal4j;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The outcome of a sync-collection REPORT (RFC 6578).
+ * Only hrefs and ETags are returned; callers fetch the calendar data for the changed hrefs themselves if they need it.
+ */
+public class SyncResult {
+    private final String syncToken;
+    private final String ctag;
+    private final Map<String, String> changed;
+    private final List<String> deleted;
+    private final boolean fullResync;
+
+    public SyncResult(String syncToken, String ctag, Map<String, String> changed, List<String> deleted, boolean fullResync) {
+        this.syncToken = syncToken;
+        this.ctag = ctag;
+        this.changed = Collections.unmodifiableMap(changed);
+        this.deleted = Collections.unmodifiableList(deleted);
+        this.fullResync = fullResync;
+    }
+
+    public static SyncResult unchanged(CollectionState state) {
+        return new SyncResult(state.getSyncToken(), state.getCtag(), Collections.emptyMap(), Collections.emptyList(), false);
+    }
+
+    /**
+     * The token to pass to the next {@link NextcloudConnector#syncChanges(String)} call
+     */
+    public String getSyncToken() {
+        return this.syncToken;
+    }
+
+    public String getCtag() {
+        return this.ctag;
+    }
+
+    /**
+     * Added or modified resources, href -> ETag, in server order
+     */
+    public Map<String, String> getChanged() {
+        return this.changed;
+    }
+
+    /**
+     * Hrefs of the resources removed since the given token
+     */
+    public List<String> getDeleted() {
+        return this.deleted;
+    }
+
+    /**
+     * True when the server did not accept the old token (or none was given) and every resource is listed in {@link #getChanged()}.
+     * In that case {@link #getDeleted()} is empty and the caller must drop anything it knows that is not in {@link #getChanged()}.
+     */
+    public boolean isFullResync() {
+        return this.fullResync;
+    }
+
+    public boolean isEmpty() {
+        return this.changed.isEmpty() && this.deleted.isEmpty();
+    }
+
+    public String toString() {
+        return "SyncResult(syncToken=" + this.syncToken + ", ctag=" + this.ctag + ", changed=" + this.changed.size() + ", deleted=" + this.deleted.size() + ", fullResync=" + this.fullResync + ")";
+    }
+}
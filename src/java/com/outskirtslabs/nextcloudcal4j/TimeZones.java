@@ -0,0 +1,75 @@
+package com.outskirtslabs.nextcloudcal4j;
+
+import net.fortuna.ical4j.model.TimeZone;
+import net.fortuna.ical4j.model.TimeZoneRegistry;
+import net.fortuna.ical4j.model.TimeZoneRegistryFactory;
+import net.fortuna.ical4j.model.component.VTimeZone;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.text.ParseException;
+import java.time.ZoneId;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process-wide cache of ical4j timezone definitions.
+ * <p>
+ * Creating a registry and loading a zone's VTIMEZONE definition is expensive, and we only ever use a handful of zones,
+ * so each zone is loaded once. ical4j's timezone objects are mutable, e.g., an observance caches the onsets it computed
+ * without any locking, so the loaded definition is never handed out: every caller gets a copy of its own.
+ */
+public final class TimeZones {
+    private static final TimeZoneRegistry REGISTRY = TimeZoneRegistryFactory.getInstance().createRegistry();
+    // only ever copied from, empty for zones ical4j does not know
+    private static final Map<String, Optional<VTimeZone>> DEFINITIONS = new ConcurrentHashMap<>();
+
+    private TimeZones() {
+    }
+
+    /**
+     * Whether ical4j has a VTIMEZONE for the zone, without copying it
+     */
+    public static boolean isKnown(ZoneId zoneId) {
+        return zoneId != null && definition(zoneId.getId()).isPresent();
+    }
+
+    /**
+     * @return a new ical4j timezone for the zone, or null if ical4j does not know it
+     */
+    public static TimeZone get(ZoneId zoneId) {
+        VTimeZone vTimeZone = getVTimeZone(zoneId);
+        return vTimeZone != null ? new TimeZone(vTimeZone) : null;
+    }
+
+    /**
+     * @return a copy of the zone's VTIMEZONE the caller may modify, or null if ical4j does not know the zone
+     */
+    public static VTimeZone getVTimeZone(ZoneId zoneId) {
+        if (zoneId == null) {
+            return null;
+        }
+        Optional<VTimeZone> definition = definition(zoneId.getId());
+        if (definition.isEmpty()) {
+            return null;
+        }
+        try {
+            return (VTimeZone) definition.get().copy();
+        } catch (ParseException | IOException | URISyntaxException e) {
+            throw new IllegalStateException("Could not copy the VTIMEZONE of " + zoneId, e);
+        }
+    }
+
+    private static Optional<VTimeZone> definition(String id) {
+        return DEFINITIONS.computeIfAbsent(id, TimeZones::load);
+    }
+
+    private static Optional<VTimeZone> load(String id) {
+        // the registry itself is not thread-safe
+        synchronized (REGISTRY) {
+            TimeZone timeZone = REGISTRY.getTimeZone(id);
+            return Optional.ofNullable(timeZone != null ? timeZone.getVTimeZone() : null);
+        }
+    }
+}
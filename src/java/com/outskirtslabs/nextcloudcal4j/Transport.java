@@ -0,0 +1,16 @@
+package com.outskirtslabs.nextcloudcal4j;
+
+/**
+ * How {@link NextcloudConnector} talks to the server, see {@link ConnectorOptions#getTransport()}
+ */
+public enum Transport {
+    /**
+     * Apache HttpClient with a pool of HTTP/1.1 connections, one request in flight per connection
+     */
+    HTTP_1_1,
+    /**
+     * The JDK's HTTP client, which multiplexes all concurrent requests over a single HTTP/2 connection.
+     * Falls back to HTTP/1.1 when the server does not offer HTTP/2.
+     */
+    HTTP_2
+}
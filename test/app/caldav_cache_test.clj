@@ -0,0 +1,77 @@
+(ns app.caldav-cache-test
+  (:require [clojure.test :refer :all])
+  (:import
+   (com.outskirtslabs.nextcloudcal4j CollectionState Event EventCache SyncResult)
+   (java.time Duration)))
+
+(defn- event [uid]
+  (Event. uid nil nil nil uid nil nil nil nil nil nil))
+
+(defn- cache [& uids]
+  (let [c (EventCache. 100 (Duration/ofMinutes 10))]
+    (doseq [uid uids]
+      (.put c uid (str "/cal/" uid ".ics") (str uid "1") (event uid)))
+    c))
+
+(defn- state [n]
+  (CollectionState. (str "ctag-" n) (str "token-" n)))
+
+(defn- delta
+  ([changed]
+   (delta changed []))
+  ([changed deleted]
+   (SyncResult. "token-x" "ctag-x" changed deleted false)))
+
+(defn- cached [^EventCache c & uids]
+  (set (filter #(.get c %) uids)))
+
+(deftest the-first-revalidation-adopts-the-state
+  (let [c (cache "a" "b")]
+    (is (not (.isStale c (state 1))))
+    (is (false? (.revalidate c (state 1) nil)))
+    (is (= #{"a" "b"} (cached c "a" "b")))
+    (is (= "token-1" (.getSyncToken c)))
+    (is (.isStale c (state 2)))))
+
+(deftest a-delta-drops-only-what-others-changed
+  (let [c (cache "a" "b" "c" "d")]
+    (.revalidate c (state 1) nil)
+    (.putOwnWrite c "a" "/cal/a.ics" "a2" (event "a"))
+    (is (false? (.revalidate c (state 2) (delta {"/cal/a.ics" "a2" "/cal/b.ics" "b2"} ["/cal/c.ics"]))))
+    (is (= #{"a" "d"} (cached c "a" "b" "c" "d")))
+    (is (zero? (.getInvalidations c)))))
+
+(deftest an-own-write-overwritten-by-someone-else-is-dropped
+  (let [c (cache "a")]
+    (.revalidate c (state 1) nil)
+    (.putOwnWrite c "a" "/cal/a.ics" "a2" (event "a"))
+    (.revalidate c (state 2) (delta {"/cal/a.ics" "a3"}))
+    (is (empty? (cached c "a")))))
+
+(deftest own-writes-only-count-until-the-next-revalidation
+  (let [c (cache "a")]
+    (.revalidate c (state 1) nil)
+    (.putOwnWrite c "a" "/cal/a.ics" "a2" (event "a"))
+    (.revalidate c (state 2) (delta {"/cal/a.ics" "a2"}))
+    (is (= #{"a"} (cached c "a")))
+    (.revalidate c (state 3) (delta {"/cal/a.ics" "a2"}))
+    (is (empty? (cached c "a")))))
+
+(deftest without-a-usable-delta-everything-is-dropped
+  (testing "no delta"
+    (let [c (cache "a" "b")]
+      (.revalidate c (state 1) nil)
+      (.putOwnWrite c "a" "/cal/a.ics" "a2" (event "a"))
+      (is (true? (.revalidate c (state 2) nil)))
+      (is (empty? (cached c "a" "b")))
+      (is (= 1 (.getInvalidations c)))))
+  (testing "full resync"
+    (let [c (cache "a")]
+      (.revalidate c (state 1) nil)
+      (is (true? (.revalidate c (state 2) (SyncResult. "t" "c" {"/cal/a.ics" "a1"} [] true))))
+      (is (empty? (cached c "a")))))
+  (testing "an unchanged ctag keeps everything"
+    (let [c (cache "a")]
+      (.revalidate c (state 1) nil)
+      (is (false? (.revalidate c (state 1) nil)))
+      (is (= #{"a"} (cached c "a"))))))
@@ -0,0 +1,76 @@
+(ns app.caldav-calendars-test
+  (:require [app.caldav-stub :as stub]
+            [clojure.string :as str]
+            [clojure.test :refer :all])
+  (:import
+   (com.outskirtslabs.nextcloudcal4j CalendarDescriptor ConnectorOptions$ConnectorOptionsBuilder)
+   (java.time Duration)))
+
+(defn- descriptor [^CalendarDescriptor d]
+  [(.getHref d) (.getDisplayName d) (.getCtag d) (.getSyncToken d) (vec (.getSupportedComponents d))])
+
+(defn- propfinds
+  "The PROPFINDs of the root since the count n, :full when they asked for every property of a calendar, else :ctags"
+  [server n]
+  (for [{:keys [path body]} (stub/requests server "PROPFIND" n)
+        :when (= stub/root path)]
+    (if (str/includes? body "displayname") :full :ctags)))
+
+(defn- check-every-time [builder]
+  (.ctagCheckInterval ^ConnectorOptions$ConnectorOptionsBuilder builder Duration/ZERO))
+
+(deftest lists-the-calendars
+  (let [server (stub/start! (stub/event "a" "A"))]
+    (try
+      (swap! (:calendar server) assoc :calendars {"/calendars/tasks/" {:name "Tasks" :ctag "x1" :components ["VTODO"]}})
+      (with-open [c (stub/connector server check-every-time)]
+        (let [calendars (.getAllCalendars c stub/root)]
+          (is (= [["/cal/" "Gigs" "c1" "t1" ["VEVENT"]]
+                  ["/calendars/tasks/" "Tasks" "x1" nil ["VTODO"]]]
+                 (mapv descriptor calendars)))
+          (is (= [:full] (propfinds server 0)))
+          (testing "what a calendar may hold"
+            (is (.supports ^CalendarDescriptor (first calendars) "VEVENT"))
+            (is (not (.supports ^CalendarDescriptor (second calendars) "VEVENT"))))))
+      (finally
+        (stub/stop! server)))))
+
+(deftest revalidates-the-cached-list-with-the-ctags
+  (let [server (stub/start! (stub/event "a" "A"))
+        calendars! (fn [c]
+                     (let [n (count (stub/requests server))]
+                       [(mapv descriptor (.getAllCalendars c stub/root)) (vec (propfinds server n))]))]
+    (try
+      (with-open [c (stub/connector server check-every-time)]
+        (let [[first-list] (calendars! c)]
+          (testing "unchanged calendars cost a PROPFIND of the ctags only"
+            (is (= [first-list [:ctags]] (calendars! c))))
+          (testing "a changed ctag fetches the list again"
+            (stub/put-external! server (stub/event "b" "B"))
+            (let [[calendars sent] (calendars! c)]
+              (is (= [:ctags :full] sent))
+              (is (= "c2" (nth (first calendars) 2)))))
+          (testing "so does an added calendar"
+            (swap! (:calendar server) assoc-in [:calendars "/calendars/tasks/"] {:name "Tasks" :ctag "x1" :components ["VTODO"]})
+            (let [[calendars sent] (calendars! c)]
+              (is (= [:ctags :full] sent))
+              (is (= ["/cal/" "/calendars/tasks/"] (map first calendars)))))
+          (testing "and a removed one"
+            (swap! (:calendar server) update :calendars dissoc "/calendars/tasks/")
+            (let [[calendars sent] (calendars! c)]
+              (is (= [:ctags :full] sent))
+              (is (= ["/cal/"] (map first calendars)))))
+          (is (= [:ctags] (second (calendars! c))))))
+      (finally
+        (stub/stop! server)))))
+
+(deftest trusts-the-cached-list-within-the-check-interval
+  (let [server (stub/start!)]
+    (try
+      (with-open [c (stub/connector server #(.ctagCheckInterval ^ConnectorOptions$ConnectorOptionsBuilder % (Duration/ofMinutes 1)))]
+        (let [calendars (.getAllCalendars c stub/root)]
+          (stub/put-external! server (stub/event "b" "B"))
+          (is (identical? calendars (.getAllCalendars c stub/root)))
+          (is (= [:full] (propfinds server 0)))))
+      (finally
+        (stub/stop! server)))))
@@ -0,0 +1,60 @@
+(ns app.caldav-conditional-write-test
+  (:require [app.caldav-stub :as stub]
+            [clojure.test :refer :all])
+  (:import
+   (com.github.caldav4j.exceptions ResourceOutOfDateException)))
+
+(defn- one-request
+  "Calls f and returns the single request it sent"
+  [server f]
+  (let [before (count (stub/requests server))]
+    (f)
+    (let [sent (stub/requests server nil before)]
+      (is (= 1 (count sent)) (str "expected one request, got " (mapv :method sent)))
+      (first sent))))
+
+(deftest put-event-sends-its-precondition
+  (let [server (stub/start!)]
+    (try
+      (with-open [c (stub/connector server)]
+        (let [gig (stub/event "gig" "Gig")
+              created (atom nil)]
+          (testing "creating sends If-None-Match: * and returns the new ETag"
+            (let [{:keys [method path headers]} (one-request server #(reset! created (.putEvent c gig nil)))]
+              (is (= ["PUT" (stub/href "gig") "*" nil] [method path (headers "if-none-match") (headers "if-match")])))
+            (is (= (get-in @(:calendar server) [:resources (stub/href "gig") :etag]) @created)))
+          (testing "creating it again fails"
+            (is (thrown? ResourceOutOfDateException (.putEvent c gig nil))))
+          (testing "updating the version we saw sends If-Match with its ETag"
+            (let [updated (atom nil)
+                  {:keys [headers]} (one-request server #(reset! updated (.putEvent c (stub/event "gig" "Gig, moved") @created)))]
+              (is (= @created (headers "if-match")))
+              (is (not= @created @updated))
+              (testing "and the version we saw is now stale"
+                (is (thrown? ResourceOutOfDateException (.putEvent c (stub/event "gig" "Gig, again") @created)))
+                (is (= @updated (get-in @(:calendar server) [:resources (stub/href "gig") :etag]))))))
+          (testing "* only overwrites an event that exists"
+            (is (.putEvent c (stub/event "gig" "Gig, overwritten") "*"))
+            (is (thrown? ResourceOutOfDateException (.putEvent c (stub/event "nope" "Nope") "*")))
+            (is (not (contains? (:resources @(:calendar server)) (stub/href "nope")))))
+          (is (empty? (stub/requests server "GET")))))
+      (finally
+        (stub/stop! server)))))
+
+(deftest delete-event-sends-its-precondition
+  (let [server (stub/start! (stub/event "gig" "Gig"))]
+    (try
+      (with-open [c (stub/connector server)]
+        (let [current (get-in @(:calendar server) [:resources (stub/href "gig") :etag])]
+          (testing "a stale ETag leaves the event alone"
+            (is (thrown? ResourceOutOfDateException (.deleteEvent c "gig" "\"stale\"")))
+            (is (contains? (:resources @(:calendar server)) (stub/href "gig"))))
+          (testing "the current ETag deletes it with one DELETE"
+            (let [{:keys [method headers]} (one-request server #(is (true? (.deleteEvent c "gig" current))))]
+              (is (= ["DELETE" current] [method (headers "if-match")])))
+            (is (empty? (:resources @(:calendar server)))))
+          (testing "deleting it again finds nothing"
+            (is (false? (.deleteEvent c "gig" nil)))
+            (is (false? (.deleteEvent c "gig" current))))))
+      (finally
+        (stub/stop! server)))))
@@ -0,0 +1,97 @@
+(ns app.caldav-http2-test
+  (:require [app.http2-stub :as stub]
+            [clojure.string :as str]
+            [clojure.test :refer :all])
+  (:import
+   (com.outskirtslabs.nextcloudcal4j ConnectorOptions Event NextcloudConnector Transport)
+   (java.time Duration Instant ZoneId)))
+
+(defn- event [uid]
+  (Event. (str "Probe " uid) (Instant/parse "2030-01-01T18:00:00Z") (Instant/parse "2030-01-01T20:00:00Z")
+          (Instant/parse "2029-12-01T00:00:00Z") uid nil nil nil nil (ZoneId/of "UTC") nil))
+
+(defn- xml-escape [s]
+  (-> s (str/replace "&" "&amp;") (str/replace "<" "&lt;") (str/replace ">" "&gt;")))
+
+(defn- multistatus [& responses]
+  (str "<?xml version=\"1.0\"?>"
+       "<d:multistatus xmlns:d=\"DAV:\" xmlns:cal=\"urn:ietf:params:xml:ns:caldav\" xmlns:cs=\"http://calendarserver.org/ns/\">"
+       (apply str responses)
+       "</d:multistatus>"))
+
+(defn- response [href prop]
+  (str "<d:response><d:href>" href "</d:href><d:propstat><d:prop>" prop "</d:prop>"
+       "<d:status>HTTP/1.1 200 OK</d:status></d:propstat></d:response>"))
+
+(defn- caldav-handler
+  "Answers like a CalDAV server, recording every request and the most requests ever in flight at once. The first request
+  is answered right away, the others are held until expected of them are in flight together, or for a few seconds."
+  [requests in-flight max-in-flight expected]
+  (let [all-in (promise)]
+    (fn [{:keys [method path] :as request}]
+      (let [n (count (swap! requests conj request))
+            now (swap! in-flight inc)]
+        (swap! max-in-flight max now)
+        (when (<= expected now)
+          (deliver all-in true))
+        (try
+          (when (< 1 n)
+            (deref all-in 5000 nil))
+          (case method
+            "PROPFIND" {:status  207
+                        :headers {"content-type" "application/xml; charset=utf-8"}
+                        :body    (multistatus (response "/cal/" "<cs:getctag>ctag-1</cs:getctag><d:sync-token>token-1</d:sync-token>"))}
+            "REPORT" {:status  207
+                      :headers {"content-type" "application/xml; charset=utf-8"}
+                      :body    (multistatus (response "/cal/listed.ics"
+                                                      (str "<d:getetag>&quot;e1&quot;</d:getetag><cal:calendar-data>"
+                                                           (xml-escape (str (.toICal (event "listed"))))
+                                                           "</cal:calendar-data>")))}
+            "PUT" {:status 201 :headers {"etag" (str "\"" (hash path) "\"")}}
+            "DELETE" {:status 204})
+          (finally
+            (swap! in-flight dec)))))))
+
+(defn- connector ^NextcloudConnector [{:keys [port ssl-context]}]
+  (NextcloudConnector. "localhost" "user" "secret" "/cal/"
+                       (-> (ConnectorOptions/builder)
+                           (.port port)
+                           (.transport Transport/HTTP_2)
+                           (.sslContext ssl-context)
+                           (.cacheMaxSize 0)
+                           (.retryBaseDelay (Duration/ofMillis 5))
+                           (.build))))
+
+(deftest multiplexes-requests-over-one-connection
+  (let [calls-count 11
+        requests (atom [])
+        in-flight (atom 0)
+        max-in-flight (atom 0)
+        ;; the first request opens the connection alone, the others should then all be in flight at once
+        server (stub/start! (caldav-handler requests in-flight max-in-flight (dec calls-count)))]
+    (try
+      (with-open [c (connector server)]
+        (let [calls (concat
+                     (for [_ (range 3)] #(.getCtag (.getCollectionState c)))
+                     (for [i (range 4)] #(.putEvent c (event (str "put-" i)) nil))
+                     (for [i (range 3)] #(.deleteEvent c (str "del-" i) nil))
+                     [#(mapv (fn [e] (get e Event/UID)) (.listEvents c (Instant/parse "2030-01-01T00:00:00Z") (Instant/parse "2030-01-02T00:00:00Z")))])
+              results (mapv deref (mapv future-call calls))]
+          (is (= calls-count (count calls)))
+          (testing "every call got its answer"
+            (is (= ["ctag-1" "ctag-1" "ctag-1"] (take 3 results)))
+            (is (every? string? (take 4 (drop 3 results))))
+            (is (= [true true true] (take 3 (drop 7 results))))
+            (is (= ["listed"] (last results))))
+          (testing "all requests shared one connection and ran at the same time"
+            (is (= 1 @(:connections server)))
+            (is (nil? (.getPoolStats c)) "there is no pool to report on")
+            (is (= (dec (count calls)) @max-in-flight)))
+          (testing "basic auth is sent up front on every request"
+            (is (= (count calls) (count @requests)))
+            (is (every? #(= "Basic dXNlcjpzZWNyZXQ=" (get-in % [:headers "authorization"])) @requests)))
+          (testing "request bodies arrive intact"
+            (is (every? #(str/includes? (:body %) "BEGIN:VCALENDAR") (filter #(= "PUT" (:method %)) @requests)))
+            (is (some #(str/includes? (:body %) "calendar-query") (filter #(= "REPORT" (:method %)) @requests))))))
+      (finally
+        (stub/stop! server)))))
@@ -0,0 +1,38 @@
+(ns app.caldav-list-test
+  (:require [app.caldav-stub :as stub]
+            [clojure.test :refer :all])
+  (:import
+   (com.outskirtslabs.nextcloudcal4j ConnectorOptions$ConnectorOptionsBuilder Event)
+   (java.time Instant)))
+
+(defn- at [s]
+  (Instant/parse s))
+
+(defn- uids [events]
+  (sort (map #(get % Event/UID) events)))
+
+(deftest lists-the-events-in-a-window
+  (let [server (stub/start! (stub/event "a" "A" (at "2030-01-01T18:00:00Z")) (stub/event "b" "B" (at "2030-01-03T18:00:00Z"))
+                            (stub/event "c" "C" (at "2030-01-10T18:00:00Z")))]
+    (try
+      (with-open [c (stub/connector server)
+                  projected (stub/connector server #(.projection ^ConnectorOptions$ConnectorOptionsBuilder % true))]
+        (testing "the server is asked for the window only"
+          (let [events (.listEvents c (at "2030-01-02T00:00:00Z") (at "2030-01-05T00:00:00Z"))
+                request (peek (stub/requests server "REPORT"))]
+            (is (= ["b"] (uids events)))
+            (is (= :query (stub/report-kind request)))
+            (is (= [(at "2030-01-02T00:00:00Z") (at "2030-01-05T00:00:00Z")] (stub/time-range (:body request))))
+            (is (= "B" (get (first events) Event/SUMMARY)))
+            (is (= (at "2030-01-03T18:00:00Z") (get (first events) Event/START_TIME)))))
+        (testing "an event ending where the window starts is not in it"
+          (is (= ["b" "c"] (uids (.listEvents c (at "2030-01-01T19:00:00Z") nil))))
+          (is (= [(at "2030-01-01T19:00:00Z") nil] (stub/time-range (:body (peek (stub/requests server "REPORT")))))))
+        (testing "without bounds there is no filter"
+          (is (= ["a" "b" "c"] (uids (.listEvents c nil nil))))
+          (is (= [nil nil] (stub/time-range (:body (peek (stub/requests server "REPORT")))))))
+        (testing "the projection lists the same"
+          (is (= (.listEvents c (at "2030-01-01T00:00:00Z") (at "2030-01-04T00:00:00Z"))
+                 (.listEvents projected (at "2030-01-01T00:00:00Z") (at "2030-01-04T00:00:00Z"))))))
+      (finally
+        (stub/stop! server)))))
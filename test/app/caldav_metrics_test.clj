@@ -0,0 +1,82 @@
+(ns app.caldav-metrics-test
+  (:require [app.caldav-stub :as stub]
+            [clojure.test :refer :all])
+  (:import
+   (com.outskirtslabs.nextcloudcal4j ConnectorMetrics ConnectorOptions$ConnectorOptionsBuilder)
+   (java.time Duration)))
+
+(defn- recorder
+  "Metrics that keep what they are told in the atom, in order"
+  [seen]
+  (reify ConnectorMetrics
+    (onRequest [_ operation method status request-bytes response-bytes duration-nanos]
+      (swap! seen conj {:request operation :method method :status status :request-bytes request-bytes
+                        :response-bytes response-bytes :nanos duration-nanos}))
+    (onOperation [_ operation success duration-nanos parse-nanos events requests]
+      (swap! seen conj {:operation operation :success success :nanos duration-nanos :parse-nanos parse-nanos
+                        :events events :requests requests}))))
+
+(defn- connector [server seen]
+  (stub/connector server #(-> ^ConnectorOptions$ConnectorOptionsBuilder %
+                              (.metrics (recorder seen))
+                              (.ctagCheckInterval Duration/ZERO))))
+
+(defn- summary
+  "What was reported, without the sizes and durations"
+  [seen]
+  (mapv #(if (:request %)
+           [(:request %) (:method %) (:status %)]
+           [(:operation %) (:success %) (:events %) (:requests %)])
+        seen))
+
+(deftest reports-exchanges-and-operations
+  (let [server (stub/start! (stub/event "a" "A") (stub/event "b" "B"))
+        seen (atom [])]
+    (try
+      (with-open [c (connector server seen)]
+        (.listAllEvents c)
+        (is (= [["list" "REPORT" 207] ["list" true 2 1]] (summary @seen)))
+        (let [[request operation] @seen]
+          (is (pos? (:request-bytes request)))
+          (is (pos? (:response-bytes request)))
+          (is (pos? (:parse-nanos operation)))
+          (is (<= (:nanos request) (:nanos operation)))))
+      (finally
+        (stub/stop! server)))))
+
+(deftest attributes-exchanges-to-the-innermost-operation
+  (let [server (stub/start! (stub/event "a" "A"))
+        seen (atom [])]
+    (try
+      (with-open [c (connector server seen)]
+        (testing "the ctag check of a get is an operation of its own, the get's REPORT still counts for the get"
+          (.getEventByUID c "a")
+          (is (= [["propfind" "PROPFIND" 207] ["propfind" true 0 1]
+                  ["get" "REPORT" 207] ["get" true 1 1]]
+                 (summary @seen))))
+        (testing "a cached get only costs the ctag check"
+          (reset! seen [])
+          (.getEventByUID c "a")
+          (is (= [["propfind" "PROPFIND" 207] ["propfind" true 0 1] ["get" true 0 0]]
+                 (summary @seen)))))
+      (finally
+        (stub/stop! server)))))
+
+(deftest reports-retries-and-failures
+  (let [server (stub/start!)
+        seen (atom [])]
+    (try
+      (with-open [c (connector server seen)]
+        (testing "every attempt is an exchange of the operation"
+          (reset! (:faults server) [[503 {"Retry-After" "0"}]])
+          (.getCollectionState c)
+          (is (= [["propfind" "PROPFIND" 503] ["propfind" "PROPFIND" 207] ["propfind" true 0 2]]
+                 (summary @seen))))
+        (testing "an operation that throws is not a success"
+          (reset! seen [])
+          (reset! (:faults server) [[404]])
+          (is (thrown? Exception (.getCollectionState c)))
+          (is (= [["propfind" "PROPFIND" 404] ["propfind" false 0 1]]
+                 (summary @seen)))))
+      (finally
+        (stub/stop! server)))))
@@ -0,0 +1,31 @@
+(ns app.caldav-multiget-test
+  (:require [app.caldav-stub :as stub]
+            [clojure.test :refer :all])
+  (:import
+   (com.outskirtslabs.nextcloudcal4j ConnectorOptions$ConnectorOptionsBuilder)))
+
+(deftest fetches-many-events-in-batches
+  (let [server (apply stub/start! (for [i (range 5)] (stub/event (str "e" i) (str "Event " i))))]
+    (try
+      (with-open [c (stub/connector server #(.multigetBatchSize ^ConnectorOptions$ConnectorOptionsBuilder % 2))]
+        (let [events (.getEventsByUIDs c ["e0" "e1" "missing" "e2" "e3" "e4"])
+              reports (stub/requests server "REPORT")]
+          (testing "every event that exists, keyed by UID"
+            (is (= #{"e0" "e1" "e2" "e3" "e4"} (set (keys events))))
+            (is (= "Event 3" (.getSummary (get events "e3")))))
+          (testing "one calendar-multiget per batch of at most 2 hrefs, nothing else"
+            (is (= 3 (count reports)))
+            (is (every? #(= :multiget (stub/report-kind %)) reports))
+            (is (= [2 2 2] (map #(count (stub/hrefs (:body %))) reports)))
+            (is (= 3 (count (stub/requests server)))))))
+      (finally
+        (stub/stop! server)))))
+
+(deftest an-empty-request-sends-nothing
+  (let [server (stub/start!)]
+    (try
+      (with-open [c (stub/connector server)]
+        (is (empty? (.getEventsByUIDs c [])))
+        (is (empty? (stub/requests server))))
+      (finally
+        (stub/stop! server)))))
@@ -0,0 +1,42 @@
+(ns app.caldav-parallel-parse-test
+  (:require [app.caldav-stub :as stub]
+            [clojure.test :refer :all])
+  (:import
+   (com.outskirtslabs.nextcloudcal4j ConnectorOptions$ConnectorOptionsBuilder Event EventListing ParseFailure)
+   (java.io IOException)
+   (java.time Instant)))
+
+(def ^:private t0 (Instant/parse "2030-01-01T18:00:00Z"))
+
+(defn- listing [^EventListing l]
+  [(mapv #(get % Event/UID) (.getEvents l))
+   (.getEvents l)
+   (mapv #(.getHref ^ParseFailure %) (.getFailures l))])
+
+(defn- parallelism [n projection]
+  #(-> ^ConnectorOptions$ConnectorOptionsBuilder %
+       (.parseParallelism n)
+       (.projection projection)))
+
+(deftest parses-in-parallel-like-in-sequence
+  ;; more events than the 2 * 64 parses kept in flight
+  (let [server (apply stub/start! (for [i (range 300)]
+                                    (stub/event (str "e" i) (str "Event " i) (.plusSeconds t0 (* 3600 (mod (* 7 i) 300))))))]
+    (try
+      (swap! (:calendar server) assoc-in [:resources "/cal/broken.ics"] {:etag "\"b\"" :ics "BEGIN:VCALENDAR\r\nBEGIN:VEVENT\r\nDTSTART:nonsense\r\n"})
+      (let [response-order (mapv (fn [[^String h]] (subs h 5 (- (count h) 4))) (:resources @(:calendar server)))]
+        (doseq [projection [false true]]
+          (with-open [sequential (stub/connector server (parallelism 1 projection))
+                      parallel (stub/connector server (parallelism 2 projection))]
+            (testing (str "projection " projection)
+              (let [expected (listing (.loadEvents sequential nil nil))
+                    [uids _ failures] expected]
+                (is (= (remove #{"broken"} response-order) (remove nil? uids)) "in the order of the response")
+                ;; the projection reads what it can, the broken event comes back without a UID or start
+                (is (= (if projection [] ["/cal/broken.ics"]) failures))
+                (is (= expected (listing (.loadEvents parallel nil nil))))
+                (if projection
+                  (is (= (.listEvents sequential nil nil) (.listEvents parallel nil nil)))
+                  (is (thrown? IOException (.listEvents parallel nil nil)) "like the sequential listEvents")))))))
+      (finally
+        (stub/stop! server)))))
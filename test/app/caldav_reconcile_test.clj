@@ -0,0 +1,104 @@
+(ns app.caldav-reconcile-test
+  (:require [app.caldav-stub :as stub]
+            [clojure.test :refer :all])
+  (:import
+   (com.github.caldav4j.exceptions ResourceOutOfDateException)
+   (com.outskirtslabs.nextcloudcal4j ReconcileAction ReconcileReport ReconcileResult)))
+
+(defn- by-uid [^ReconcileReport report]
+  (into {} (for [^ReconcileResult r (.getResults report)]
+             [(.getUid r) {:action  (.getAction r)
+                           :etag    (.getEtag r)
+                           :applied (.isApplied r)
+                           :error   (some-> (.getError r) class)}])))
+
+(defn- writes [server]
+  (remove #(#{"PROPFIND" "REPORT" "GET"} (:method %)) (stub/requests server)))
+
+(defn- etag-of [{:keys [calendar]} uid]
+  (get-in @calendar [:resources (stub/href uid) :etag]))
+
+(defn- summary-of [{:keys [calendar]} uid]
+  (some->> (get-in @calendar [:resources (stub/href uid) :ics]) (re-find #"SUMMARY:([^\r\n]*)") second))
+
+(def ^:private desired
+  [(stub/event "keep" "Keep") (stub/event "edit" "Edit moved") (stub/event "add" "Add")])
+
+(deftest plans-and-applies-the-difference
+  (let [server (stub/start! (stub/event "keep" "Keep") (stub/event "edit" "Edit") (stub/event "drop" "Drop"))]
+    (try
+      (with-open [c (stub/connector server)]
+        (testing "a dry run only reads"
+          (let [plan (.reconcile c desired true)]
+            (is (.isDryRun plan))
+            (is (= {"keep" {:action ReconcileAction/UNCHANGED :etag (etag-of server "keep") :applied false :error nil}
+                    "edit" {:action ReconcileAction/UPDATE :etag (etag-of server "edit") :applied false :error nil}
+                    "drop" {:action ReconcileAction/DELETE :etag (etag-of server "drop") :applied false :error nil}
+                    "add"  {:action ReconcileAction/CREATE :etag nil :applied false :error nil}}
+                   (by-uid plan)))
+            (is (= 1 (count (stub/requests server "REPORT"))))
+            (is (empty? (writes server)))))
+        (testing "applying makes the calendar the desired events, one write each"
+          (let [report (.reconcile c desired false)
+                results (by-uid report)]
+            (is (zero? (.getFailureCount report)))
+            (is (= {"keep" false "edit" true "drop" true "add" true} (update-vals results :applied)))
+            (is (= #{(stub/href "keep") (stub/href "edit") (stub/href "add")} (set (keys (:resources @(:calendar server))))))
+            (is (= "Edit moved" (summary-of server "edit")))
+            (is (= (etag-of server "add") (get-in results ["add" :etag])))
+            (is (= 3 (count (writes server))))))
+        (testing "a second run finds nothing to do"
+          (let [before (count (writes server))
+                report (.reconcile c desired false)]
+            (is (= #{ReconcileAction/UNCHANGED} (set (map :action (vals (by-uid report))))))
+            (is (= before (count (writes server)))))))
+      (finally
+        (stub/stop! server)))))
+
+(deftest leaves-concurrent-changes-alone
+  (let [server (stub/start! (stub/event "edit" "Edit") (stub/event "drop" "Drop"))]
+    (try
+      (with-open [c (stub/connector server)]
+        ;; another client changes both events right after the listing was read
+        (reset! (:before server) (fn [{:keys [method]}]
+                                   (when (= "REPORT" method)
+                                     (stub/put-external! server (stub/event "edit" "Edit theirs"))
+                                     (stub/put-external! server (stub/event "drop" "Drop theirs")))))
+        (let [report (.reconcile c [(stub/event "edit" "Edit ours")] false)]
+          (is (= 2 (.getFailureCount report)))
+          (is (= {"edit" {:action ReconcileAction/UPDATE :applied false :error ResourceOutOfDateException}
+                  "drop" {:action ReconcileAction/DELETE :applied false :error ResourceOutOfDateException}}
+                 (update-vals (by-uid report) #(dissoc % :etag))))
+          (is (= ["Edit theirs" "Drop theirs"] [(summary-of server "edit") (summary-of server "drop")]))))
+      (finally
+        (stub/stop! server)))))
+
+(deftest reports-events-without-a-uid
+  (let [server (stub/start!)]
+    (try
+      (with-open [c (stub/connector server)]
+        (let [report (.reconcile c [(stub/event nil "Nameless")] true)]
+          (is (= {nil {:action ReconcileAction/CREATE :etag nil :applied false :error IllegalArgumentException}}
+                 (by-uid report)))
+          (is (= 1 (.getFailureCount report)))))
+      (finally
+        (stub/stop! server)))))
+
+(defn- edit-stored! [{:keys [calendar]} uid f]
+  (swap! calendar update-in [:resources (stub/href uid) :ics] f))
+
+(deftest trusts-the-stored-hash-unless-edited-elsewhere
+  (let [server (stub/start! (stub/event "ours" "Ours") (stub/event "edited" "Edited") (stub/event "touched" "Touched"))]
+    (try
+      ;; the summaries change behind the stored hash lines, only LAST-MODIFIED / SEQUENCE tell another client did it
+      (edit-stored! server "ours" #(.replace ^String % "SUMMARY:Ours" "SUMMARY:Not ours"))
+      (edit-stored! server "edited" #(.replace ^String % "SUMMARY:Edited" "SUMMARY:Not edited\r\nLAST-MODIFIED:20300101T000000Z"))
+      (edit-stored! server "touched" #(.replace ^String % "SUMMARY:Touched" "SUMMARY:Touched\r\nSEQUENCE:1"))
+      (with-open [c (stub/connector server)]
+        (is (= {"ours"    ReconcileAction/UNCHANGED
+                "edited"  ReconcileAction/UPDATE
+                "touched" ReconcileAction/UNCHANGED}
+               (update-vals (by-uid (.reconcile c [(stub/event "ours" "Ours") (stub/event "edited" "Edited") (stub/event "touched" "Touched")] true))
+                            :action))))
+      (finally
+        (stub/stop! server)))))
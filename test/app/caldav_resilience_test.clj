@@ -0,0 +1,102 @@
+(ns app.caldav-resilience-test
+  (:require [app.caldav-stub :as stub]
+            [clojure.test :refer :all])
+  (:import
+   (com.outskirtslabs.nextcloudcal4j CircuitBreaker$State CircuitOpenException ConnectorOptions$ConnectorOptionsBuilder)
+   (java.time Duration)))
+
+(defmacro with-stub
+  "Runs body with a stub answering the faults first, then like nextcloud, and a connector to it without a cache"
+  [[server-sym connector-sym faults opts] & body]
+  `(let [~server-sym (stub/start!)]
+     (try
+       (reset! (:faults ~server-sym) ~faults)
+       (with-open [~connector-sym (stub/connector ~server-sym #(.cacheMaxSize (~opts %) 0))]
+         ~@body)
+       (finally
+         (stub/stop! ~server-sym)))))
+
+(defn- sent [server]
+  (count (stub/requests server)))
+
+(deftest retries-transient-failures
+  (with-stub [server c [[503 {"Retry-After" "0"}] [429] [502]] identity]
+    (is (= "c1" (.getCtag (.getCollectionState c))))
+    (is (= 4 (sent server)))
+    (is (= 3 (.getRetries c)))
+    (is (= CircuitBreaker$State/CLOSED (.getState (.getCircuitBreaker c))))))
+
+(deftest gives-up-after-max-retries
+  (with-stub [server c (repeat [503]) #(.maxRetries ^ConnectorOptions$ConnectorOptionsBuilder % 2)]
+    (is (thrown? Exception (.getCollectionState c)))
+    (is (= 3 (sent server)))))
+
+(deftest does-not-retry-client-errors
+  (with-stub [server c [[412]] identity]
+    (is (thrown? Exception (.getCollectionState c)))
+    (is (= 1 (sent server)))
+    (is (zero? (.getRetries c)))))
+
+(deftest circuit-opens-and-recovers
+  (with-stub [server c (repeat [500])
+              #(-> ^ConnectorOptions$ConnectorOptionsBuilder %
+                   (.circuitFailureThreshold 2)
+                   (.circuitOpenDuration (Duration/ofMillis 200)))]
+    (is (thrown? Exception (.getCollectionState c)))
+    (is (thrown? Exception (.getCollectionState c)))
+    (testing "fails fast without sending while open"
+      (let [before (sent server)]
+        (is (thrown? CircuitOpenException (.getCollectionState c)))
+        (is (= before (sent server)))
+        (is (= CircuitBreaker$State/OPEN (.getState (.getCircuitBreaker c))))))
+    (testing "a probe after the open period closes it again"
+      (reset! (:faults server) [])
+      (Thread/sleep 250)
+      (is (= "c1" (.getCtag (.getCollectionState c))))
+      (is (= CircuitBreaker$State/CLOSED (.getState (.getCircuitBreaker c)))))))
+
+(deftest long-retry-after-opens-circuit
+  (with-stub [server c [[503 {"Retry-After" "3600"}]] identity]
+    (is (thrown? Exception (.getCollectionState c)))
+    (is (= 1 (sent server)) "a Retry-After above the max delay is not waited for")
+    (is (thrown? CircuitOpenException (.getCollectionState c)))))
+
+(deftest does-not-repeat-conditional-writes-that-may-have-gone-through
+  (testing "a create after a 502 may exist already, its retry would fail with 412"
+    (with-stub [server c [[502]] identity]
+      (is (thrown? Exception (.putEvent c (stub/event "gig" "Gig") nil)))
+      (is (= 1 (sent server)))
+      (is (zero? (.getRetries c)))))
+  (testing "a delete at a version likewise"
+    (with-stub [server c [[504]] identity]
+      (is (thrown? Exception (.deleteEvent c "gig" "\"e1\"")))
+      (is (= 1 (sent server)))))
+  (testing "a 503 was not processed, so it is retried"
+    (with-stub [server c [[503 {"Retry-After" "0"}] [503 {"Retry-After" "0"}]] identity]
+      (try (.putEvent c (stub/event "gig" "Gig") nil) (catch Exception _))
+      (is (= 3 (sent server)))
+      (is (= 2 (.getRetries c))))))
+
+(deftest an-interrupted-probe-does-not-keep-the-circuit-half-open
+  (with-stub [server c (repeat [500])
+              #(-> ^ConnectorOptions$ConnectorOptionsBuilder %
+                   (.maxRetries 1)
+                   (.circuitFailureThreshold 1)
+                   (.circuitOpenDuration (Duration/ofMillis 100)))]
+    (is (thrown? Exception (.getCollectionState c)))
+    (is (= CircuitBreaker$State/OPEN (.getState (.getCircuitBreaker c))))
+    (Thread/sleep 150)
+    (testing "the probe waits out a Retry-After and is interrupted"
+      (reset! (:faults server) (repeat [503 {"Retry-After" "5"}]))
+      (let [before (sent server)
+            probe (future (.getCollectionState c))]
+        (while (= before (sent server)) (Thread/sleep 10))
+        (Thread/sleep 50)
+        (is (= CircuitBreaker$State/HALF_OPEN (.getState (.getCircuitBreaker c))))
+        (future-cancel probe)
+        (Thread/sleep 100)
+        (is (not= CircuitBreaker$State/HALF_OPEN (.getState (.getCircuitBreaker c))))))
+    (testing "the next call is the probe"
+      (reset! (:faults server) [])
+      (is (= "c1" (.getCtag (.getCollectionState c))))
+      (is (= CircuitBreaker$State/CLOSED (.getState (.getCircuitBreaker c)))))))
@@ -0,0 +1,122 @@
+(ns app.caldav-snapshot-test
+  (:require [app.caldav-stub :as stub]
+            [clojure.test :refer :all])
+  (:import
+   (com.outskirtslabs.nextcloudcal4j CalendarSnapshot CalendarSnapshot$Entry Event)
+   (java.io DataOutputStream IOException)
+   (java.nio.file Files Path)
+   (java.nio.file.attribute FileAttribute)
+   (java.time Instant ZoneId)
+   (java.util.zip GZIPOutputStream)))
+
+(defn- temp-file ^Path []
+  (doto (Files/createTempFile "snapshot" ".bin" (make-array FileAttribute 0))
+    (-> .toFile .deleteOnExit)))
+
+(defn- entries
+  "The snapshot as href -> [etag content-hash event map]"
+  [^CalendarSnapshot snapshot]
+  (into {} (for [[href ^CalendarSnapshot$Entry e] (.getEntries snapshot)]
+             [href [(.getEtag e) (.getContentHash e) (.toClojure (.getEvent e))]])))
+
+(defn- detailed-event []
+  (Event. "Gig \"ä€\"" (Instant/parse "2030-03-01T19:00:00Z") (Instant/parse "2030-03-01T22:00:00Z")
+          (Instant/parse "2030-02-01T00:00:00.123Z") "detailed" "https://example.com/gigs/1"
+          (apply str (repeat 70000 "x")) "Stage 2" nil (ZoneId/of "Europe/Vienna") Event/TENTATIVE))
+
+(deftest saves-and-restores-the-snapshot
+  (let [server (stub/start! (stub/event "a" "A") (detailed-event))
+        file (temp-file)]
+    (try
+      (let [synced (with-open [c (stub/connector server)]
+                     (let [s (.syncSnapshot c)]
+                       (.saveSnapshot c file)
+                       s))]
+        (is (= 2 (.size synced)))
+        (with-open [c (stub/connector server)]
+          (let [before (count (stub/requests server))
+                restored (.restoreSnapshot c file)]
+            (testing "the restored snapshot is the saved one, and restoring sends nothing"
+              (is (= (.getSyncToken synced) (.getSyncToken restored)))
+              (is (= (.getCtag synced) (.getCtag restored)))
+              (is (= (entries synced) (entries restored)))
+              (is (= before (count (stub/requests server)))))
+            (testing "it fills the index"
+              (is (= "A" (.getSummary (.get (.getIndex c) "a"))))
+              (is (= 70000 (count (.getDescription (.get (.getIndex c) "detailed"))))))
+            (testing "the next sync only asks for what changed since"
+              (stub/put-external! server (stub/event "a" "A moved"))
+              (let [before (count (stub/requests server))
+                    updated (.syncSnapshot c)
+                    reports (stub/requests server "REPORT" before)]
+                (is (= [:sync :multiget] (mapv stub/report-kind reports)))
+                (is (= [(stub/href "a")] (stub/hrefs (:body (second reports)))))
+                (is (= "A moved" (.getSummary (.getEvent (get (.getEntries updated) (stub/href "a"))))))
+                (is (= (get (entries restored) (stub/href "detailed")) (get (entries updated) (stub/href "detailed")))))))))
+      (finally
+        (stub/stop! server)))))
+
+(deftest sync-snapshot-applies-the-delta
+  (let [server (stub/start! (stub/event "a" "A") (stub/event "b" "B") (stub/event "c" "C"))]
+    (try
+      (with-open [c (stub/connector server)]
+        (let [initial (.syncSnapshot c)]
+          (is (= #{"a" "b" "c"} (set (map #(.getUid ^CalendarSnapshot$Entry %) (vals (.getEntries initial))))))
+          (is (.isComplete (.getIndex c)))
+          (stub/put-external! server (stub/event "b" "B moved"))
+          (stub/put-external! server (stub/event "d" "D"))
+          (stub/delete-external! server "c")
+          (let [before (count (stub/requests server))
+                updated (.syncSnapshot c)
+                multigets (filter #(= :multiget (stub/report-kind %)) (stub/requests server "REPORT" before))]
+            (testing "only the changed events are fetched"
+              (is (= #{(stub/href "b") (stub/href "d")} (set (mapcat #(stub/hrefs (:body %)) multigets)))))
+            (testing "the snapshot and the index follow"
+              (is (= {(stub/href "a") "A" (stub/href "b") "B moved" (stub/href "d") "D"}
+                     (update-vals (.getEntries updated) #(.getSummary (.getEvent ^CalendarSnapshot$Entry %)))))
+              (is (= (get-in @(:calendar server) [:resources (stub/href "b") :etag])
+                     (.getEtag ^CalendarSnapshot$Entry (get (.getEntries updated) (stub/href "b")))))
+              (is (= ["B moved" nil "D"] (map #(some-> (.get (.getIndex c) %) .getSummary) ["b" "c" "d"]))))
+            (testing "nothing changed, nothing fetched"
+              (let [before (count (stub/requests server))]
+                (is (= (entries updated) (entries (.syncSnapshot c))))
+                (is (empty? (stub/requests server "REPORT" before)))))
+            (testing "a forgotten sync-token lists everything, but only fetches what changed"
+              (stub/forget-sync-tokens! server)
+              (stub/put-external! server (stub/event "a" "A moved"))
+              (let [before (count (stub/requests server))
+                    resynced (.syncSnapshot c)
+                    multigets (filter #(= :multiget (stub/report-kind %)) (stub/requests server "REPORT" before))]
+                (is (= [(stub/href "a")] (mapcat #(stub/hrefs (:body %)) multigets)))
+                (is (= "A moved" (.getSummary (.getEvent ^CalendarSnapshot$Entry (get (.getEntries resynced) (stub/href "a"))))))
+                (is (= 3 (.size resynced))))))))
+      (finally
+        (stub/stop! server)))))
+
+(defn- write-raw!
+  "Writes the ints to file, gzipped like a snapshot"
+  [^Path file & ints]
+  (with-open [out (DataOutputStream. (GZIPOutputStream. (Files/newOutputStream file (make-array java.nio.file.OpenOption 0))))]
+    (doseq [i ints]
+      (.writeInt out (int i)))))
+
+(deftest rejects-files-it-cannot-trust
+  (let [file (temp-file)
+        magic 0x4E43534E]
+    (testing "another file"
+      (write-raw! file 0x12345678 1)
+      (is (thrown-with-msg? IOException #"not a calendar snapshot" (CalendarSnapshot/read file))))
+    (testing "another format version"
+      (write-raw! file magic 2)
+      (is (thrown-with-msg? IOException #"version 2" (CalendarSnapshot/read file))))
+    (testing "a damaged length is not allocated"
+      (write-raw! file magic 1 0x7ffffff0)
+      (is (thrown-with-msg? IOException #"Damaged" (CalendarSnapshot/read file)))
+      (write-raw! file magic 1 -1 -1 -5)
+      (is (thrown-with-msg? IOException #"damaged" (CalendarSnapshot/read file))))
+    (testing "a truncated file"
+      (write-raw! file magic 1 -1 -1 0x7fffffff 3)
+      (is (thrown? IOException (CalendarSnapshot/read file))))
+    (testing "not even gzip"
+      (Files/write file (.getBytes "hello") (make-array java.nio.file.OpenOption 0))
+      (is (thrown? IOException (CalendarSnapshot/read file))))))
@@ -0,0 +1,282 @@
+(ns app.caldav-stub
+  "A nextcloud calendar for testing the connector: an in-memory collection at /cal/ behind the JDK's HttpServer.
+  Keeps every resource's iCalendar text and ETag, and answers PROPFIND (ctag and sync-token), calendar-query (with its
+  time-range filter), calendar-multiget, free-busy-query and sync-collection REPORTs, conditional PUT and DELETE, and
+  GET, like nextcloud does."
+  (:require [clojure.string :as str])
+  (:import
+   (com.outskirtslabs.nextcloudcal4j ConnectorOptions ConnectorOptions$ConnectorOptionsBuilder Event EventProjection NextcloudConnector)
+   (com.sun.net.httpserver HttpExchange HttpHandler HttpServer)
+   (java.net InetSocketAddress)
+   (java.nio.charset StandardCharsets)
+   (java.time Instant ZoneId ZoneOffset)
+   (java.time.format DateTimeFormatter)))
+
+(defn event
+  "An event of an hour from start, or 2030-01-01 18:00 UTC, in the app's zone"
+  ([uid summary]
+   (event uid summary (Instant/parse "2030-01-01T18:00:00Z")))
+  ([uid summary ^Instant start]
+   (Event. summary start (.plusSeconds start 3600) (Instant/parse "2029-12-01T00:00:00Z") uid nil nil nil nil
+           (ZoneId/of "Europe/Vienna") Event/CONFIRMED)))
+
+(defn href [uid]
+  (str "/cal/" uid ".ics"))
+
+(defn- xml-escape [s]
+  (-> s (str/replace "&" "&amp;") (str/replace "<" "&lt;") (str/replace ">" "&gt;")))
+
+(defn- multistatus [responses & [sync-token]]
+  (str "<?xml version=\"1.0\"?>"
+       "<d:multistatus xmlns:d=\"DAV:\" xmlns:cal=\"urn:ietf:params:xml:ns:caldav\" xmlns:cs=\"http://calendarserver.org/ns/\">"
+       (apply str responses)
+       (when sync-token (str "<d:sync-token>" sync-token "</d:sync-token>"))
+       "</d:multistatus>"))
+
+(defn- found [href prop]
+  (str "<d:response><d:href>" href "</d:href><d:propstat><d:prop>" prop "</d:prop>"
+       "<d:status>HTTP/1.1 200 OK</d:status></d:propstat></d:response>"))
+
+(defn- not-found [href]
+  (str "<d:response><d:href>" href "</d:href><d:status>HTTP/1.1 404 Not Found</d:status></d:response>"))
+
+(defn- with-data [href {:keys [etag ics]}]
+  (found href (str "<d:getetag>" etag "</d:getetag><cal:calendar-data>" (xml-escape ics) "</cal:calendar-data>")))
+
+(defn hrefs
+  "The hrefs a REPORT request body lists"
+  [body]
+  (map second (re-seq #"href[^>]*>([^<]+)</" body)))
+
+(defn- respond! [^HttpExchange exchange status headers ^String body]
+  (doseq [[k v] headers]
+    (.add (.getResponseHeaders exchange) k v))
+  (let [bytes (.getBytes body StandardCharsets/UTF_8)]
+    (.sendResponseHeaders exchange status (if (empty? bytes) -1 (count bytes)))
+    (with-open [out (.getResponseBody exchange)]
+      ;; a response without a body is already closed
+      (when (seq bytes)
+        (.write out bytes)))))
+
+(defn- change
+  "Applies f to the resources as one new version of the collection, recording which hrefs it touched"
+  [calendar f & hrefs]
+  (-> calendar
+      (update :version inc)
+      (update :resources f)
+      (update :changes into (map (fn [h] [(inc (:version calendar)) h])) hrefs)))
+
+(defn- etag [version]
+  (str "\"e" version "\""))
+
+(defn- sync-response [{:keys [version resources changes forgotten]} token]
+  (let [since (some->> token (re-find #"^t(\d+)$") second parse-long)]
+    (cond
+      (and (seq token) (or (nil? since) (< since forgotten) (> since version)))
+      [403 "<?xml version=\"1.0\"?><d:error xmlns:d=\"DAV:\"><d:valid-sync-token/></d:error>"]
+
+      :else
+      (let [hrefs (if since
+                    (distinct (for [[v h] changes :when (> v since)] h))
+                    (keys resources))]
+        [207 (multistatus (for [h hrefs]
+                            (if-let [{:keys [etag]} (resources h)]
+                              (found h (str "<d:getetag>" etag "</d:getetag>"))
+                              (not-found h)))
+                          (str "t" version))]))))
+
+(def ^:private utc-format (.withZone (DateTimeFormatter/ofPattern "yyyyMMdd'T'HHmmss'Z'") ZoneOffset/UTC))
+
+(defn time-range
+  "The start and end of the time-range a REPORT request body filters by, nil for an open end"
+  [body]
+  (let [[_ attrs] (re-find #"time-range([^>]*)>" body)
+        attr #(some->> attrs (re-find (re-pattern (str % "=\"(\\w+)\""))) second
+                       (.parse utc-format) Instant/from)]
+    [(attr "start") (attr "end")]))
+
+(defn- overlaps?
+  "The CalDAV time-range rule for events with an end, open ends match everything"
+  [{:keys [ics]} ^Instant from ^Instant to]
+  (or (and (nil? from) (nil? to))
+      (let [^Event e (EventProjection/parseEvent ics)]
+        (and (or (nil? to) (.isBefore (.getStartTime e) to))
+             (or (nil? from) (.isAfter (.getEndTime e) from))))))
+
+(defn- free-busy
+  "A VFREEBUSY with the time of the events overlapping the request's time-range, or the calendar's :free-busy text"
+  [{:keys [resources] :as calendar} body]
+  (or (:free-busy calendar)
+      (let [[from to] (time-range body)]
+        (str/join "\r\n"
+                  (concat ["BEGIN:VCALENDAR" "VERSION:2.0" "PRODID:-//stub//EN" "BEGIN:VFREEBUSY"]
+                          (for [{:keys [ics] :as resource} (vals resources)
+                                :when (overlaps? resource from to)
+                                :let [^Event e (EventProjection/parseEvent ics)]]
+                            (str "FREEBUSY:" (.format utc-format (.getStartTime e)) "/" (.format utc-format (.getEndTime e))))
+                          ["END:VFREEBUSY" "END:VCALENDAR" ""])))))
+
+(def root
+  "The collection holding the user's calendars, /cal/ and the calendar's :calendars"
+  "/calendars/")
+
+(defn- collection [href resourcetype props]
+  (found href (str "<d:resourcetype><d:collection/>" resourcetype "</d:resourcetype>" props)))
+
+(defn- calendar-props [name ctag sync-token components]
+  (str "<d:displayname>" name "</d:displayname><cs:getctag>" ctag "</cs:getctag>"
+       (when sync-token (str "<d:sync-token>" sync-token "</d:sync-token>"))
+       "<cal:supported-calendar-component-set>"
+       (apply str (for [c components] (str "<cal:comp name=\"" c "\"/>")))
+       "</cal:supported-calendar-component-set>"))
+
+(defn- calendar-list
+  "A Depth-1 PROPFIND of the root: itself, /cal/, the other calendars and a scheduling inbox, with every property"
+  [{:keys [version calendars]}]
+  (concat [(collection root "" "")
+           (collection "/cal/" "<cal:calendar/>" (calendar-props "Gigs" (str "c" version) (str "t" version) ["VEVENT"]))]
+          (for [[href {:keys [name ctag components]}] calendars]
+            (collection href "<cal:calendar/>" (calendar-props name ctag nil components)))
+          [(collection (str root "inbox/") "<cal:schedule-inbox/>" "")]))
+
+(defn- precondition-failed? [resource ^HttpExchange exchange]
+  (let [headers (.getRequestHeaders exchange)
+        if-match (.getFirst headers "If-Match")
+        if-none-match (.getFirst headers "If-None-Match")]
+    (or (and (= "*" if-none-match) resource)
+        (and (= "*" if-match) (nil? resource))
+        (and if-match (not= "*" if-match) (not= if-match (:etag resource))))))
+
+(defn- handle [stub ^HttpExchange exchange]
+  (let [{:keys [calendar requests faults before]} stub
+        method (.getRequestMethod exchange)
+        path (.getPath (.getRequestURI exchange))
+        body (String. (.readAllBytes (.getRequestBody exchange)) StandardCharsets/UTF_8)
+        headers (into {} (for [[k vs] (.getRequestHeaders exchange)] [(str/lower-case k) (first vs)]))
+        {:keys [version resources] :as now} @calendar]
+    (swap! requests conj {:method method :path path :headers headers :body body})
+    (@before {:method method :path path :headers headers :body body})
+    (if-let [[status headers] (first (first (swap-vals! faults rest)))]
+      (respond! exchange status headers "fault")
+      (case method
+        "PROPFIND"
+        (if (= root path)
+          (respond! exchange 207 {} (multistatus (calendar-list now)))
+          (respond! exchange 207 {} (multistatus [(found "/cal/" (str "<cs:getctag>c" version "</cs:getctag>"
+                                                                      "<d:sync-token>t" version "</d:sync-token>"))])))
+
+        "REPORT"
+        (cond
+          (str/includes? body "sync-collection")
+          (let [[status xml] (sync-response now (second (re-find #"sync-token[^>/]*>([^<]*)<" body)))]
+            (respond! exchange status {} xml))
+
+          (str/includes? body "free-busy-query")
+          (respond! exchange 200 {"Content-Type" "text/calendar"} (free-busy now body))
+
+          (str/includes? body "calendar-multiget")
+          (respond! exchange 207 {} (multistatus (for [h (hrefs body)]
+                                                   (if-let [resource (resources h)]
+                                                     (with-data h resource)
+                                                     (not-found h)))))
+
+          :else
+          (let [uid (second (re-find #"text-match[^>]*>([^<]+)<" body))
+                [from to] (time-range body)]
+            (respond! exchange 207 {} (multistatus (for [[h resource] resources
+                                                         :when (and (or (nil? uid) (str/includes? (:ics resource) (str "UID:" uid "\r\n")))
+                                                                    (overlaps? resource from to))]
+                                                     (with-data h resource))))))
+
+        "PUT"
+        (let [resource (resources path)]
+          (if (precondition-failed? resource exchange)
+            (respond! exchange 412 {} "")
+            (let [{:keys [version]} (swap! calendar change #(assoc % path {:etag (etag (inc version)) :ics body}) path)]
+              (respond! exchange (if resource 204 201) {"ETag" (etag version)} ""))))
+
+        "DELETE"
+        (let [resource (resources path)]
+          (cond
+            (nil? resource) (respond! exchange 404 {} "")
+            (precondition-failed? resource exchange) (respond! exchange 412 {} "")
+            :else (do (swap! calendar change #(dissoc % path) path)
+                      (respond! exchange 204 {} ""))))
+
+        "GET"
+        (if-let [{:keys [etag ics]} (resources path)]
+          (respond! exchange 200 {"ETag" etag "Content-Type" "text/calendar"} ics)
+          (respond! exchange 404 {} ""))))))
+
+(defn start!
+  "Starts a calendar holding the events, each stored under its UID like the connector does.
+  Returns the stub: :calendar (an atom of {:version :resources {href {:etag :ics}} :changes [[version href]]}, with
+  :free-busy set to the text free-busy-queries are answered with instead of the events' time, and :calendars of
+  {href {:name :ctag :components}} listed next to /cal/ in the root),
+  :requests (an atom of every request received, with :method :path :headers and :body), :faults (an atom of a
+  seq of [status headers] answered instead of the next requests, e.g. (repeat [503]) for an outage) and :before (an atom of a fn called with each request before it is
+  answered, e.g. to hold it)."
+  [& events]
+  (let [resources (into {} (map (fn [^Event e] [(href (.getUid e)) {:etag (etag 1) :ics (str (.toICal e))}])) events)
+        stub {:calendar  (atom {:version 1 :resources resources :changes [] :forgotten 0})
+              :requests  (atom [])
+              :faults    (atom [])
+              :before    (atom (fn [_]))}
+        server (doto (HttpServer/create (InetSocketAddress. "localhost" 0) 0)
+                 (.createContext "/" (reify HttpHandler
+                                       (handle [_ exchange]
+                                         (try
+                                           (handle stub exchange)
+                                           (catch Throwable e
+                                             (respond! exchange 500 {} (str e)))))))
+                 (.start))]
+    (assoc stub :server server)))
+
+(defn stop! [{:keys [^HttpServer server]}]
+  (.stop server 0))
+
+(defn connector
+  "A connector to the stub, opts is applied to the options builder"
+  (^NextcloudConnector [stub]
+   (connector stub identity))
+  (^NextcloudConnector [{:keys [^HttpServer server]} opts]
+   (NextcloudConnector. "localhost" "user" "secret" "/cal/"
+                        (-> (ConnectorOptions/builder)
+                            (.scheme "http")
+                            (.port (.getPort (.getAddress server)))
+                            (.retryBaseDelay (java.time.Duration/ofMillis 5))
+                            ^ConnectorOptions$ConnectorOptionsBuilder (opts)
+                            (.build)))))
+
+(defn put-external!
+  "Stores the event as another client would, as a new version of the calendar"
+  [{:keys [calendar]} ^Event e]
+  (let [h (href (.getUid e))]
+    (swap! calendar (fn [{:keys [version] :as c}]
+                      (change c #(assoc % h {:etag (etag (inc version)) :ics (str (.toICal e))}) h)))))
+
+(defn delete-external! [{:keys [calendar]} uid]
+  (swap! calendar change #(dissoc % (href uid)) (href uid)))
+
+(defn forget-sync-tokens!
+  "Makes every sync-token handed out so far invalid, like nextcloud does after cleaning up its change log"
+  [{:keys [calendar]}]
+  (swap! calendar #(assoc % :forgotten (inc (:version %)))))
+
+(defn requests
+  "The requests received, optionally only those of method, and since the count n of an earlier call"
+  ([stub] (requests stub nil 0))
+  ([stub method] (requests stub method 0))
+  ([{:keys [requests]} method n]
+   (cond->> (drop n @requests)
+     method (filter #(= method (:method %)))
+     true vec)))
+
+(defn report-kind
+  "Which REPORT a request body is, :sync, :multiget, :free-busy or :query"
+  [{:keys [body]}]
+  (cond
+    (str/includes? body "sync-collection") :sync
+    (str/includes? body "free-busy-query") :free-busy
+    (str/includes? body "calendar-multiget") :multiget
+    :else :query))
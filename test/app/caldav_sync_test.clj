@@ -0,0 +1,77 @@
+(ns app.caldav-sync-test
+  (:require [app.caldav-stub :as stub]
+            [clojure.test :refer :all])
+  (:import
+   (com.outskirtslabs.nextcloudcal4j ConnectorOptions$ConnectorOptionsBuilder Event SyncResult)
+   (java.time Duration)))
+
+(defn- check-every-time [^ConnectorOptions$ConnectorOptionsBuilder b]
+  (.ctagCheckInterval b Duration/ZERO))
+
+(defn- get-event
+  "Gets the event by UID, returning its summary and the REPORTs the get sent"
+  [server c uid]
+  (let [before (count (stub/requests server))
+        event (.getEventByUID c uid)]
+    [(some-> ^Event event .getSummary) (mapv stub/report-kind (stub/requests server "REPORT" before))]))
+
+(deftest the-cache-only-drops-what-others-changed
+  (let [server (stub/start! (stub/event "a" "A") (stub/event "b" "B") (stub/event "c" "C"))]
+    (try
+      (with-open [c (stub/connector server check-every-time)]
+        (testing "a miss queries the server, a hit only checks the ctag"
+          (is (= ["A" [:query]] (get-event server c "a")))
+          (is (= ["B" [:query]] (get-event server c "b")))
+          (is (= ["A" []] (get-event server c "a")))
+          (is (= "PROPFIND" (:method (peek (stub/requests server))))))
+        (testing "after another client's edit, a sync delta drops only the changed event"
+          (stub/put-external! server (stub/event "b" "B, moved"))
+          (is (= ["A" [:sync]] (get-event server c "a")))
+          (is (= ["B, moved" [:query]] (get-event server c "b"))))
+        (testing "an event another client deleted is gone"
+          (stub/delete-external! server "b")
+          (is (= [nil [:sync :query]] (get-event server c "b"))))
+        (testing "our own write is served from the cache"
+          (.upsertEvent c (stub/event "a" "A, ours"))
+          (is (= ["A, ours" [:sync]] (get-event server c "a"))))
+        (testing "when the server forgot our sync-token everything is dropped"
+          (get-event server c "c")
+          (stub/put-external! server (stub/event "d" "D"))
+          (stub/forget-sync-tokens! server)
+          (is (= ["C" [:sync :query]] (get-event server c "c")))))
+      (finally
+        (stub/stop! server)))))
+
+(defn- summary [^SyncResult r]
+  {:changed (set (keys (.getChanged r)))
+   :deleted (set (.getDeleted r))
+   :full?   (.isFullResync r)})
+
+(deftest sync-changes-returns-the-delta
+  (let [server (stub/start! (stub/event "a" "A") (stub/event "b" "B"))]
+    (try
+      (with-open [c (stub/connector server)]
+        (let [initial (.syncChanges c nil)]
+          (testing "without a token everything is listed"
+            (is (= {:changed #{(stub/href "a") (stub/href "b")} :deleted #{} :full? true} (summary initial))))
+          (testing "when the token has not moved no REPORT is sent"
+            (let [before (count (stub/requests server))
+                  unchanged (.syncChanges c (.getSyncToken initial))]
+              (is (.isEmpty unchanged))
+              (is (= (.getSyncToken initial) (.getSyncToken unchanged)))
+              (is (= ["PROPFIND"] (mapv :method (stub/requests server nil before))))))
+          (testing "only what changed since the token"
+            (stub/put-external! server (stub/event "b" "B, moved"))
+            (stub/put-external! server (stub/event "c" "C"))
+            (stub/delete-external! server "a")
+            (let [delta (.syncChanges c (.getSyncToken initial))]
+              (is (= {:changed #{(stub/href "b") (stub/href "c")} :deleted #{(stub/href "a")} :full? false} (summary delta)))
+              (is (= (get-in @(:calendar server) [:resources (stub/href "c") :etag])
+                     (get (.getChanged delta) (stub/href "c"))))
+              (testing "a forgotten token falls back to a full listing"
+                (stub/forget-sync-tokens! server)
+                (stub/put-external! server (stub/event "d" "D"))
+                (is (= {:changed #{(stub/href "b") (stub/href "c") (stub/href "d")} :deleted #{} :full? true}
+                       (summary (.syncChanges c (.getSyncToken delta))))))))))
+      (finally
+        (stub/stop! server)))))
@@ -0,0 +1,53 @@
+(ns app.caldav-upsert-test
+  (:require [app.caldav-stub :as stub]
+            [clojure.test :refer :all])
+  (:import
+   (com.outskirtslabs.nextcloudcal4j ConnectorOptions$ConnectorOptionsBuilder)))
+
+(deftest skips-writing-an-unchanged-event
+  (let [server (stub/start! (stub/event "gig" "Gig"))]
+    (try
+      (with-open [c (stub/connector server)]
+        (.getEventByUID c "gig")
+        (let [etag (get-in @(:calendar server) [:resources (stub/href "gig") :etag])]
+          (testing "the cached copy has the same content, nothing is sent"
+            (is (= etag (.upsertEvent c (stub/event "gig" "Gig"))))
+            (is (empty? (stub/requests server "PUT")))
+            (is (= [0 1] [(.getWritesSent c) (.getWritesSkipped c)])))
+          (testing "a changed event is written"
+            (let [new-etag (.upsertEvent c (stub/event "gig" "Gig, moved"))]
+              (is (not= etag new-etag))
+              (is (= 1 (count (stub/requests server "PUT"))))
+              (is (= [1 1] [(.getWritesSent c) (.getWritesSkipped c)]))
+              (testing "and writing it again is skipped"
+                (is (= new-etag (.upsertEvent c (stub/event "gig" "Gig, moved"))))
+                (is (= 1 (count (stub/requests server "PUT")))))))
+          (testing "no ctag PROPFIND is sent for an upsert"
+            (is (= 1 (count (stub/requests server "PROPFIND"))) "only the one of the first get"))
+          (testing "another client's edit is trusted away until a read checks the ctag"
+            (stub/put-external! server (stub/event "gig" "Gig, theirs"))
+            (.upsertEvent c (stub/event "gig" "Gig, moved"))
+            (is (= 1 (count (stub/requests server "PUT"))))
+            (.getEventByUID c "gig")
+            (.upsertEvent c (stub/event "gig" "Gig, moved"))
+            (is (= 2 (count (stub/requests server "PUT"))))
+            (is (re-find #"SUMMARY:Gig\\, moved" (get-in @(:calendar server) [:resources (stub/href "gig") :ics]))))))
+      (finally
+        (stub/stop! server)))))
+
+(deftest writes-an-event-the-cache-does-not-hold
+  (let [server (stub/start!)]
+    (try
+      (with-open [c (stub/connector server)]
+        (testing "a new event: the update finds nothing, the create goes through"
+          (.upsertEvent c (stub/event "new" "New"))
+          (is (= [["*" nil] [nil "*"]] (mapv (juxt #(get-in % [:headers "if-match"]) #(get-in % [:headers "if-none-match"]))
+                                             (stub/requests server "PUT"))))
+          (is (contains? (:resources @(:calendar server)) (stub/href "new")))))
+      (with-open [c (stub/connector server #(.cacheMaxSize ^ConnectorOptions$ConnectorOptionsBuilder % 0))]
+        (testing "without the cache nothing is skipped"
+          (.upsertEvent c (stub/event "new" "New"))
+          (is (= [1 0] [(.getWritesSent c) (.getWritesSkipped c)]))
+          (is (= 3 (count (stub/requests server "PUT"))))))
+      (finally
+        (stub/stop! server)))))
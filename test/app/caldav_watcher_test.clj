@@ -0,0 +1,80 @@
+(ns app.caldav-watcher-test
+  (:require [app.caldav-stub :as stub]
+            [clojure.test :refer :all])
+  (:import
+   (com.outskirtslabs.nextcloudcal4j ChangeListener ChangeType)
+   (java.time Duration)
+   (java.util.concurrent LinkedBlockingQueue TimeUnit)))
+
+(deftest publishes-external-changes-and-backs-off
+  (let [server (stub/start! (stub/event "a" "A") (stub/event "b" "B") (stub/event "c" "C"))
+        propfinds #(count (stub/requests server "PROPFIND"))
+        published (LinkedBlockingQueue.)
+        errors (atom [])]
+    (try
+      (with-open [c (stub/connector server)]
+        (let [watcher (.watchChanges c (reify ChangeListener
+                                         (onChanges [_ changes] (.add published (vec changes)))
+                                         (onError [_ e] (swap! errors conj e)))
+                                     (Duration/ofMillis 20) (Duration/ofMillis 160))]
+          (testing "the first poll takes the calendar as it is, nothing is published"
+            (while (< (.getPolls watcher) 1) (Thread/sleep 10))
+            (is (= 3 (.size (.getIndex c))))
+            (is (nil? (.poll published 300 TimeUnit/MILLISECONDS))))
+          (testing "polls back off while nothing changes"
+            (is (= 160 (.toMillis (.getInterval watcher))))
+            (is (zero? (.getSyncs watcher)))
+            (let [before (propfinds)]
+              (Thread/sleep 800)
+              (is (<= (- (propfinds) before) 6))))
+          (testing "edits made by others are published, and reach the index"
+            (stub/put-external! server (stub/event "b" "B2"))
+            (stub/delete-external! server "c")
+            (stub/put-external! server (stub/event "d" "D"))
+            (let [changes (.poll published 2 TimeUnit/SECONDS)]
+              (is (= #{[ChangeType/MODIFIED "b"] [ChangeType/DELETED "c"] [ChangeType/CREATED "d"]}
+                     (set (map (juxt #(.getType %) #(.getUid %)) changes))))
+              (is (= "B2" (.getSummary (.get (.getIndex c) "b"))))
+              (is (nil? (.get (.getIndex c) "c")))))
+          (testing "own writes and changes that keep the content are not published"
+            (.putEvent c (stub/event "e" "own") nil)
+            (stub/put-external! server (stub/event "a" "A"))
+            (is (nil? (.poll published 600 TimeUnit/MILLISECONDS)))
+            (is (= "own" (.getSummary (.get (.getIndex c) "e")))))
+          (testing "pollNow does not wait out the interval"
+            (stub/put-external! server (stub/event "a" "A3"))
+            (.pollNow watcher)
+            (is (= [[ChangeType/MODIFIED "a"]]
+                   (map (juxt #(.getType %) #(.getUid %)) (.poll published 2 TimeUnit/SECONDS)))))
+          (is (empty? @errors))))
+      (finally
+        (stub/stop! server)))))
+
+(deftest poll-now-during-a-poll-keeps-one-polling-chain
+  (let [server (stub/start! (stub/event "a" "A"))
+        in-poll (promise)
+        release (promise)]
+    (try
+      (with-open [c (stub/connector server)]
+        (let [watcher (.watchChanges c (reify ChangeListener
+                                         (onChanges [_ _])
+                                         (onError [_ _]))
+                                     (Duration/ofMillis 300) (Duration/ofMillis 300))
+              propfinds #(count (stub/requests server "PROPFIND"))]
+          (while (< (.getPolls watcher) 2) (Thread/sleep 10))
+          ;; hold the next ctag PROPFIND, so the poll sending it is still running when pollNow is called
+          (reset! (:before server) (fn [{:keys [method]}]
+                                     (when (and (= "PROPFIND" method) (not (realized? in-poll)))
+                                       (deliver in-poll true)
+                                       (deref release 5000 nil))))
+          (is (deref in-poll 5000 false))
+          (dotimes [_ 5] (.pollNow watcher))
+          (deliver release true)
+          (Thread/sleep 100)
+          (let [before (propfinds)]
+            (Thread/sleep 1500)
+            ;; one poll every 300 ms, a second chain of polls would double that
+            (is (<= (- (propfinds) before) 6)))))
+      (finally
+        (deliver release true)
+        (stub/stop! server)))))
@@ -0,0 +1,85 @@
+(ns app.caldav-writer-test
+  (:require [app.caldav-stub :as stub]
+            [clojure.string :as str]
+            [clojure.test :refer :all])
+  (:import
+   (com.github.caldav4j.exceptions CalDAV4JException)
+   (com.outskirtslabs.nextcloudcal4j ConnectorOptions$ConnectorOptionsBuilder)
+   (java.util.concurrent ExecutionException TimeUnit)))
+
+(defn- without-cache [^ConnectorOptions$ConnectorOptionsBuilder b]
+  (.cacheMaxSize b 0))
+
+(defn- hold-first-put!
+  "Holds the first PUT until release is delivered, returns a promise delivered once it arrived"
+  [{:keys [before]} release]
+  (let [arrived (promise)]
+    (reset! before (fn [{:keys [method]}]
+                     (when (and (= "PUT" method) (not (realized? arrived)))
+                       (deliver arrived true)
+                       (deref release 5000 nil))))
+    arrived))
+
+(defn- stored-summary [{:keys [calendar]} uid]
+  (some->> (get-in @calendar [:resources (stub/href uid) :ics]) (re-find #"SUMMARY:([^\r\n]*)") second))
+
+(deftest a-burst-of-edits-costs-two-writes
+  (let [server (stub/start! (stub/event "gig" "Gig"))
+        release (promise)
+        arrived (hold-first-put! server release)]
+    (try
+      (with-open [c (stub/connector server without-cache)]
+        (let [first-write (.submitUpsert c (stub/event "gig" "Gig 1"))
+              _ (is (deref arrived 5000 false))
+              later (doall (for [i (range 2 11)] (.submitUpsert c (stub/event "gig" (str "Gig " i)))))]
+          (testing "the edits made while the first was in flight share one pending write"
+            (is (every? #(identical? (first later) %) later))
+            (is (= 8 (.getCoalesced (.getWriter c)))))
+          (deliver release true)
+          (is (.get first-write 5 TimeUnit/SECONDS))
+          (let [etag (.get (first later) 5 TimeUnit/SECONDS)]
+            (is (= (get-in @(:calendar server) [:resources (stub/href "gig") :etag]) etag)))
+          (is (= 2 (count (stub/requests server "PUT"))))
+          (testing "only the latest state is written"
+            (is (= "Gig 10" (stored-summary server "gig"))))))
+      (finally
+        (deliver release true)
+        (stub/stop! server)))))
+
+(deftest a-delete-supersedes-pending-edits
+  (let [server (stub/start! (stub/event "gig" "Gig"))
+        release (promise)
+        arrived (hold-first-put! server release)]
+    (try
+      (with-open [c (stub/connector server without-cache)]
+        (let [first-write (.submitUpsert c (stub/event "gig" "Gig 1"))
+              _ (is (deref arrived 5000 false))
+              edit (.submitUpsert c (stub/event "gig" "Gig 2"))
+              delete (.submitDelete c "gig")]
+          (is (identical? edit delete))
+          (deliver release true)
+          (is (.get first-write 5 TimeUnit/SECONDS))
+          (is (nil? (.get delete 5 TimeUnit/SECONDS)))
+          (is (= ["PUT" "DELETE"] (mapv :method (remove #(= "PROPFIND" (:method %)) (stub/requests server)))))
+          (is (empty? (:resources @(:calendar server))))))
+      (finally
+        (deliver release true)
+        (stub/stop! server)))))
+
+(deftest a-failed-write-fails-its-future
+  (let [server (stub/start! (stub/event "gig" "Gig"))]
+    (try
+      (with-open [c (stub/connector server without-cache)]
+        (reset! (:faults server) [[403]])
+        (let [e (try
+                  (.get (.submitUpsert c (stub/event "gig" "Gig 1")) 5 TimeUnit/SECONDS)
+                  nil
+                  (catch ExecutionException e
+                    (.getCause e)))]
+          (is (instance? CalDAV4JException e))
+          (is (str/includes? (str e) "403")))
+        (testing "the next write of the UID goes through"
+          (is (.get (.submitUpsert c (stub/event "gig" "Gig 2")) 5 TimeUnit/SECONDS))
+          (is (= "Gig 2" (stored-summary server "gig")))))
+      (finally
+        (stub/stop! server)))))
@@ -0,0 +1,48 @@
+(ns app.event-clojure-test
+  (:require [clojure.test :refer :all])
+  (:import
+   (clojure.lang PersistentArrayMap PersistentHashMap)
+   (com.outskirtslabs.nextcloudcal4j Event)
+   (java.time Instant ZoneId)))
+
+(def ^:private keys-in-order
+  [Event/SUMMARY Event/START_TIME Event/END_TIME Event/CREATED_AT Event/UID Event/URL Event/DESCRIPTION Event/LOCATION
+   Event/ORGANIZER Event/STATUS Event/TIMEZONE])
+
+(def ^:private gig
+  (Event. "Gig" (Instant/parse "2030-06-01T18:00:00Z") (Instant/parse "2030-06-01T20:30:00Z")
+          (Instant/parse "2030-05-01T08:00:00Z") "gig-1" "https://example.com/gigs/1" "Doors at 7" "Stage 2"
+          "mailto:band@example.com" (ZoneId/of "Europe/Vienna") Event/TENTATIVE))
+
+(defn- fields [^Event e]
+  [(.getSummary e) (.getStartTime e) (.getEndTime e) (.getCreatedAt e) (.getUid e) (.getUrl e) (.getDescription e)
+   (.getLocation e) (.getOrganizer e) (.getStatus e) (.getTimezone e)])
+
+(deftest to-clojure-builds-one-array-map
+  (let [m (.toClojure gig)]
+    (is (instance? PersistentArrayMap m))
+    (is (= 11 (count m)))
+    (is (= keys-in-order (keys m)))
+    (is (= (fields gig) (vals m)))
+    (testing "lookups past the usual 8 array map entries"
+      (is (= (ZoneId/of "Europe/Vienna") (get m Event/TIMEZONE)))
+      (is (= Event/TENTATIVE (m Event/STATUS))))
+    (testing "equal to the same map built the usual way, and a hash map after the first assoc"
+      (is (= (zipmap keys-in-order (fields gig)) m))
+      (is (= (hash (zipmap keys-in-order (fields gig))) (hash m)))
+      (is (instance? PersistentHashMap (assoc m :extra 1)))
+      (is (= "Gig" (get (assoc m :extra 1) Event/SUMMARY))))
+    (testing "absent fields are nil values, the keys are always there"
+      (let [empty-map (.toClojure (Event. nil nil nil nil nil nil nil nil nil nil nil))]
+        (is (= keys-in-order (keys empty-map)))
+        (is (every? nil? (vals empty-map)))))))
+
+(deftest round-trips-through-clojure
+  (is (= (fields gig) (fields (Event/fromClojure (.toClojure gig)))))
+  (is (= (.getContentHash gig) (.getContentHash (Event/fromClojure (.toClojure gig)))))
+  (testing "from maps built in clojure, hash maps and missing keys included"
+    (is (= (fields gig) (fields (Event/fromClojure (into {} (.toClojure gig))))))
+    (is (= (fields gig) (fields (Event/fromClojure (into (hash-map) (.toClojure gig))))))
+    (let [partial (Event/fromClojure {Event/SUMMARY "Only a summary" Event/UID "partial"})]
+      (is (= ["Only a summary" nil nil nil "partial" nil nil nil nil nil nil] (fields partial))))
+    (is (every? nil? (fields (Event/fromClojure {}))))))
@@ -0,0 +1,112 @@
+(ns app.event-index-test
+  (:require [clojure.test :refer :all])
+  (:import
+   (com.outskirtslabs.nextcloudcal4j Event EventIndex)
+   (java.time Instant)))
+
+(def ^:private t0 (Instant/parse "2030-01-01T00:00:00Z"))
+
+(defn- at [minutes]
+  (.plusSeconds t0 (* 60 minutes)))
+
+(defn- event
+  ([uid start end]
+   (event uid start end Event/CONFIRMED))
+  ([uid start end status]
+   (Event. uid (some-> start at) (some-> end at) nil uid nil nil nil nil nil status)))
+
+(defn- uids [events]
+  (mapv #(.getUid ^Event %) events))
+
+(defn- index [& events]
+  (let [idx (EventIndex.)]
+    (doseq [e events] (.put idx e))
+    idx))
+
+(defn- overlaps?
+  "The CalDAV time-range rule, written out for comparison"
+  [^Event e from to]
+  (let [s (.getStartTime e)
+        end (or (.getEndTime e) s)]
+    (and (some? s)
+         (if (or (= s end) (= from to))
+           (if (= s end)
+             (and (not (.isBefore s from)) (or (.isBefore s to) (and (= s to) (= from to))))
+             (and (not (.isAfter s from)) (.isAfter end from)))
+           (and (.isBefore s to) (.isAfter end from))))))
+
+(deftest range-and-overlap-queries
+  (let [idx (index (event "a" 0 60) (event "b" 30 90) (event "c" 120 180)
+                   (event "point" 60 60) (event "cancelled" 40 50 Event/CANCELLED) (event "undated" nil nil))]
+    (testing "range"
+      (is (= ["a" "b" "cancelled"] (uids (.between idx (at 10) (at 60)))))
+      (is (= ["a" "b" "cancelled" "point"] (uids (.between idx (at 10) (at 61)))))
+      (is (= [] (uids (.between idx (at 90) (at 120)))))
+      (is (= ["a" "b" "cancelled" "point" "c"] (uids (.between idx nil nil))))
+      (is (= ["b" "point"] (uids (.between idx (at 60) (at 60))))))
+    (testing "conflicts leave out the event itself and cancelled events"
+      (is (= ["b"] (uids (.conflicts idx (event "a" 0 60)))))
+      (is (= ["a" "b"] (uids (.conflicts idx (event "new" 45 46)))))
+      (is (= [] (uids (.conflicts idx (event "new" 180 200))))))
+    (testing "next"
+      (is (= ["b" "cancelled"] (uids (.next idx (at 1) 2))))
+      (is (= ["c"] (uids (.next idx (at 61) 5)))))
+    (testing "by uid and status"
+      (is (= "undated" (.getUid (.get idx "undated"))))
+      (is (= ["cancelled"] (uids (.withStatus idx Event/CANCELLED))))
+      (is (= 6 (.size idx))))
+    (testing "updates move and remove events"
+      (.put idx (event "c" 10 20 Event/TENTATIVE))
+      (is (= ["a" "c"] (uids (.between idx (at 0) (at 25)))))
+      (is (= ["c"] (uids (.withStatus idx Event/TENTATIVE))))
+      (is (.remove idx "a"))
+      (is (not (.remove idx "a")))
+      (is (= ["c"] (uids (.between idx (at 0) (at 25)))))
+      (is (= 5 (.size idx))))))
+
+(deftest matches-a-linear-scan
+  (let [rnd (java.util.Random. 42)
+        idx (EventIndex.)
+        live (atom {})]
+    (dotimes [i 5000]
+      (let [uid (str "e" (.nextInt rnd 800))]
+        (if (< (.nextInt rnd 10) 2)
+          (do (is (= (contains? @live uid) (.remove idx uid)))
+              (swap! live dissoc uid))
+          (let [start (.nextInt rnd 10000)
+                e (event uid start (+ start (.nextInt rnd 300)))]
+            (.put idx e)
+            (swap! live assoc uid e))))
+      (when (zero? (mod i 250))
+        (let [from (.nextInt rnd 10000)
+              to (+ from (.nextInt rnd 500))
+              expected (->> (vals @live)
+                            (filter #(overlaps? % (at from) (at to)))
+                            (sort-by (juxt #(.getStartTime ^Event %) #(.getUid ^Event %)))
+                            uids)]
+          (is (= expected (uids (.between idx (at from) (at to)))))
+          (is (= (take 10 (->> (vals @live)
+                               (remove #(.isBefore (.getStartTime ^Event %) (at from)))
+                               (sort-by (juxt #(.getStartTime ^Event %) #(.getUid ^Event %)))
+                               uids))
+                 (uids (.next idx (at from) 10)))))))
+    (is (= (count @live) (.size idx)))))
+
+(deftest version-changes-with-the-events
+  (let [idx (index (event "a" 0 60))
+        v (.getVersion idx)]
+    (.between idx nil nil)
+    (.get idx "a")
+    (is (not (.remove idx "missing")))
+    (is (= v (.getVersion idx)) "queries and misses leave it alone")
+    (.put idx (event "b" 0 60))
+    (is (< v (.getVersion idx)))
+    (let [v (.getVersion idx)]
+      (.put idx (event "b" 10 60))
+      (is (< v (.getVersion idx)) "replacing an event counts"))
+    (let [v (.getVersion idx)]
+      (.remove idx "a")
+      (is (< v (.getVersion idx))))
+    (let [v (.getVersion idx)]
+      (.clear idx)
+      (is (< v (.getVersion idx))))))
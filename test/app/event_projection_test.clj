@@ -0,0 +1,123 @@
+(ns app.event-projection-test
+  (:require [app.caldav-stub :as stub]
+            [clojure.string :as str]
+            [clojure.test :refer :all])
+  (:import
+   (com.outskirtslabs.nextcloudcal4j ConnectorOptions$ConnectorOptionsBuilder Event EventProjection)
+   (java.io StringReader StringWriter)
+   (java.time Instant ZoneId)
+   (java.util Locale)
+   (net.fortuna.ical4j.data CalendarBuilder CalendarOutputter)))
+
+(defn- ical4j [ics]
+  (Event/icalToClojure (.build (CalendarBuilder.) (StringReader. ics))))
+
+(defn- ics [& lines]
+  (str (str/join "\r\n" lines) "\r\n"))
+
+(defn- vcalendar [& lines]
+  (apply ics (concat ["BEGIN:VCALENDAR" "VERSION:2.0" "PRODID:-//test//EN"] lines ["END:VCALENDAR"])))
+
+(def ^:private vienna
+  ["BEGIN:VTIMEZONE" "TZID:Europe/Vienna"
+   "BEGIN:STANDARD" "DTSTART:19701025T030000" "RRULE:FREQ=YEARLY;BYMONTH=10;BYDAY=-1SU"
+   "TZOFFSETFROM:+0200" "TZOFFSETTO:+0100" "TZNAME:CET" "END:STANDARD"
+   "BEGIN:DAYLIGHT" "DTSTART:19700329T020000" "RRULE:FREQ=YEARLY;BYMONTH=3;BYDAY=-1SU"
+   "TZOFFSETFROM:+0100" "TZOFFSETTO:+0200" "TZNAME:CEST" "END:DAYLIGHT"
+   "END:VTIMEZONE"])
+
+(defmacro ^:private same-as-ical4j [ics]
+  `(let [ics# ~ics]
+     (is (= (ical4j ics#) (EventProjection/parse ics#)))))
+
+(deftest reads-what-ical4j-writes
+  (let [event (Event. "Gig; one, two \\ three" (Instant/parse "2030-06-01T18:00:00Z") (Instant/parse "2030-06-01T20:30:00Z")
+                      (Instant/parse "2030-05-01T08:00:00Z") "gig-1" "https://example.com/gigs/1"
+                      (str "Zeile 1\nZeile 2, mit; Zeichen " (str/join (repeat 40 "ä€")))
+                      "Grüner Markt 1, 1010 Wien" "mailto:band@example.com" (ZoneId/of "Europe/Vienna") Event/CONFIRMED)
+        written (let [out (StringWriter.)]
+                  (.output (CalendarOutputter.) (.toICal event) out)
+                  (str out))]
+    (testing "the description really is folded and escaped"
+      (is (str/includes? written "\r\n "))
+      (is (str/includes? written "\\;")))
+    (same-as-ical4j written)
+    (same-as-ical4j (str (.toICal event)))
+    (is (= (.getContentHash event) (EventProjection/parseStoredContentHash written)))
+    (is (= "gig-1" (EventProjection/parseUid written)))
+    (is (= (.getStartTime event) (EventProjection/parseStartTime written)))))
+
+(deftest reads-what-other-clients-write
+  (testing "TZID parameters, quoted and not"
+    (same-as-ical4j
+     (apply vcalendar (concat vienna
+                              ["BEGIN:VEVENT" "UID:tz" "DTSTAMP:20300101T000000Z"
+                               "DTSTART;TZID=Europe/Vienna:20300701T190000"
+                               "DTEND;TZID=\"Europe/Vienna\":20300701T230000"
+                               "SUMMARY:Summer" "STATUS:TENTATIVE" "END:VEVENT"]))))
+  (testing "DURATION instead of DTEND"
+    (same-as-ical4j
+     (vcalendar "BEGIN:VEVENT" "UID:duration" "DTSTAMP:20300101T000000Z"
+                "DTSTART:20300110T180000Z" "DURATION:PT2H30M" "SUMMARY:Rehearsal" "END:VEVENT")))
+  (testing "all-day events, with and without DTEND"
+    (same-as-ical4j
+     (vcalendar "BEGIN:VEVENT" "UID:all-day" "DTSTAMP:20300101T000000Z"
+                "DTSTART;VALUE=DATE:20300120" "DTEND;VALUE=DATE:20300122" "SUMMARY:Festival" "END:VEVENT"))
+    (same-as-ical4j
+     (vcalendar "BEGIN:VEVENT" "UID:one-day" "DTSTAMP:20300101T000000Z"
+                "DTSTART;VALUE=DATE:20300120" "SUMMARY:Day off" "END:VEVENT")))
+  (testing "folds, escapes and properties of sub-components"
+    (same-as-ical4j
+     (vcalendar "BEGIN:VEVENT" "UID:folded" "DTSTAMP:20300101T000000Z"
+                "DTSTART:20300110T180000Z" "DTEND:20300110T200000Z"
+                "SUMMARY:A summary that goes on and on\\, with a comma and a semicolon\\; a"
+                "  nd a fold in the middle of a word"
+                "DESCRIPTION:line one\\nline two\\\\nline three\\\\"
+                "LOCATION;ALTREP=\"http://example.com/a:b\":Stage: left"
+                "STATUS:CANCELLED"
+                "BEGIN:VALARM" "ACTION:DISPLAY" "DESCRIPTION:not the event's" "TRIGGER:-PT15M" "END:VALARM"
+                "END:VEVENT")))
+  (testing "an upper-case \\N is a line break too, RFC 5545 3.3.11"
+    (is (= "one\ntwo" (get (EventProjection/parse (vcalendar "BEGIN:VEVENT" "UID:n" "DESCRIPTION:one\\Ntwo" "END:VEVENT"))
+                           Event/DESCRIPTION))))
+  (testing "a TZID of the calendar's own is read with its VTIMEZONE"
+    (let [custom (apply vcalendar (concat (assoc vienna 1 "TZID:Custom Vienna")
+                                          ["BEGIN:VEVENT" "UID:custom" "DTSTAMP:20300101T000000Z"
+                                           "DTSTART;TZID=Custom Vienna:20300701T190000"
+                                           "DTEND;TZID=Custom Vienna:20300102T190000" "END:VEVENT"]))]
+      (same-as-ical4j custom)
+      (is (= [(Instant/parse "2030-07-01T17:00:00Z") (Instant/parse "2030-01-02T18:00:00Z")]
+             ((juxt Event/START_TIME Event/END_TIME) (EventProjection/parse custom))))))
+  (testing "an unknown TZID without a VTIMEZONE is UTC, not the JVM's zone"
+    (is (= (Instant/parse "2030-07-01T19:00:00Z")
+           (get (EventProjection/parse (vcalendar "BEGIN:VEVENT" "UID:nowhere" "DTSTART;TZID=Nowhere/Zone:20300701T190000" "END:VEVENT"))
+                Event/START_TIME))))
+  (testing "names and keywords are case-insensitive whatever the default locale"
+    (let [default (Locale/getDefault)]
+      (try
+        (Locale/setDefault (Locale. "tr" "TR"))
+        (is (= ["lower" Event/CONFIRMED]
+               ((juxt Event/UID Event/STATUS)
+                (EventProjection/parse (vcalendar "begin:VEVENT" "uid:lower" "status:confirmed" "end:VEVENT")))))
+        (finally
+          (Locale/setDefault default)))))
+  (testing "only the first VEVENT counts"
+    (same-as-ical4j
+     (vcalendar "BEGIN:VEVENT" "UID:first" "DTSTAMP:20300101T000000Z" "DTSTART:20300110T180000Z" "END:VEVENT"
+                "BEGIN:VEVENT" "UID:second" "DTSTAMP:20300101T000000Z" "DTSTART:20300111T180000Z" "END:VEVENT"))))
+
+(deftest lists-the-same-events-with-the-projection-on
+  (let [server (stub/start! (stub/event "a" "A; one, two") (stub/event "b" "B")
+                            (Event. "C" (Instant/parse "2030-03-01T19:00:00Z") (Instant/parse "2030-03-01T22:00:00Z")
+                                    (Instant/parse "2030-02-01T00:00:00Z") "c" "https://example.com/c" "Doors at 7"
+                                    "Stage 2" nil (ZoneId/of "Europe/Vienna") Event/TENTATIVE))]
+    (try
+      (with-open [plain (stub/connector server)
+                  projected (stub/connector server #(.projection ^ConnectorOptions$ConnectorOptionsBuilder % true))]
+        (let [by-uid #(into {} (map (juxt (fn [e] (get e Event/UID)) identity)) %)]
+          (is (= 3 (count (.listAllEvents plain))))
+          (testing "the stub ignores the requested properties like some servers do, the parser skips the rest"
+            (is (= (by-uid (.listAllEvents plain)) (by-uid (.listAllEvents projected))))
+            (is (str/includes? (:body (peek (stub/requests server "REPORT"))) "\"SUMMARY\"")))))
+      (finally
+        (stub/stop! server)))))
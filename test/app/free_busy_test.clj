@@ -0,0 +1,80 @@
+(ns app.free-busy-test
+  (:require [app.caldav-stub :as stub]
+            [clojure.string :as str]
+            [clojure.test :refer :all])
+  (:import
+   (com.outskirtslabs.nextcloudcal4j FreeBusy)
+   (java.time Instant)))
+
+(defn- at [s]
+  (Instant/parse s))
+
+(defn- periods [^FreeBusy fb]
+  (mapv (fn [s e] [(Instant/ofEpochMilli s) (Instant/ofEpochMilli e)]) (.getStarts fb) (.getEnds fb)))
+
+(deftest busy-at-the-edges
+  (let [fb (FreeBusy. (Instant/ofEpochMilli 0) (Instant/ofEpochMilli 1000) (long-array [100 300]) (long-array [200 400]))
+        busy? #(.isBusy fb (Instant/ofEpochMilli %1) (Instant/ofEpochMilli %2))]
+    (testing "periods end exclusively"
+      (is (busy? 199 200))
+      (is (not (busy? 200 300)))
+      (is (not (busy? 0 100)))
+      (is (busy? 0 101))
+      (is (not (busy? 400 500))))
+    (testing "a window spanning a whole period"
+      (is (busy? 50 450)))
+    (testing "an instant is busy where a period starts, not where it ends"
+      (is (busy? 100 100))
+      (is (busy? 150 150))
+      (is (not (busy? 200 200))))
+    (is (not (.isBusy (FreeBusy. (at "2030-01-01T00:00:00Z") (at "2030-01-02T00:00:00Z") (long-array 0) (long-array 0))
+                      (at "2030-01-01T00:00:00Z") (at "2030-01-02T00:00:00Z"))))))
+
+(def ^:private vfreebusy
+  (str/join "\r\n"
+            ["BEGIN:VCALENDAR" "VERSION:2.0" "PRODID:-//test//EN" "BEGIN:VFREEBUSY"
+             "DTSTART:20300101T000000Z" "DTEND:20300104T000000Z"
+             ;; a long line folded inside a period, and a duration period overlapping the one before
+             "FREEBUSY;FBTYPE=BUSY:20300101T180000Z/20300101T200000Z,2030010"
+             " 1T190000Z/PT2H"
+             "FREEBUSY;FBTYPE=FREE:20300102T090000Z/20300102T100000Z"
+             "FREEBUSY;FBTYPE=BUSY-TENTATIVE:20300102T120000Z/PT30M"
+             "FREEBUSY:20300102T130000Z/20300102T140000Z,20300102T140000Z/20300102T150000Z"
+             "freebusy;FBTYPE=BUSY-UNAVAILABLE:20291231T230000Z/20300101T010000Z"
+             "FREEBUSY:20300103T230000Z/20300104T020000Z"
+             "FREEBUSY:not-a-period"
+             "END:VFREEBUSY" "END:VCALENDAR" ""]))
+
+(deftest reads-the-servers-periods
+  (let [server (stub/start!)]
+    (try
+      (swap! (:calendar server) assoc :free-busy vfreebusy)
+      (with-open [c (stub/connector server)]
+        (let [fb (.getFreeBusy c (at "2030-01-01T00:00:00Z") (at "2030-01-04T00:00:00Z"))]
+          (is (= [;; clipped to the window at both ends
+                  [(at "2030-01-01T00:00:00Z") (at "2030-01-01T01:00:00Z")]
+                  ;; overlapping periods merged, the FREE one left out
+                  [(at "2030-01-01T18:00:00Z") (at "2030-01-01T21:00:00Z")]
+                  [(at "2030-01-02T12:00:00Z") (at "2030-01-02T12:30:00Z")]
+                  ;; touching periods merged
+                  [(at "2030-01-02T13:00:00Z") (at "2030-01-02T15:00:00Z")]
+                  [(at "2030-01-03T23:00:00Z") (at "2030-01-04T00:00:00Z")]]
+                 (periods fb)))
+          (is (not (.isBusy fb (at "2030-01-02T09:00:00Z") (at "2030-01-02T10:00:00Z"))))
+          (is (.isBusy fb (at "2030-01-02T14:59:00Z") (at "2030-01-02T16:00:00Z")))))
+      (finally
+        (stub/stop! server)))))
+
+(deftest asks-with-one-free-busy-query
+  (let [server (stub/start! (stub/event "a" "A" (at "2030-01-01T18:00:00Z")) (stub/event "b" "B" (at "2030-01-01T18:30:00Z"))
+                            (stub/event "later" "Later" (at "2030-01-05T18:00:00Z")))]
+    (try
+      (with-open [c (stub/connector server)]
+        (let [fb (.getFreeBusy c (at "2030-01-01T00:00:00Z") (at "2030-01-02T00:00:00Z"))
+              [request & more] (stub/requests server)]
+          (is (= [[(at "2030-01-01T18:00:00Z") (at "2030-01-01T19:30:00Z")]] (periods fb)))
+          (is (empty? more))
+          (is (= :free-busy (stub/report-kind request)))
+          (is (= [(at "2030-01-01T00:00:00Z") (at "2030-01-02T00:00:00Z")] (stub/time-range (:body request))))))
+      (finally
+        (stub/stop! server)))))
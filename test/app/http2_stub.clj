@@ -0,0 +1,89 @@
+(ns app.http2-stub
+  "An HTTP/2 server over TLS for testing the connector's HTTP/2 transport, Jetty's h2 connector behind ALPN"
+  (:require [clojure.java.io :as io])
+  (:import
+   (java.io InputStream)
+   (java.nio.charset StandardCharsets)
+   (java.security KeyStore)
+   (javax.net.ssl SSLContext TrustManagerFactory)
+   (org.eclipse.jetty.alpn.server ALPNServerConnectionFactory)
+   (org.eclipse.jetty.http2.server HTTP2ServerConnection HTTP2ServerConnectionFactory)
+   (org.eclipse.jetty.io Connection$Listener)
+   (org.eclipse.jetty.server ConnectionFactory HttpConfiguration Request SecureRequestCustomizer Server ServerConnector SslConnectionFactory)
+   (org.eclipse.jetty.server.handler AbstractHandler)
+   (org.eclipse.jetty.util.ssl SslContextFactory$Server)))
+
+;; a self-signed certificate for localhost, kept next to this file
+(def ^:private password "changeit")
+
+(defn- keystore ^KeyStore []
+  (with-open [in (io/input-stream (io/resource "app/http2_stub.p12"))]
+    (doto (KeyStore/getInstance "PKCS12") (.load ^InputStream in (.toCharArray password)))))
+
+(defn- client-ssl-context
+  "Trusts the stub's certificate and nothing else"
+  ^SSLContext [^KeyStore ks]
+  (let [tmf (doto (TrustManagerFactory/getInstance (TrustManagerFactory/getDefaultAlgorithm)) (.init ks))]
+    (doto (SSLContext/getInstance "TLS") (.init nil (.getTrustManagers tmf) nil))))
+
+(defn- request [^Request request]
+  {:method  (.getMethod request)
+   :path    (.getRequestURI request)
+   :headers (into {} (for [name (enumeration-seq (.getHeaderNames request))]
+                       [(.toLowerCase ^String name) (.getHeader request name)]))
+   :body    (String. (.readAllBytes ^InputStream (.getInputStream request)) StandardCharsets/UTF_8)})
+
+(defn- respond! [response {:keys [status headers body] :or {status 200 body ""}}]
+  (let [^bytes body (if (string? body) (.getBytes ^String body StandardCharsets/UTF_8) body)]
+    (.setStatus response (int status))
+    (doseq [[k v] headers]
+      (.setHeader response (str k) (str v)))
+    (when (pos? (alength body))
+      (.setContentLength response (alength body))
+      (.write (.getOutputStream response) body))))
+
+(defn- handler [f]
+  (proxy [AbstractHandler] []
+    (handle [_target ^Request base-request _request response]
+      (.setHandled base-request true)
+      (respond! response (try
+                           (f (request base-request))
+                           (catch Throwable e
+                             {:status 500 :body (str e)}))))))
+
+(defn start!
+  "Starts a server on a free port of localhost that answers every request with (handler request), where request has
+  :method, :path, :headers (lower-case names) and :body, and the response has :status, :headers and :body.
+  Returns a map with :port, :ssl-context (trusting the server's certificate), :connections (an atom counting the HTTP/2
+  connections accepted) and :server to stop."
+  [f]
+  (let [ks (keystore)
+        ssl (doto (SslContextFactory$Server.)
+              (.setKeyStore ks)
+              (.setKeyStorePassword password))
+        config (doto (HttpConfiguration.) (.addCustomizer (SecureRequestCustomizer.)))
+        h2 (HTTP2ServerConnectionFactory. config)
+        alpn (doto (ALPNServerConnectionFactory. (into-array String ["h2"])) (.setDefaultProtocol "h2"))
+        server (Server.)
+        connector (ServerConnector. server ^"[Lorg.eclipse.jetty.server.ConnectionFactory;"
+                                    (into-array ConnectionFactory [(SslConnectionFactory. ssl (.getProtocol alpn)) alpn h2]))
+        connections (atom 0)]
+    (doto connector
+      (.setHost "localhost")
+      (.setPort 0)
+      (.addBean (reify Connection$Listener
+                  (onOpened [_ connection]
+                    (when (instance? HTTP2ServerConnection connection)
+                      (swap! connections inc)))
+                  (onClosed [_ _]))))
+    (doto server
+      (.addConnector connector)
+      (.setHandler (handler f))
+      (.start))
+    {:port        (.getLocalPort connector)
+     :ssl-context (client-ssl-context ks)
+     :connections connections
+     :server      server}))
+
+(defn stop! [{:keys [^Server server]}]
+  (.stop server))
@@ -0,0 +1,57 @@
+(ns app.ics-feed-test
+  (:require [clojure.string :as str]
+            [clojure.test :refer :all])
+  (:import
+   (com.outskirtslabs.nextcloudcal4j Event IcsFeed TimeZones)
+   (java.io ByteArrayOutputStream StringReader)
+   (java.nio.charset StandardCharsets)
+   (java.time Instant ZoneId)
+   (net.fortuna.ical4j.data CalendarBuilder)
+   (net.fortuna.ical4j.model Component)))
+
+(def ^:private t0 (Instant/parse "2030-01-01T18:00:00Z"))
+
+(defn- event [uid zone summary]
+  (Event. summary t0 (.plusSeconds t0 7200) (Instant/parse "2029-12-01T00:00:00Z") uid nil
+          (str "Zeile 1\nZeile 2 " (str/join (repeat 40 "ä€"))) "Grüner Markt 1, 1010 Wien" nil
+          (some-> zone ZoneId/of) Event/CONFIRMED))
+
+(defn- feed [events]
+  (let [out (ByteArrayOutputStream.)]
+    (IcsFeed/write "SNO Gigs" events out)
+    (.toByteArray out)))
+
+(deftest writes-a-valid-folded-feed
+  (let [events [(event "a" "Europe/Vienna" "Gig; one, two") (event "b" "Europe/Vienna" "Gig b")
+                (event "c" "America/New_York" "Gig c") (event "d" nil "Gig d")]
+        bytes (feed events)
+        text (String. ^bytes bytes StandardCharsets/UTF_8)
+        calendar (.build (CalendarBuilder.) (StringReader. text))]
+    (testing "no line is longer than 75 octets"
+      (is (every? #(<= (alength (.getBytes ^String % StandardCharsets/UTF_8)) 75)
+                  (str/split text #"\r\n"))))
+    (testing "one VTIMEZONE per zone, as ical4j has it"
+      (is (= 2 (count (.getComponents calendar Component/VTIMEZONE))))
+      (is (= (str (TimeZones/getVTimeZone (ZoneId/of "Europe/Vienna")))
+             (str (first (.getComponents calendar Component/VTIMEZONE))))))
+    (testing "events come out as written"
+      (let [vevents (.getComponents calendar Component/VEVENT)]
+        (is (= ["a" "b" "c" "d"] (mapv #(.getValue (.getUid %)) vevents)))
+        (is (= "Gig; one, two" (.getValue (.getSummary (first vevents)))))
+        (is (= (.getDescription ^Event (first events)) (.getValue (.getDescription (first vevents)))))
+        (is (= t0 (.toInstant (.getDate (.getStartDate (nth vevents 2))))))))
+    (testing "rendering twice gives the same bytes"
+      (is (= (seq bytes) (seq (feed events)))))))
+
+(deftest etag-and-conditional-requests
+  (let [events [(event "a" "Europe/Vienna" "Gig a") (event "b" nil "Gig b")]
+        etag (IcsFeed/etag "SNO Gigs" events)]
+    (is (= etag (IcsFeed/etag "SNO Gigs" (mapv identity events))))
+    (is (not= etag (IcsFeed/etag "SNO Gigs" [(first events) (event "b" nil "Gig b, moved")])))
+    (is (not= etag (IcsFeed/etag "Other" events)))
+    (testing "If-None-Match"
+      (is (IcsFeed/notModified etag etag))
+      (is (IcsFeed/notModified (str "\"x\", W/" etag) etag))
+      (is (IcsFeed/notModified "*" etag))
+      (is (not (IcsFeed/notModified "\"x\"" etag)))
+      (is (not (IcsFeed/notModified nil etag))))))
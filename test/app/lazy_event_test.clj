@@ -0,0 +1,78 @@
+(ns app.lazy-event-test
+  (:require [clojure.string :as str]
+            [clojure.test :refer :all])
+  (:import
+   (com.outskirtslabs.nextcloudcal4j Event LazyEvent)
+   (java.io StringReader StringWriter UncheckedIOException)
+   (java.time Instant ZoneId)
+   (net.fortuna.ical4j.data CalendarBuilder CalendarOutputter)
+   (net.fortuna.ical4j.model Calendar)))
+
+(defn- ics [& lines]
+  (str (str/join "\r\n" lines) "\r\n"))
+
+(defn- written [^Event event]
+  (let [out (StringWriter.)]
+    (.output (CalendarOutputter.) (.toICal event) out)
+    (str out)))
+
+(defn- ical4j ^Event [ics]
+  (Event/fromICal (.build (CalendarBuilder.) (StringReader. ics))))
+
+(defn- fields [^Event e]
+  {:uid         (.getUid e)
+   :summary     (.getSummary e)
+   :start       (.getStartTime e)
+   :end         (.getEndTime e)
+   :created-at  (.getCreatedAt e)
+   :url         (.getUrl e)
+   :description (.getDescription e)
+   :location    (.getLocation e)
+   :organizer   (.getOrganizer e)
+   :timezone    (.getTimezone e)
+   :status      (.getStatus e)})
+
+(def ^:private gig
+  (Event. "Gig; one, two" (Instant/parse "2030-06-01T18:00:00Z") (Instant/parse "2030-06-01T20:30:00Z")
+          (Instant/parse "2030-05-01T08:00:00Z") "gig-1" "https://example.com/gigs/1"
+          (str "Zeile 1\nZeile 2 " (str/join (repeat 40 "ä€"))) "Grüner Markt 1, 1010 Wien" "mailto:band@example.com"
+          (ZoneId/of "Europe/Vienna") Event/TENTATIVE))
+
+(def ^:private other-client
+  (ics "BEGIN:VCALENDAR" "VERSION:2.0" "PRODID:-//other//EN"
+       "BEGIN:VEVENT" "UID:other" "DTSTAMP:20300101T000000Z" "DTSTART:20300110T180000Z" "DURATION:PT2H"
+       "SUMMARY:Rehearsal" "LAST-MODIFIED:20300101T000000Z" "END:VEVENT" "END:VCALENDAR"))
+
+(deftest reads-the-same-as-ical4j
+  (doseq [data [(written gig) other-client]]
+    (let [lazy (LazyEvent. "/cal/x.ics" "\"e1\"" data)
+          parsed (ical4j data)]
+      (is (= (fields parsed) (fields lazy)))
+      (is (= (.getContentHash parsed) (.getContentHash lazy)))
+      (is (= (.toClojure parsed) (.toClojure lazy)))
+      (is (= ["/cal/x.ics" "\"e1\"" data] [(.getHref lazy) (.getEtag lazy) (.getCalendarData lazy)]))))
+  (testing "UID and start before and after the other fields were read"
+    (let [lazy (LazyEvent. "/cal/gig-1.ics" "\"e1\"" (written gig))]
+      (is (= ["gig-1" (.getStartTime gig)] [(.getUid lazy) (.getStartTime lazy)]))
+      (is (= (.getSummary gig) (.getSummary lazy)))
+      (is (= ["gig-1" (.getStartTime gig)] [(.getUid lazy) (.getStartTime lazy)]))))
+  (testing "the full model, built once"
+    (let [lazy (LazyEvent. "/cal/gig-1.ics" "\"e1\"" (written gig))
+          calendar (.getCalendar lazy)]
+      (is (instance? Calendar calendar))
+      (is (identical? calendar (.getCalendar lazy)))
+      (is (= (fields gig) (fields (Event/fromICal calendar))))))
+  (testing "calendar-data ical4j cannot read fails only when the model is asked for"
+    (let [lazy (LazyEvent. "/cal/bad.ics" "\"e1\"" (ics "BEGIN:VCALENDAR" "BEGIN:VEVENT" "UID:bad" "END:VCALENDAR"))]
+      (is (= "bad" (.getUid lazy)))
+      (is (thrown? UncheckedIOException (.getCalendar lazy))))))
+
+(deftest stored-content-hash
+  (testing "what we wrote carries its hash"
+    (is (= (.getContentHash gig) (.getStoredContentHash (LazyEvent. "/cal/gig-1.ics" "\"e1\"" (written gig))))))
+  (testing "events of other clients have none"
+    (is (nil? (.getStoredContentHash (LazyEvent. "/cal/other.ics" "\"e1\"" other-client)))))
+  (testing "an edit that kept our X- property keeps the old hash, the content hash tells"
+    (let [edited (LazyEvent. "/cal/gig-1.ics" "\"e2\"" (str/replace (written gig) "SUMMARY:Gig" "SUMMARY:Moved gig"))]
+      (is (= (.getContentHash gig) (.getStoredContentHash edited)))
+      (is (not= (.getStoredContentHash edited) (.getContentHash edited))))))
@@ -0,0 +1,84 @@
+(ns app.multi-status-reader-test
+  (:require [app.caldav-stub :as stub]
+            [clojure.test :refer :all])
+  (:import
+   (com.outskirtslabs.nextcloudcal4j Event MultiStatusReader MultiStatusReader$Response)
+   (java.io ByteArrayInputStream)
+   (java.nio.charset StandardCharsets)
+   (java.util.function Consumer)))
+
+(defn- read-all
+  "Every response of the body as a map, and the sync-token"
+  [^String body]
+  (with-open [reader (MultiStatusReader. (ByteArrayInputStream. (.getBytes body StandardCharsets/UTF_8)))]
+    (let [responses (loop [acc []]
+                      (if-let [^MultiStatusReader$Response r (.next reader)]
+                        (recur (conj acc {:href (.getHref r) :status (.getStatus r) :etag (.getEtag r) :data (.getCalendarData r)}))
+                        acc))]
+      {:responses responses :sync-token (.getSyncToken reader)})))
+
+(defn- multistatus [& parts]
+  (apply str "<?xml version=\"1.0\" encoding=\"utf-8\"?>"
+         "<d:multistatus xmlns:d=\"DAV:\" xmlns:cal=\"urn:ietf:params:xml:ns:caldav\" xmlns:oc=\"http://owncloud.org/ns\">"
+         (concat parts ["</d:multistatus>"])))
+
+(deftest reads-each-response
+  (let [{:keys [responses sync-token]}
+        (read-all (multistatus
+                   "<d:response><d:href>/cal/a.ics</d:href><d:propstat><d:prop>"
+                   "<d:getetag>\"1\"</d:getetag><cal:calendar-data>BEGIN:VCALENDAR&#13;\nSUMMARY:a &amp; b&#13;\nEND:VCALENDAR&#13;\n</cal:calendar-data>"
+                   "</d:prop><d:status>HTTP/1.1 200 OK</d:status></d:propstat></d:response>"
+                   "<d:response><d:href>/cal/b.ics</d:href><d:propstat><d:prop>"
+                   "<d:getetag>\"2\"</d:getetag><cal:calendar-data><![CDATA[BEGIN:VCALENDAR\r\nSUMMARY:<b>\r\nEND:VCALENDAR\r\n]]></cal:calendar-data>"
+                   "</d:prop><d:status>HTTP/1.1 200 OK</d:status></d:propstat></d:response>"
+                   "<d:response><d:href>/cal/gone.ics</d:href><d:status>HTTP/1.1 404 Not Found</d:status></d:response>"))]
+    (is (= [{:href "/cal/a.ics" :status 200 :etag "\"1\"" :data "BEGIN:VCALENDAR\r\nSUMMARY:a & b\r\nEND:VCALENDAR\r\n"}
+            ;; XML turns literal line breaks into \n, servers that keep the CRs send them as &#13;
+            {:href "/cal/b.ics" :status 200 :etag "\"2\"" :data "BEGIN:VCALENDAR\nSUMMARY:<b>\nEND:VCALENDAR\n"}
+            {:href "/cal/gone.ics" :status 404 :etag nil :data nil}]
+           responses))
+    (is (nil? sync-token))))
+
+(deftest keeps-the-properties-of-the-200-propstat
+  (let [{[r] :responses} (read-all (multistatus
+                                    "<d:response><d:href>/cal/a.ics</d:href>"
+                                    "<d:propstat><d:prop><cal:calendar-data/></d:prop><d:status>HTTP/1.1 404 Not Found</d:status></d:propstat>"
+                                    "<d:propstat><d:prop><d:getetag>\"1\"</d:getetag></d:prop><d:status>HTTP/1.1 200 OK</d:status></d:propstat>"
+                                    "</d:response>"))]
+    (is (= {:href "/cal/a.ics" :status 200 :etag "\"1\"" :data nil} r)))
+  (testing "without a 200 propstat the first status counts"
+    (let [{[r] :responses} (read-all (multistatus
+                                      "<d:response><d:href>/cal/a.ics</d:href>"
+                                      "<d:propstat><d:prop><d:getetag>\"1\"</d:getetag></d:prop><d:status>HTTP/1.1 403 Forbidden</d:status></d:propstat>"
+                                      "</d:response>"))]
+      (is (= {:href "/cal/a.ics" :status 403 :etag nil :data nil} r)))))
+
+(deftest skips-what-it-does-not-know-and-reads-the-sync-token
+  (let [{:keys [responses sync-token]}
+        (read-all (multistatus
+                   "<d:response><d:href>/cal/a.ics</d:href><d:propstat><d:prop>"
+                   "<oc:size>12</oc:size><d:resourcetype><d:collection/></d:resourcetype><d:getetag>\"1\"</d:getetag>"
+                   "<oc:nested><d:href>/not/this/one</d:href></oc:nested>"
+                   "</d:prop><d:status>HTTP/1.1 200 OK</d:status></d:propstat><oc:extra>x</oc:extra></d:response>"
+                   "<d:response><d:href>/cal/b.ics</d:href><d:status>HTTP/1.1 404 Not Found</d:status></d:response>"
+                   "<d:sync-token> http://sabre.io/ns/sync/7 </d:sync-token>"))]
+    (is (= [["/cal/a.ics" 200 "\"1\""] ["/cal/b.ics" 404 nil]] (map (juxt :href :status :etag) responses)))
+    (is (= "http://sabre.io/ns/sync/7" sync-token))))
+
+(deftest an-empty-multistatus
+  (is (= {:responses [] :sync-token nil} (read-all (multistatus)))))
+
+(deftest streams-events-from-the-server
+  (let [server (apply stub/start! (for [i (range 20)] (stub/event (str "e" i) (str "Event " i))))]
+    (try
+      (with-open [c (stub/connector server)]
+        (let [seen (atom [])]
+          (.forEachEvent c (reify Consumer (accept [_ e] (swap! seen conj (.getUid ^Event e)))))
+          (is (= (set (for [i (range 20)] (str "e" i))) (set @seen)))
+          (is (= 20 (count @seen))))
+        (testing "a reduced value stops early"
+          (is (= 3 (count (transduce (take 3) conj (.reducibleEvents c))))))
+        (testing "the connection is still usable afterwards"
+          (is (= 20 (count (.listAllEvents c))))))
+      (finally
+        (stub/stop! server)))))
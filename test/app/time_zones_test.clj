@@ -0,0 +1,47 @@
+(ns app.time-zones-test
+  (:require [clojure.test :refer :all])
+  (:import
+   (com.outskirtslabs.nextcloudcal4j TimeZones)
+   (java.time Instant ZoneId)
+   (java.util.concurrent Executors TimeUnit)))
+
+(def ^:private vienna (ZoneId/of "Europe/Vienna"))
+
+(deftest every-caller-gets-its-own-copy
+  (let [a (TimeZones/getVTimeZone vienna)
+        b (TimeZones/getVTimeZone vienna)
+        before (str b)]
+    (is (not (identical? a b)))
+    (is (= (str a) before))
+    (testing "changing one copy leaves the others and the cache alone"
+      (.clear (.getObservances a))
+      (is (= before (str b)))
+      (is (= before (str (TimeZones/getVTimeZone vienna))))
+      (is (seq (.getObservances (TimeZones/getVTimeZone vienna))))))
+  (is (not (identical? (TimeZones/get vienna) (TimeZones/get vienna)))))
+
+(deftest known-zones-and-nil
+  (is (TimeZones/isKnown vienna))
+  (is (not (TimeZones/isKnown nil)))
+  (is (nil? (TimeZones/get nil)))
+  (is (nil? (TimeZones/getVTimeZone nil))))
+
+(deftest offsets-agree-with-java-time-across-threads
+  (let [instants (for [day (range 0 (* 365 4) 3)]
+                   (.plusSeconds (Instant/parse "2028-01-01T12:00:00Z") (* day 86400)))
+        pool (Executors/newFixedThreadPool 8)]
+    (try
+      (let [results (->> (range 8)
+                         (map (fn [_]
+                                (.submit pool ^Callable
+                                         (fn []
+                                           (let [tz (TimeZones/get vienna)]
+                                             (every? #(= (.getOffset tz (.toEpochMilli ^Instant %))
+                                                         (* 1000 (.getTotalSeconds (.getOffset (.getRules vienna) ^Instant %))))
+                                                     instants))))))
+                         doall
+                         (map #(.get %)))]
+        (is (every? true? results)))
+      (finally
+        (.shutdown pool)
+        (.awaitTermination pool 10 TimeUnit/SECONDS)))))